@@ -1,11 +1,13 @@
 package com.github.darrmirr;
 
 import com.github.darrmirr.featurebank.FeatureBank;
+import com.github.darrmirr.featurebank.FeatureMatch;
+import com.github.darrmirr.models.mtcnn.DetectionRequest;
+import com.github.darrmirr.utils.DataTypeInitializer;
 import com.github.darrmirr.utils.ImageFace;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
@@ -16,38 +18,51 @@ import org.springframework.core.io.Resource;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 import java.util.Optional;
 import java.util.Scanner;
 
 @SpringBootApplication
 public class Application {
     private static final Logger logger = LoggerFactory.getLogger(Application.class);
+    private static final String CONSOLE_ENABLED = "console.enabled";
     private Resource[] trainImages;
     private FeatureBank featureBank;
     private FaceDetector faceDetector;
+    private boolean consoleEnabled;
+    private DetectionRequest enrollmentRequest;
 
     @Autowired
     public Application(
             @Value("classpath:images/dataset/train/*/*.*") Resource[] trainImages,
-            @Qualifier(FeatureBank.DATA_SET) FeatureBank featureBank,
-            FaceDetector faceDetector
+            FeatureBank featureBank,
+            FaceDetector faceDetector,
+            @Value("${" + CONSOLE_ENABLED + ":true}") boolean consoleEnabled,
+            @Value("${enrollment.single-face:true}") boolean singleFaceEnrollment
     ) {
         this.trainImages = trainImages;
         this.featureBank = featureBank;
         this.faceDetector = faceDetector;
+        this.consoleEnabled = consoleEnabled;
+        // train image contains single person's face
+        this.enrollmentRequest = singleFaceEnrollment ? DetectionRequest.create().withSingleFace() : DetectionRequest.create();
     }
 
     public static void main(String[] args) {
-        SpringApplication
-                .run(Application.class, args)
-                .close();
+        var application = new SpringApplication(Application.class);
+        application.addListeners(new DataTypeInitializer());
+        var context = application.run(args);
+        // keep application running as HTTP service if console is disabled
+        if (context.getEnvironment().getProperty(CONSOLE_ENABLED, Boolean.class, true)) {
+            context.close();
+        }
     }
 
     @EventListener
     private void onApplicationStartup(ApplicationStartedEvent event) throws IOException {
         logger.info("Filling feature bank : start");
         for (Resource trainImage : trainImages) {
-            var faceFeatures = faceDetector.getFaceFeatures(trainImage);
+            var faceFeatures = faceDetector.getFaceFeatures(trainImage, enrollmentRequest);
             for (ImageFace imageFace : faceFeatures.getImageFaces()) {
                 var label = getLabel(trainImage);
                 featureBank.put(label, imageFace.getFeatureVector());
@@ -55,6 +70,10 @@ public class Application {
         }
         logger.info("Filling feature bank : end");
 
+        if (!consoleEnabled) {
+            logger.info("Console is disabled. Use HTTP API to recognize faces");
+            return;
+        }
         Scanner sc = new Scanner(System.in);
         while(true) {
             logger.info("Insert image path or print 'exit' to close:");
@@ -64,12 +83,32 @@ public class Application {
             }
             Resource resource = new FileUrlResource(inputLine);
             var faceFeatures = faceDetector.getFaceFeatures(resource);
-            for (ImageFace imageFace : faceFeatures.getImageFaces()) {
-                featureBank.getSimilar(imageFace.getFeatureVector());
+            if (faceFeatures.getImageFaces().isEmpty()) {
+                continue;
+            }
+            // all faces of image are searched by single query
+            var searchResult = featureBank.search(faceFeatures.getFeatureVectors(), 1);
+            for (int i = 0; i < searchResult.size(); i++) {
+                logMatch(i, searchResult.getMatches(i));
             }
         }
     }
 
+    private void logMatch(int face, List<FeatureMatch> featureMatches) {
+        if (featureMatches.isEmpty()) {
+            logger.info("cannot recognize face #{}, feature bank is empty", face);
+            return;
+        }
+        var featureMatch = featureMatches.get(0);
+        if (featureMatch.isRecognized()) {
+            logger.info("face #{} : similarity with {} is {} (min distance)",
+                    face, featureMatch.getLabel(), featureMatch.getDistance());
+        } else {
+            logger.info("cannot recognize face #{}, but the similar one is {} ({})",
+                    face, featureMatch.getLabel(), featureMatch.getDistance());
+        }
+    }
+
     private String getLabel(Resource resource) throws IOException {
         return Optional
                 .ofNullable(resource)
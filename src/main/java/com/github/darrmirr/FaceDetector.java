@@ -1,24 +1,39 @@
 package com.github.darrmirr;
 
+import com.github.darrmirr.concurrent.InferenceLimiter;
 import com.github.darrmirr.models.Dl4jModel;
 import com.github.darrmirr.models.InceptionResNetV1;
+import com.github.darrmirr.models.InferenceWorkspace;
+import com.github.darrmirr.models.mtcnn.DetectionRequest;
+import com.github.darrmirr.models.mtcnn.DetectionResult;
 import com.github.darrmirr.models.mtcnn.Mtcnn;
+import com.github.darrmirr.models.mtcnn.MtcnnUtils;
+import com.github.darrmirr.models.quantization.Int8Quantizer;
+import com.github.darrmirr.models.quantization.QuantizationReport;
+import com.github.darrmirr.utils.BoundBox;
+import com.github.darrmirr.utils.ByteBufferResource;
+import com.github.darrmirr.utils.DecodedImage;
 import com.github.darrmirr.utils.FaceFeatures;
+import com.github.darrmirr.utils.ImageDecoder;
 import com.github.darrmirr.utils.ImageFace;
 import com.github.darrmirr.utils.ImageUtils;
 import com.github.darrmirr.utils.Nd4jUtils;
-import org.datavec.image.loader.NativeImageLoader;
 import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ByteArrayResource;
 import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
@@ -35,24 +50,116 @@ import static java.util.stream.Collectors.toList;
 @Component
 public class FaceDetector {
     private static final Logger logger = LoggerFactory.getLogger(FaceDetector.class);
-    private NativeImageLoader loader = new NativeImageLoader();
     private Mtcnn mtcnn;
+    private MtcnnUtils mtcnnUtils;
+    private ImageDecoder imageDecoder;
     private ImageUtils imageUtils;
     private Dl4jModel model;
     private ComputationGraph faceFeatureExtracter;
     private Nd4jUtils nd4jUtils;
+    private InferenceLimiter inferenceLimiter;
+    private InferenceWorkspace inferenceWorkspace;
+    private boolean quantizationReport;
+    private Resource[] calibrationImages;
+    private Resource[] reportImages;
 
     @Autowired
-    public FaceDetector(Mtcnn mtcnn, InceptionResNetV1 model, ImageUtils imageUtils, Nd4jUtils nd4jUtils) {
+    public FaceDetector(Mtcnn mtcnn, MtcnnUtils mtcnnUtils, InceptionResNetV1 model, ImageUtils imageUtils,
+                        ImageDecoder imageDecoder, Nd4jUtils nd4jUtils, InferenceLimiter inferenceLimiter,
+                        InferenceWorkspace inferenceWorkspace,
+                        @Value("${facenet.quantization.report:false}") boolean quantizationReport,
+                        @Value("${facenet.quantization.calibration-images:classpath:images/dataset/train/*/*.*}") Resource[] calibrationImages,
+                        @Value("${facenet.quantization.report-images:classpath:images/dataset/test/*/*.*}") Resource[] reportImages) {
         this.mtcnn = mtcnn;
+        this.mtcnnUtils = mtcnnUtils;
+        this.imageDecoder = imageDecoder;
         this.imageUtils = imageUtils;
         this.model = model;
         this.nd4jUtils = nd4jUtils;
+        this.inferenceLimiter = inferenceLimiter;
+        this.inferenceWorkspace = inferenceWorkspace;
+        this.quantizationReport = quantizationReport;
+        this.calibrationImages = calibrationImages;
+        this.reportImages = reportImages;
     }
 
     @PostConstruct
     public void init() throws IOException {
         faceFeatureExtracter = model.getGraph();
+        if (quantizationReport) {
+            reportQuantization();
+        }
+    }
+
+    /**
+     * Report accuracy of int8 post-training quantization of face feature extracter
+     *
+     * Activation ranges are calibrated on faces detected at calibration images,
+     * embeddings of faces detected at report images are compared with embeddings of FLOAT model
+     * (calibration faces are used as gallery to check recognition agreement).
+     * Report is evaluated once at startup (before any request is served),
+     * FLOAT weights and activations are restored afterwards, so faces are always recognized by FLOAT model.
+     *
+     * @throws IOException exception while image file is read
+     */
+    private void reportQuantization() throws IOException {
+        var calibrationFaces = new ArrayList<INDArray>();
+        var calibrationLabels = new ArrayList<String>();
+        readFaces(calibrationImages, calibrationFaces, calibrationLabels);
+        var reportFaces = new ArrayList<INDArray>();
+        readFaces(reportImages, reportFaces, new ArrayList<>());
+        if (calibrationFaces.isEmpty() || reportFaces.isEmpty()) {
+            logger.warn("int8 quantization report is skipped : no faces at calibration or report images");
+            return;
+        }
+        var referenceGallery = embed(calibrationFaces);
+        var start = System.nanoTime();
+        var referenceTests = embed(reportFaces);
+        var referenceTime = System.nanoTime() - start;
+
+        var quantizer = new Int8Quantizer();
+        inferenceWorkspace.execute(() -> inferenceLimiter.execute(() -> {
+            quantizer.calibrate(faceFeatureExtracter, calibrationFaces);
+            return null;
+        }));
+        quantizer.quantize(faceFeatureExtracter);
+        try {
+            var quantizedGallery = embed(calibrationFaces);
+            start = System.nanoTime();
+            var quantizedTests = embed(reportFaces);
+            var quantizedTime = System.nanoTime() - start;
+            logger.info("int8 quantization report : {}",
+                    QuantizationReport.of(referenceTests, quantizedTests, referenceGallery, quantizedGallery, calibrationLabels));
+            logger.info("feature extraction time per face : FLOAT {} ms, int8 {} ms",
+                    referenceTime / 1_000_000 / reportFaces.size(), quantizedTime / 1_000_000 / reportFaces.size());
+        } finally {
+            quantizer.restore(faceFeatureExtracter);
+        }
+    }
+
+    // detect faces at images and resize them to model input (batch of single face), label of face is name of image directory
+    private void readFaces(Resource[] images, List<INDArray> faces, List<String> labels) throws IOException {
+        for (Resource image : images) {
+            for (ImageFace imageFace : detectFaces(image)) {
+                faces.add(toBatch(List.of(imageFace.get())));
+                var path = image.getURL().getPath().split("/");
+                labels.add(path.length > 1 ? path[path.length - 2] : path[0]);
+            }
+        }
+    }
+
+    private INDArray toBatch(List<INDArray> faces) {
+        return Nd4jUtils.resizeAndPrewhiten(faces, model.inputHeight(), model.inputWidth());
+    }
+
+    // face feature vectors are extracted the same way requests extract them (inside inference workspace and limiter)
+    private INDArray embed(List<INDArray> faces) {
+        var embeddings = new ArrayList<INDArray>();
+        for (INDArray face : faces) {
+            embeddings.add(inferenceWorkspace.execute(() -> InferenceWorkspace.detach(
+                    inferenceLimiter.execute(() -> InferenceWorkspace.output(faceFeatureExtracter, face)[1]))));
+        }
+        return Nd4j.vstack(embeddings);
     }
 
     /**
@@ -64,32 +171,122 @@ public class FaceDetector {
      */
 
     public List<ImageFace> detectFaces(Resource image) throws IOException {
-        try (InputStream is = image.getInputStream()) {
-            var imageMatrix = loader.asMatrix(is);
-            return mtcnn
-                    .detectFaces(imageMatrix)
+        try (var decodedImage = decode(image)) {
+            return inferenceWorkspace.execute(() ->
+                    detach(detectFaces(decodedImage)));
+        }
+    }
+
+    /**
+     * Detect faces on decoded image
+     *
+     * Faces are cropped from decoded image, but bound boxes are converted to original image coordinates.
+     *
+     * @param decodedImage decoded image
+     * @return array of detected images
+     */
+    public List<ImageFace> detectFaces(DecodedImage decodedImage) {
+        return detectFaces(decodedImage, DetectionRequest.create());
+    }
+
+    /**
+     * Detect faces on decoded image constrained by detection request
+     *
+     * @param decodedImage decoded image
+     * @param request detection request (in coordinates of decoded image)
+     * @return array of detected images
+     */
+    public List<ImageFace> detectFaces(DecodedImage decodedImage, DetectionRequest request) {
+        var fullResolution = decodedImage.getFullResolution();
+        if (fullResolution != null && mtcnn.isTiled(request, Math.max(fullResolution.getHeight(), fullResolution.getWidth()))) {
+            // bound boxes of tiled detection are in coordinates of image at full resolution and faces are cropped from it
+            return mtcnn.detectFacesTiled(decodedImage.getImage(), fullResolution)
                     .stream()
-                    .map(boundBox -> {
-                        var imageFace = nd4jUtils.crop(boundBox, imageMatrix);
-                        return new ImageFace(imageFace, boundBox);
-                    })
+                    .map(boundBox -> new ImageFace(fullResolution.crop(boundBox), boundBox))
                     .collect(toList());
         }
+        return toImageFaces(decodedImage, mtcnn.detectFaces(decodedImage.getImage(), request));
+    }
+
+    /**
+     * Detect faces on image within deadline of detection request
+     *
+     * @param image image file
+     * @param request detection request (e.g. with deadline)
+     * @return detected images (partial if deadline caused detection to skip image pyramid scales)
+     * @throws IOException exception while file is read
+     */
+    public DetectionResult<ImageFace> detect(Resource image, DetectionRequest request) throws IOException {
+        try (var decodedImage = decode(image)) {
+            return inferenceWorkspace.execute(() -> {
+                var result = mtcnn.detect(decodedImage.getImage(), request);
+                var imageFaces = detach(toImageFaces(decodedImage, result.getFaces()));
+                return new DetectionResult<>(imageFaces, result.isPartial(), result.getSkippedScales());
+            });
+        }
+    }
+
+    private List<ImageFace> toImageFaces(DecodedImage decodedImage, List<BoundBox> boundBoxes) {
+        var imageMatrix = decodedImage.getImage();
+        return boundBoxes
+                .stream()
+                .map(boundBox -> {
+                    var imageFace = nd4jUtils.crop(boundBox, imageMatrix);
+                    if (!decodedImage.isDownscaled()) {
+                        return new ImageFace(imageFace, boundBox);
+                    }
+                    var originalBoundBox = mtcnnUtils.scale(boundBox, decodedImage.getScale());
+                    originalBoundBox.sourceWidth = (int) Math.round(imageMatrix.shape()[3] * decodedImage.getScale());
+                    originalBoundBox.sourceHeight = (int) Math.round(imageMatrix.shape()[2] * decodedImage.getScale());
+                    return new ImageFace(imageFace, originalBoundBox);
+                })
+                .collect(toList());
+    }
+
+    /**
+     * Decode image file to NCHW array
+     * Image is downscaled during decode if it is much larger than image size is used to detect faces.
+     * Image of tiled detection is kept at full resolution too, so decoded image should be closed.
+     *
+     * @param image image file
+     * @return decoded image
+     * @throws IOException exception while file is read
+     */
+    public DecodedImage decode(Resource image) throws IOException {
+        var minSize = mtcnn.getDecodeSize();
+        var fullResolutionSize = mtcnn.getFullResolutionSize();
+        if (image instanceof ByteBufferResource) {
+            return imageDecoder.decode(((ByteBufferResource) image).getByteBuffer(), minSize, fullResolutionSize);
+        }
+        if (image instanceof ByteArrayResource) {
+            return imageDecoder.decode(ByteBuffer.wrap(((ByteArrayResource) image).getByteArray()), minSize, fullResolutionSize);
+        }
+        if (image.isFile()) {
+            return imageDecoder.decode(image.getFile().toPath(), minSize, fullResolutionSize);
+        }
+        try (InputStream is = image.getInputStream()) {
+            return imageDecoder.decode(ByteBuffer.wrap(is.readAllBytes()), minSize, fullResolutionSize);
+        }
     }
 
     /**
      * Extract features for each face in array
      *
+     * Faces are resized and prewhitened into single batch, features of all faces are extracted by single inference.
+     *
      * @param faces INDArray represent faces on image (image size depend on model)
      * @return list of face feature vectors
      */
     public List<ImageFace> extractFeatures(List<ImageFace> faces) {
         logger.info("Extract features from faces : {}", faces.size());
-        faces.stream().parallel().forEach(imageFace -> {
-            var resizedFace = Nd4jUtils.imresample(imageFace.get(), model.inputHeight(), model.inputWidth());
-            var output = faceFeatureExtracter.output(resizedFace)[1];
-            imageFace.setFeatureVector(output);
-        });
+        if (faces.isEmpty()) {
+            return faces;
+        }
+        var batch = toBatch(faces.stream().map(ImageFace::get).collect(toList()));
+        var output = inferenceLimiter.execute(() -> InferenceWorkspace.output(faceFeatureExtracter, batch)[1]);
+        for (int i = 0; i < faces.size(); i++) {
+            faces.get(i).setFeatureVector(output.getRow(i));
+        }
         return faces;
     }
 
@@ -102,22 +299,50 @@ public class FaceDetector {
      */
 
     public FaceFeatures getFaceFeatures(Resource image) throws IOException {
+        return getFaceFeatures(image, DetectionRequest.create());
+    }
+
+    /**
+     * Method combine detect faces constrained by detection request and extract features for each face in array
+     * (e.g. features of dominant face only are extracted for single face request)
+     *
+     * @param image image file
+     * @param request detection request
+     * @return list of face feature vectors
+     * @throws IOException exception while file is read
+     */
+    public FaceFeatures getFaceFeatures(Resource image, DetectionRequest request) throws IOException {
         logger.info("start : {}", image.getFilename());
-        var detectedFaces = detectFaces(image);
+        List<ImageFace> imageFaces;
+        try (var decodedImage = decode(image)) {
+            // detection and feature extraction share single workspace, only final results are detached
+            imageFaces = inferenceWorkspace.execute(() -> {
+                var detectedFaces = detectFaces(decodedImage, request);
+                return detectedFaces.isEmpty() ? detectedFaces : detach(extractFeatures(detectedFaces));
+            });
+        }
 
-        if (detectedFaces == null || detectedFaces.isEmpty()) {
+        if (imageFaces.isEmpty()) {
             logger.warn("no face detected in image file : {}", image);
             return new FaceFeatures(image, Collections.emptyList());
         }
 
         if (logger.isDebugEnabled()) {
             logger.debug("save detected face image");
-            for (int i = 0; i < detectedFaces.size(); i++) {
-                imageUtils.toFile(detectedFaces.get(i).getImageFace(), "jpg", i + "_" + image.getFilename());
+            for (int i = 0; i < imageFaces.size(); i++) {
+                imageUtils.toFile(imageFaces.get(i).getImageFace(), "jpg", i + "_" + image.getFilename());
             }
         }
-        var imageFaces = extractFeatures(detectedFaces);
         logger.info("end : {}", image.getFilename());
         return new FaceFeatures(image, imageFaces);
     }
-}
\ No newline at end of file
+
+    // move face images and feature vectors out of inference workspace
+    private List<ImageFace> detach(List<ImageFace> imageFaces) {
+        for (ImageFace imageFace : imageFaces) {
+            imageFace.setImageFace(InferenceWorkspace.detach(imageFace.getImageFace()));
+            imageFace.setFeatureVector(InferenceWorkspace.detach(imageFace.getFeatureVector()));
+        }
+        return imageFaces;
+    }
+}
\ No newline at end of file
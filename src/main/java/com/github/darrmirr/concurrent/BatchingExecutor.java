@@ -0,0 +1,212 @@
+package com.github.darrmirr.concurrent;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.INDArrayIndex;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Executor that merges inference inputs of concurrent requests into single batch
+ *
+ * Request thread submits its input (examples along dimension 0) and waits for its own rows of inference output.
+ * Batching thread takes the first waiting input, gathers more inputs until batch reaches max batch size
+ * or max wait time is elapsed, performs single inference and routes output rows back to every request.
+ * Input that is larger than max batch size is evaluated alone.
+ */
+public class BatchingExecutor implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(BatchingExecutor.class);
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final Function<INDArray, INDArray[]> inference;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+    private final Thread thread;
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    // request taken from queue that does not fit into gathered batch (it starts next batch, batching thread only)
+    private Request pending;
+    private volatile boolean closed;
+
+    /**
+     * @param name name of batching thread
+     * @param inference inference of batch (input is concatenation of request inputs along dimension 0)
+     * @param maxBatchSize max amount of examples in batch
+     * @param maxWaitMillis max time to wait for inputs of other requests
+     */
+    public BatchingExecutor(String name, Function<INDArray, INDArray[]> inference, int maxBatchSize, long maxWaitMillis) {
+        this.inference = inference;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        this.thread = new Thread(this::run, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Perform inference of input as part of batch
+     *
+     * @param input inference input (examples along dimension 0)
+     * @return inference output rows that belong to input
+     */
+    public INDArray[] output(INDArray input) {
+        if (closed) {
+            throw closedException();
+        }
+        var request = new Request(input);
+        queue.add(request);
+        // executor could be closed after the first check and batching thread could fail waiting requests already,
+        // so request is failed here unless batching thread has taken it
+        if (closed && queue.remove(request)) {
+            throw closedException();
+        }
+        try {
+            return request.result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    public String getName() {
+        return thread.getName();
+    }
+
+    /**
+     * @return average amount of requests per batch
+     */
+    public double getAverageRequestsPerBatch() {
+        long batchAmount = batches.get();
+        return batchAmount == 0 ? 0 : (double) requests.get() / batchAmount;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        thread.interrupt();
+    }
+
+    private void run() {
+        var batch = new ArrayList<Request>();
+        while (!closed) {
+            try {
+                batch.add(pending != null ? pending : queue.take());
+                pending = null;
+                gather(batch);
+                execute(batch);
+            } catch (InterruptedException e) {
+                // requests taken from queue are not executed
+                batch.forEach(request -> request.result.completeExceptionally(closedException()));
+                if (pending != null) {
+                    pending.result.completeExceptionally(closedException());
+                    pending = null;
+                }
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                batch.clear();
+            }
+        }
+        if (pending != null) {
+            pending.result.completeExceptionally(closedException());
+        }
+        Request request;
+        while ((request = queue.poll()) != null) {
+            request.result.completeExceptionally(closedException());
+        }
+    }
+
+    private void gather(List<Request> batch) throws InterruptedException {
+        long size = batch.get(0).input.size(0);
+        long deadline = System.nanoTime() + maxWaitNanos;
+        while (size < maxBatchSize) {
+            var next = queue.peek();
+            if (next == null) {
+                long timeout = deadline - System.nanoTime();
+                if (timeout <= 0) {
+                    return;
+                }
+                next = queue.poll(timeout, TimeUnit.NANOSECONDS);
+                if (next == null) {
+                    return;
+                }
+                if (size + next.input.size(0) > maxBatchSize) {
+                    // request is already taken from queue, so it is kept as the first request of next batch
+                    pending = next;
+                    return;
+                }
+                batch.add(next);
+            } else if (size + next.input.size(0) <= maxBatchSize) {
+                batch.add(queue.poll());
+            } else {
+                // next input is evaluated at next batch
+                return;
+            }
+            size += next.input.size(0);
+        }
+    }
+
+    private void execute(List<Request> batch) {
+        try {
+            var inputs = new INDArray[batch.size()];
+            for (int i = 0; i < inputs.length; i++) {
+                inputs[i] = batch.get(i).input;
+            }
+            var output = inference.apply(inputs.length == 1 ? inputs[0] : Nd4j.concat(0, inputs));
+            long from = 0;
+            for (Request request : batch) {
+                long to = from + request.input.size(0);
+                var result = new INDArray[output.length];
+                for (int i = 0; i < output.length; i++) {
+                    result[i] = rows(output[i], from, to);
+                }
+                request.result.complete(result);
+                from = to;
+            }
+            batches.incrementAndGet();
+            requests.addAndGet(batch.size());
+            logger.trace("{} : batch of {} requests, {} examples", thread.getName(), batch.size(), from);
+        } catch (Throwable e) {
+            // batching thread keeps serving next batches whatever inference throws
+            logger.error("{} : inference of batch of {} requests failed", thread.getName(), batch.size(), e);
+            batch.forEach(request -> request.result.completeExceptionally(e));
+        }
+    }
+
+    private IllegalStateException closedException() {
+        return new IllegalStateException("batching executor " + thread.getName() + " is closed");
+    }
+
+    private static INDArray rows(INDArray array, long from, long to) {
+        var indexes = new INDArrayIndex[array.rank()];
+        indexes[0] = NDArrayIndex.interval(from, to);
+        for (int i = 1; i < indexes.length; i++) {
+            indexes[i] = NDArrayIndex.all();
+        }
+        return array.get(indexes).dup();
+    }
+
+    private static class Request {
+        private final INDArray input;
+        private final CompletableFuture<INDArray[]> result = new CompletableFuture<>();
+
+        private Request(INDArray input) {
+            this.input = input;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.github.darrmirr.concurrent;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Executor decorator that limits amount of submitted but not finished tasks
+ *
+ * Task is rejected with TaskRejectedException if limit is reached (backpressure).
+ * It is used with executors that have no queue bound (e.g. virtual thread per task executor).
+ */
+public class BoundedExecutor implements TaskExecutor, DisposableBean {
+    private final Executor executor;
+    private final Semaphore inFlight;
+
+    public BoundedExecutor(Executor executor, int maxInFlight) {
+        this.executor = executor;
+        this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (!inFlight.tryAcquire()) {
+            throw new TaskRejectedException("executor " + executor + " has reached max in-flight tasks");
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    inFlight.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (executor instanceof ExecutorService) {
+            ((ExecutorService) executor).shutdown();
+        }
+    }
+}
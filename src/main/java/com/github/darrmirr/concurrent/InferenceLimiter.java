@@ -0,0 +1,60 @@
+package com.github.darrmirr.concurrent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+/**
+ * Limit amount of concurrent neural network inferences (ND4J native calls)
+ *
+ * Request threads may be numerous (e.g. virtual threads), but native inference is CPU bound
+ * and should not be performed by more threads than CPU cores are available.
+ * Each graph output call is gated by semaphore that is sized to CPU cores amount by default.
+ */
+
+@Component
+public class InferenceLimiter {
+    private static final Logger logger = LoggerFactory.getLogger(InferenceLimiter.class);
+    private final Semaphore permits;
+    private final int maxConcurrency;
+
+    @Autowired
+    public InferenceLimiter(@Value("${inference.max-concurrency:0}") int maxConcurrency) {
+        this.maxConcurrency = maxConcurrency > 0 ? maxConcurrency : Runtime.getRuntime().availableProcessors();
+        this.permits = new Semaphore(this.maxConcurrency, true);
+        logger.info("max concurrent inferences : {}", this.maxConcurrency);
+    }
+
+    public InferenceLimiter() {
+        this(0);
+    }
+
+    /**
+     * Execute inference when permit is available
+     *
+     * @param inference inference to execute
+     * @param <T> inference result type
+     * @return inference result
+     */
+    public <T> T execute(Supplier<T> inference) {
+        permits.acquireUninterruptibly();
+        try {
+            return inference.get();
+        } finally {
+            permits.release();
+        }
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public int getAvailablePermits() {
+        return permits.availablePermits();
+    }
+}
@@ -0,0 +1,43 @@
+package com.github.darrmirr.concurrent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Access to virtual threads
+ *
+ * Application is compiled for Java 11, so virtual thread executor is looked up at runtime.
+ * It is available when application is run on Java 21+.
+ */
+public final class VirtualThreads {
+    private static final Logger logger = LoggerFactory.getLogger(VirtualThreads.class);
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * Create executor that starts new virtual thread for each task
+     *
+     * @return virtual thread per task executor or empty optional if JVM does not support virtual threads
+     */
+    public static Optional<ExecutorService> newVirtualThreadPerTaskExecutor() {
+        try {
+            var factoryMethod = MethodHandles
+                    .publicLookup()
+                    .findStatic(Executors.class, "newVirtualThreadPerTaskExecutor", MethodType.methodType(ExecutorService.class));
+            return Optional.of((ExecutorService) factoryMethod.invoke());
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            logger.debug("virtual threads are not supported by JVM {}", Runtime.version());
+            return Optional.empty();
+        } catch (Throwable e) {
+            logger.warn("error to create virtual thread executor", e);
+            return Optional.empty();
+        }
+    }
+}
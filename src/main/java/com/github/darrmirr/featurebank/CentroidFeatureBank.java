@@ -0,0 +1,150 @@
+package com.github.darrmirr.featurebank;
+
+import com.github.darrmirr.featurebank.verifier.FeatureVerifier;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Feature bank with two-stage search over per-label centroids and exemplars
+ *
+ * Each label has centroid (running mean of its feature vectors updated on put) and exemplars (all its feature vectors).
+ * The first stage searches centroids and selects "feature-bank.centroid.candidate-labels" nearest labels,
+ * the second stage re-ranks exemplars of selected labels only.
+ * So search cost scales with amount of labels instead of amount of stored feature vectors.
+ * Less candidate labels make search faster but less accurate.
+ */
+
+@Component
+@Qualifier(FeatureBank.CENTROID)
+@ConditionalOnProperty(name = FeatureBank.TYPE_PROPERTY, havingValue = FeatureBank.CENTROID)
+public class CentroidFeatureBank implements FeatureBank {
+    private static final Logger logger = LoggerFactory.getLogger(CentroidFeatureBank.class);
+    // label id is row of its centroid
+    private final List<String> labels = new ArrayList<>();
+    private final Map<String, Integer> labelIds = new HashMap<>();
+    private final List<List<Integer>> exemplarRows = new ArrayList<>();
+    private final FeatureMatrix centroids = new FeatureMatrix();
+    private final FeatureMatrix exemplars = new FeatureMatrix();
+    private final int candidateLabels;
+    private FeatureVerifier featureVerifier;
+
+    @Autowired
+    public CentroidFeatureBank(
+            @Qualifier(FeatureVerifier.EUCLIDEAN_DISTANCE) FeatureVerifier featureVerifier,
+            @Value("${feature-bank.centroid.candidate-labels:8}") int candidateLabels
+    ) {
+        this.featureVerifier = featureVerifier;
+        this.candidateLabels = Math.max(1, candidateLabels);
+    }
+
+    @Override
+    public synchronized void put(String label, INDArray featureVector) {
+        logger.info("try to add {} to feature bank", label);
+        if (label != null && featureVector != null) {
+            var row = exemplars.append(featureVector);
+            var labelId = labelIds.get(label);
+            if (labelId == null) {
+                labelId = centroids.append(featureVector);
+                labels.add(label);
+                labelIds.put(label, labelId);
+                exemplarRows.add(new ArrayList<>());
+            } else {
+                // running mean : centroid += (feature - centroid) / n
+                var centroid = centroids.getRow(labelId);
+                var amount = exemplarRows.get(labelId).size() + 1;
+                centroid.addi(exemplars.getRow(row).sub(centroid).divi(amount));
+            }
+            exemplarRows.get(labelId).add(row);
+            logger.info("{} has added to feature bank", label);
+        }
+    }
+
+    /**
+     * @return copy of the first feature vector stored for label (row of matrix is not exposed, because matrix is
+     *         reallocated as bank grows)
+     */
+    @Override
+    public synchronized INDArray get(String label) {
+        var labelId = label == null ? null : labelIds.get(label);
+        return labelId == null ? Nd4j.empty() : exemplars.getRow(exemplarRows.get(labelId).get(0)).dup();
+    }
+
+    /**
+     * @return copy of running mean of feature vectors stored for label (centroid row is updated by put) or empty array
+     */
+    public synchronized INDArray getCentroid(String label) {
+        var labelId = label == null ? null : labelIds.get(label);
+        return labelId == null ? Nd4j.empty() : centroids.getRow(labelId).dup();
+    }
+
+    @Override
+    public INDArray getSimilar(INDArray featureTest) {
+        var featureMatch = getNearest(featureTest).orElse(null);
+        if (featureMatch == null) {
+            logger.info("cannot recognize this person, feature bank is empty");
+            return Nd4j.empty();
+        }
+        if (featureMatch.isRecognized()) {
+            logger.info("similarity with {} is {} (min distance)", featureMatch.getLabel(), featureMatch.getDistance());
+            return get(featureMatch.getLabel());
+        }
+        logger.info("cannot recognize this person, but the similar one is {} ({})",
+                featureMatch.getLabel(), featureMatch.getDistance());
+        return Nd4j.empty();
+    }
+
+    @Override
+    public Optional<FeatureMatch> getNearest(INDArray featureTest) {
+        return search(featureTest.reshape(1, featureTest.length()), 1)
+                .getMatches(0)
+                .stream()
+                .findFirst();
+    }
+
+    /**
+     * Row id of match is row of exemplar
+     */
+    @Override
+    public synchronized SearchResult search(INDArray queries, int k) {
+        if (labels.isEmpty()) {
+            return new SearchResult(Collections.nCopies(queries.rows(), List.of()));
+        }
+        // first stage : the nearest centroids (row id of match is label id)
+        var centroidDistances = featureVerifier.verifyAll(centroids.getRows(), queries);
+        var candidates = SearchResult.of(centroidDistances, labels::get, candidateLabels, featureVerifier.threshold());
+        // second stage : exemplars of candidate labels
+        var matches = new ArrayList<List<FeatureMatch>>(queries.rows());
+        for (int query = 0; query < queries.rows(); query++) {
+            var rows = new ArrayList<Integer>();
+            var rowLabels = new ArrayList<String>();
+            for (FeatureMatch candidate : candidates.getMatches(query)) {
+                var candidateRows = exemplarRows.get((int) candidate.getRow());
+                rows.addAll(candidateRows);
+                rowLabels.addAll(Collections.nCopies(candidateRows.size(), candidate.getLabel()));
+            }
+            var candidateExemplars = exemplars.getRows().getRows(rows.stream().mapToInt(Integer::intValue).toArray());
+            var exemplarDistances = featureVerifier.verifyAll(candidateExemplars, queries.getRow(query));
+            var queryMatches = new ArrayList<FeatureMatch>();
+            for (FeatureMatch featureMatch : SearchResult.of(exemplarDistances, rowLabels::get, k, featureVerifier.threshold()).getMatches(0)) {
+                queryMatches.add(new FeatureMatch(featureMatch.getLabel(), featureMatch.getDistance(),
+                        featureMatch.isRecognized(), rows.get((int) featureMatch.getRow())));
+            }
+            matches.add(queryMatches);
+        }
+        return new SearchResult(matches);
+    }
+}
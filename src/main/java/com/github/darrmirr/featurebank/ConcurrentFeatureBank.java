@@ -0,0 +1,260 @@
+package com.github.darrmirr.featurebank;
+
+import com.github.darrmirr.featurebank.verifier.FeatureVerifier;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Feature bank for concurrent enrollment and recognition
+ *
+ * Readers search immutable snapshot reached through volatile reference without any locking.
+ * Writers put feature vectors to queue, one of them drains the queue and publishes new snapshot,
+ * so concurrent puts are appended by batch (group commit).
+ * Snapshot arrays are append-only: new snapshot shares arrays with previous one and rows are written
+ * behind the size of previous snapshot only. Arrays are copied when their capacity is exceeded (capacity is doubled).
+ * Put returns when its feature vector is visible to readers (or throws if it is rejected).
+ * Bank could store multiple feature vectors for the same label (many (features) to one (label) relation)
+ */
+
+@Component
+@Qualifier(FeatureBank.CONCURRENT)
+@ConditionalOnProperty(name = FeatureBank.TYPE_PROPERTY, havingValue = FeatureBank.CONCURRENT)
+public class ConcurrentFeatureBank implements FeatureBank {
+    private static final Logger logger = LoggerFactory.getLogger(ConcurrentFeatureBank.class);
+    private static final int INITIAL_CAPACITY = 16;
+    private final Queue<PendingWrite> pending = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock publishLock = new ReentrantLock();
+    // label to row of its first feature vector (row is visible to readers only if it is less than snapshot size)
+    private final Map<String, Integer> labelIndex = new ConcurrentHashMap<>();
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+    private FeatureVerifier featureVerifier;
+
+    @Autowired
+    public ConcurrentFeatureBank(@Qualifier(FeatureVerifier.EUCLIDEAN_DISTANCE) FeatureVerifier featureVerifier) {
+        this.featureVerifier = featureVerifier;
+    }
+
+    @Override
+    public void put(String label, INDArray featureVector) {
+        logger.info("try to add {} to feature bank", label);
+        if (label != null && featureVector != null) {
+            checkLength(featureVector.length());
+            write(List.of(label), featureVector.reshape(1, featureVector.length()));
+            logger.info("{} has added to feature bank", label);
+        }
+    }
+
+    @Override
+    public void putAll(List<String> labels, INDArray featureVectors) {
+        if (labels.size() != featureVectors.rows()) {
+            throw new IllegalArgumentException("amount of labels " + labels.size()
+                    + " differs from amount of feature vectors " + featureVectors.rows());
+        }
+        if (labels.isEmpty()) {
+            return;
+        }
+        checkLength(featureVectors.columns());
+        write(List.copyOf(labels), featureVectors);
+        logger.info("{} feature vectors have added to feature bank", labels.size());
+    }
+
+    /**
+     * Returned feature vector is copy of snapshot row, so caller cannot change feature vector readers search for
+     */
+    @Override
+    public INDArray get(String label) {
+        var current = snapshot;
+        var row = label == null ? null : labelIndex.get(label);
+        return row == null || row >= current.size ? Nd4j.empty() : current.features.getRow(row).dup();
+    }
+
+    @Override
+    public INDArray getSimilar(INDArray featureTest) {
+        var featureMatch = getNearest(featureTest).orElse(null);
+        if (featureMatch == null) {
+            logger.info("cannot recognize this person, feature bank is empty");
+            return Nd4j.empty();
+        }
+        if (featureMatch.isRecognized()) {
+            logger.info("similarity with {} is {} (min distance)", featureMatch.getLabel(), featureMatch.getDistance());
+            return get(featureMatch.getLabel());
+        }
+        logger.info("cannot recognize this person, but the similar one is {} ({})",
+                featureMatch.getLabel(), featureMatch.getDistance());
+        return Nd4j.empty();
+    }
+
+    @Override
+    public Optional<FeatureMatch> getNearest(INDArray featureTest) {
+        return search(featureTest.reshape(1, featureTest.length()), 1)
+                .getMatches(0)
+                .stream()
+                .findFirst();
+    }
+
+    /**
+     * Distances between all queries and all feature vectors of current snapshot are calculated by single matrix operation
+     */
+    @Override
+    public SearchResult search(INDArray queries, int k) {
+        var current = snapshot;
+        if (current.size == 0) {
+            return new SearchResult(Collections.nCopies(queries.rows(), List.of()));
+        }
+        var storedFeatures = current.features.get(NDArrayIndex.interval(0, current.size), NDArrayIndex.all());
+        var distances = featureVerifier.verifyAll(storedFeatures, queries);
+        return SearchResult.of(distances, row -> current.labels[row], k, featureVerifier.threshold());
+    }
+
+    public int size() {
+        return snapshot.size;
+    }
+
+    private static IllegalArgumentException lengthException(long featureLength, long expectedLength) {
+        return new IllegalArgumentException("feature vector length " + featureLength + " differs from " + expectedLength);
+    }
+
+    private void checkLength(long featureLength) {
+        var features = snapshot.features;
+        if (features != null && features.columns() != featureLength) {
+            throw lengthException(featureLength, features.columns());
+        }
+    }
+
+    /**
+     * Queue feature vectors of writer, publish them and throw error if they are rejected
+     */
+    private void write(List<String> labels, INDArray featureVectors) {
+        PendingWrite write;
+        // copy feature vectors to keep them valid after caller's workspace is closed
+        try (var ignored = Nd4j.getWorkspaceManager().scopeOutOfWorkspaces()) {
+            write = new PendingWrite(labels, featureVectors.dup('c'));
+        }
+        pending.add(write);
+        publish();
+        if (write.error != null) {
+            throw write.error;
+        }
+    }
+
+    /**
+     * Drain pending feature vectors and publish them by new snapshot
+     *
+     * Writer waits for lock, so its feature vectors are published (or rejected) by itself or by writer holding lock before.
+     * Feature vectors are validated before any row is written : write of other length than bank (or the first write
+     * of batch if bank is empty) is rejected alone. Writes of batch are rejected together only if rows cannot be written.
+     */
+    private void publish() {
+        publishLock.lock();
+        try {
+            if (pending.isEmpty()) {
+                return;
+            }
+            var current = snapshot;
+            var batch = new ArrayList<PendingWrite>();
+            long featureLength = current.features == null ? -1 : current.features.columns();
+            int rows = 0;
+            PendingWrite write;
+            while ((write = pending.poll()) != null) {
+                long length = write.features.columns();
+                if (featureLength >= 0 && length != featureLength) {
+                    write.error = lengthException(length, featureLength);
+                    continue;
+                }
+                featureLength = length;
+                rows += write.labels.size();
+                batch.add(write);
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            try {
+                var next = current.ensureCapacity(current.size + rows, featureLength);
+                int row = current.size;
+                for (PendingWrite batchWrite : batch) {
+                    int writeRows = batchWrite.labels.size();
+                    next.features.get(NDArrayIndex.interval(row, row + writeRows), NDArrayIndex.all()).assign(batchWrite.features);
+                    for (int i = 0; i < writeRows; i++) {
+                        next.labels[row + i] = batchWrite.labels.get(i);
+                    }
+                    row += writeRows;
+                }
+                for (int i = current.size; i < row; i++) {
+                    labelIndex.putIfAbsent(next.labels[i], i);
+                }
+                // volatile write publishes rows written above
+                snapshot = new Snapshot(next.features, next.labels, row);
+            } catch (RuntimeException e) {
+                // snapshot is not changed, so none of writes of batch is published
+                batch.forEach(batchWrite -> batchWrite.error = new IllegalStateException("feature vectors are not published", e));
+            }
+        } finally {
+            publishLock.unlock();
+        }
+    }
+
+    /**
+     * Feature vectors of single put (or putAll) that wait for publish
+     * Error is set by publishing writer if feature vectors are rejected.
+     */
+    private static class PendingWrite {
+        private final List<String> labels;
+        private final INDArray features;
+        private volatile RuntimeException error;
+
+        private PendingWrite(List<String> labels, INDArray features) {
+            this.labels = labels;
+            this.features = features;
+        }
+    }
+
+    private static class Snapshot {
+        private static final Snapshot EMPTY = new Snapshot(null, new String[0], 0);
+        private final INDArray features;
+        private final String[] labels;
+        private final int size;
+
+        private Snapshot(INDArray features, String[] labels, int size) {
+            this.features = features;
+            this.labels = labels;
+            this.size = size;
+        }
+
+        /**
+         * @return snapshot sharing arrays with this one if they could hold required amount of rows or
+         * snapshot with copied arrays of doubled capacity otherwise
+         */
+        private Snapshot ensureCapacity(int rows, long featureLength) {
+            if (rows <= labels.length) {
+                return this;
+            }
+            var capacity = Math.max(Math.max(INITIAL_CAPACITY, labels.length * 2), rows);
+            try (var ignored = Nd4j.getWorkspaceManager().scopeOutOfWorkspaces()) {
+                var newFeatures = Nd4j.create(capacity, (int) (features == null ? featureLength : features.columns()));
+                if (size > 0) {
+                    var storedRows = NDArrayIndex.interval(0, size);
+                    newFeatures.get(storedRows, NDArrayIndex.all()).assign(features.get(storedRows, NDArrayIndex.all()));
+                }
+                return new Snapshot(newFeatures, Arrays.copyOf(labels, capacity), size);
+            }
+        }
+    }
+}
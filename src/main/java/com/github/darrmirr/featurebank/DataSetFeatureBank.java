@@ -2,24 +2,36 @@ package com.github.darrmirr.featurebank;
 
 import com.github.darrmirr.featurebank.verifier.FeatureVerifier;
 import org.nd4j.linalg.api.ndarray.INDArray;
-import org.nd4j.linalg.dataset.DataSet;
 import org.nd4j.linalg.factory.Nd4j;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
 /**
- * Feature bank stores features in ND4J DataSet structure
- * DataSet could store multiple feature vectors for the same label (many (features) to one (label) relation)
+ * Feature bank stores features in contiguous ND4J array (off-heap memory, see FeatureMatrix)
+ * Row of array corresponds to label at the same index of labels list.
+ * Bank could store multiple feature vectors for the same label (many (features) to one (label) relation)
  */
 
 @Component
 @Qualifier(FeatureBank.DATA_SET)
+@ConditionalOnProperty(name = FeatureBank.TYPE_PROPERTY, havingValue = FeatureBank.DATA_SET, matchIfMissing = true)
 public class DataSetFeatureBank implements FeatureBank {
     private static final Logger logger = LoggerFactory.getLogger(DataSetFeatureBank.class);
-    private DataSet dataSet;
+    private final List<String> labels = new ArrayList<>();
+    // label to row of its first feature vector
+    private final Map<String, Integer> labelIndex = new HashMap<>();
+    private final FeatureMatrix features = new FeatureMatrix();
     private FeatureVerifier featureVerifier;
 
     @Autowired
@@ -28,59 +40,81 @@ public class DataSetFeatureBank implements FeatureBank {
     }
 
     @Override
-    public void put(String label, INDArray featureVector) {
+    public synchronized void put(String label, INDArray featureVector) {
         logger.info("try to add {} to feature bank", label);
         if (label != null && featureVector != null) {
-            if (dataSet == null) {
-                dataSet = new DataSet(featureVector, Nd4j.zeros(1));
-                dataSet.getLabelNamesList().add(0, label);
-            } else {
-                int labelIdx = getIndexOf(label);
-
-                dataSet.setFeatures(Nd4j.vstack(dataSet.getFeatures(), featureVector));
-                dataSet.setLabels(Nd4j.hstack(dataSet.getLabels(), Nd4j.zeros(1).addi(labelIdx)));
-                dataSet.getLabelNamesList().add(labelIdx, label);
-            }
+            addLabel(label, features.append(featureVector));
             logger.info("{} has added to feature bank", label);
         }
     }
 
     @Override
-    public INDArray get(String label) {
-        var labelIdx = dataSet == null ? -1 : dataSet.getLabelNamesList().indexOf(label);
-        return labelIdx == -1 ? Nd4j.empty() : dataSet.getFeatures().getRow(labelIdx);
+    public synchronized void putAll(List<String> labels, INDArray featureVectors) {
+        if (labels.size() != featureVectors.rows()) {
+            throw new IllegalArgumentException("amount of labels " + labels.size()
+                    + " differs from amount of feature vectors " + featureVectors.rows());
+        }
+        if (labels.isEmpty()) {
+            return;
+        }
+        var firstRow = features.append(featureVectors);
+        for (int i = 0; i < labels.size(); i++) {
+            addLabel(labels.get(i), firstRow + i);
+        }
+        logger.info("{} feature vectors have added to feature bank", labels.size());
+    }
+
+    /**
+     * @return copy of stored feature vector (row of matrix is not exposed, because matrix is reallocated as bank grows)
+     */
+    @Override
+    public synchronized INDArray get(String label) {
+        var row = label == null ? null : labelIndex.get(label);
+        return row == null ? Nd4j.empty() : features.getRow(row).dup();
     }
 
     @Override
     public INDArray getSimilar(INDArray featureTest) {
-        double minVal = Double.MAX_VALUE;
-        String label = "none";
-        for(int i = 0; i < dataSet.numOutcomes(); i++) {
-            var featureSource = dataSet.getFeatures().getRow(i);
-            double tmpVal = featureVerifier.verify(featureSource, featureTest);
-            logger.debug("similarity with {} is {}", dataSet.getLabelName(i), tmpVal);
-            if(tmpVal < minVal) {
-                minVal = tmpVal;
-                label = dataSet.getLabelName(i);
-            }
+        var featureMatch = getNearest(featureTest).orElse(null);
+        if (featureMatch == null) {
+            logger.info("cannot recognize this person, feature bank is empty");
+            return Nd4j.empty();
         }
-
-        if(minVal < featureVerifier.threshold()) {
-            logger.info("similarity with {} is {} (min distance)", label, minVal);
-            return get(label);
+        if (featureMatch.isRecognized()) {
+            logger.info("similarity with {} is {} (min distance)", featureMatch.getLabel(), featureMatch.getDistance());
+            return get(featureMatch.getLabel());
         }
-        logger.info("cannot recognize this person, but the similar one is {} ({})", label, minVal);
+        logger.info("cannot recognize this person, but the similar one is {} ({})",
+                featureMatch.getLabel(), featureMatch.getDistance());
         return Nd4j.empty();
     }
 
-    private int getIndexOf(String label) {
-        return dataSet == null ? 0 : dataSet
-                .getLabelNamesList()
+    @Override
+    public Optional<FeatureMatch> getNearest(INDArray featureTest) {
+        return search(featureTest.reshape(1, featureTest.length()), 1)
+                .getMatches(0)
                 .stream()
-                .filter(storedLabel ->
-                        storedLabel.equalsIgnoreCase(label))
-                .findFirst()
-                .map(dataSet.getLabelNamesList()::indexOf)
-                .orElse(dataSet.getLabelNamesList().size());
+                .findFirst();
+    }
+
+    /**
+     * Distances between all queries and all stored feature vectors are calculated by single matrix operation
+     */
+    @Override
+    public synchronized SearchResult search(INDArray queries, int k) {
+        if (labels.isEmpty()) {
+            return new SearchResult(Collections.nCopies(queries.rows(), List.of()));
+        }
+        var distances = featureVerifier.verifyAll(features.getRows(), queries);
+        return SearchResult.of(distances, labels::get, k, featureVerifier.threshold());
+    }
+
+    public synchronized int size() {
+        return labels.size();
+    }
+
+    private void addLabel(String label, int row) {
+        labels.add(label);
+        labelIndex.putIfAbsent(label, row);
     }
 }
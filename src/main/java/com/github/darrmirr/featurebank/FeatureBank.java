@@ -2,12 +2,25 @@ package com.github.darrmirr.featurebank;
 
 import org.nd4j.linalg.api.ndarray.INDArray;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
 /*
  * Interface for features vector storage
+ *
+ * Implementation is chosen by "feature-bank.type" property (data_set by default):
+ * each implementation is a bean conditional on its type, so only the selected one is created.
  */
 public interface FeatureBank {
+    String TYPE_PROPERTY = "feature-bank.type";
     String HASH_MAP = "hash_map";
     String DATA_SET = "data_set";
+    String HALF_PRECISION = "half_precision";
+    String PRODUCT_QUANTIZED = "product_quantized";
+    String CONCURRENT = "concurrent";
+    String SHARDED = "sharded";
+    String CENTROID = "centroid";
 
     /**
      * Put new feature vector to bank
@@ -17,6 +30,18 @@ public interface FeatureBank {
      */
     void put(String label, INDArray featureVector);
 
+    /**
+     * Put multiple feature vectors to bank
+     *
+     * @param labels labels for input features
+     * @param featureVectors feature vectors to store at bank (row per label)
+     */
+    default void putAll(List<String> labels, INDArray featureVectors) {
+        for (int i = 0; i < labels.size(); i++) {
+            put(labels.get(i), featureVectors.getRow(i));
+        }
+    }
+
     /**
      * Get stored feature vector by label
      *
@@ -32,4 +57,33 @@ public interface FeatureBank {
      * @return feature vector stored at bank similar to input one
      */
     INDArray getSimilar(INDArray featureTest);
+
+    /**
+     * Get label and distance of stored feature vector nearest to input one
+     *
+     * @param featureTest input feature vector to test
+     * @return nearest feature match or empty optional if bank is empty
+     */
+    Optional<FeatureMatch> getNearest(INDArray featureTest);
+
+    /**
+     * Get labels, distances and row ids of k stored feature vectors nearest to every query
+     * Default implementation searches the nearest feature vector of each query one by one,
+     * so bank that does not override it supports k = 1 only.
+     *
+     * @param queries feature vectors to test (row per query)
+     * @param k max amount of matches per query
+     * @return feature matches per query sorted by distance
+     * @throws UnsupportedOperationException if k is greater than 1
+     */
+    default SearchResult search(INDArray queries, int k) {
+        if (k > 1) {
+            throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support top-k search of k = " + k);
+        }
+        var matches = new ArrayList<List<FeatureMatch>>(queries.rows());
+        for (int i = 0; i < queries.rows(); i++) {
+            matches.add(k <= 0 ? List.of() : getNearest(queries.getRow(i)).map(List::of).orElse(List.of()));
+        }
+        return new SearchResult(matches);
+    }
 }
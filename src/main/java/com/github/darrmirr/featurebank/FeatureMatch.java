@@ -0,0 +1,22 @@
+package com.github.darrmirr.featurebank;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * The nearest feature vector stored at feature bank for input one
+ */
+
+@AllArgsConstructor
+@Getter
+public class FeatureMatch {
+    private String label;
+    private double distance;
+    private boolean recognized;
+    // row id of matched feature vector at feature bank (-1 if bank does not expose row ids)
+    private long row;
+
+    public FeatureMatch(String label, double distance, boolean recognized) {
+        this(label, distance, recognized, -1);
+    }
+}
@@ -0,0 +1,69 @@
+package com.github.darrmirr.featurebank;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+/**
+ * Contiguous ND4J array of feature vectors (row per vector) with amortized growth
+ *
+ * Array capacity is doubled when it is full, so adding N feature vectors costs O(N) copying.
+ * Array is allocated out of any workspace because feature bank outlives inference workspaces.
+ * Class is not thread safe.
+ */
+public class FeatureMatrix {
+    private static final int INITIAL_CAPACITY = 16;
+    private INDArray features;
+    private int size;
+
+    /**
+     * Append feature vectors
+     *
+     * @param featureVectors feature vectors (row per vector)
+     * @return row of the first appended feature vector
+     */
+    public int append(INDArray featureVectors) {
+        var rows = featureVectors.rank() == 1 ? featureVectors.reshape(1, featureVectors.length()) : featureVectors;
+        var firstRow = size;
+        ensureCapacity(size + rows.rows(), rows.columns());
+        features.get(NDArrayIndex.interval(firstRow, firstRow + rows.rows()), NDArrayIndex.all()).assign(rows);
+        size += rows.rows();
+        return firstRow;
+    }
+
+    /**
+     * @return stored feature vector (view of matrix)
+     */
+    public INDArray getRow(int row) {
+        return features.getRow(row);
+    }
+
+    /**
+     * @return all stored feature vectors (view of matrix) or null if matrix is empty
+     */
+    public INDArray getRows() {
+        return size == 0 ? null : features.get(NDArrayIndex.interval(0, size), NDArrayIndex.all());
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void ensureCapacity(int rows, int featureLength) {
+        if (features != null && features.columns() != featureLength) {
+            throw new IllegalArgumentException("feature vector length " + featureLength + " differs from " + features.columns());
+        }
+        var capacity = features == null ? 0 : features.rows();
+        if (rows <= capacity) {
+            return;
+        }
+        var newCapacity = Math.max(Math.max(INITIAL_CAPACITY, capacity * 2), rows);
+        try (var ignored = Nd4j.getWorkspaceManager().scopeOutOfWorkspaces()) {
+            var newFeatures = Nd4j.create(newCapacity, featureLength);
+            if (size > 0) {
+                newFeatures.get(NDArrayIndex.interval(0, size), NDArrayIndex.all()).assign(getRows());
+            }
+            features = newFeatures;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.github.darrmirr.featurebank;
+
+/**
+ * IEEE 754 binary16 (half precision) conversion
+ *
+ * ND4J CPU backend cannot store arrays in HALF data type, so feature vectors are converted
+ * to binary16 at java side before being stored at bank and converted back to float before distance calculation.
+ * Float to half conversion rounds to nearest even value.
+ */
+public final class HalfFloat {
+
+    private HalfFloat() {
+    }
+
+    public static short fromFloat(float value) {
+        int bits = Float.floatToRawIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int exponent = (bits >>> 23) & 0xff;
+        int mantissa = bits & 0x7fffff;
+        if (exponent == 0xff) {
+            // infinity or NaN
+            return (short) (sign | 0x7c00 | (mantissa != 0 ? 0x200 : 0));
+        }
+        int halfExponent = exponent - 127 + 15;
+        if (halfExponent >= 0x1f) {
+            // overflow
+            return (short) (sign | 0x7c00);
+        }
+        if (halfExponent <= 0) {
+            if (halfExponent < -10) {
+                // underflow
+                return (short) sign;
+            }
+            // subnormal half value
+            mantissa |= 0x800000;
+            int shift = 14 - halfExponent;
+            return (short) (sign | roundToNearestEven(mantissa, shift));
+        }
+        // carry of rounding could move value to next exponent (or to infinity) that is correct behaviour
+        return (short) (sign | ((halfExponent << 10) + roundToNearestEven(mantissa, 13)));
+    }
+
+    public static float toFloat(short half) {
+        int bits = half & 0xffff;
+        int sign = (bits & 0x8000) << 16;
+        int exponent = (bits >>> 10) & 0x1f;
+        int mantissa = bits & 0x3ff;
+        if (exponent == 0x1f) {
+            // infinity or NaN
+            return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+        }
+        if (exponent == 0) {
+            if (mantissa == 0) {
+                return Float.intBitsToFloat(sign);
+            }
+            // normalize subnormal half value
+            exponent = 1;
+            while ((mantissa & 0x400) == 0) {
+                mantissa <<= 1;
+                exponent--;
+            }
+            mantissa &= 0x3ff;
+        }
+        return Float.intBitsToFloat(sign | ((exponent + 127 - 15) << 23) | (mantissa << 13));
+    }
+
+    public static short[] fromFloat(float[] values) {
+        var halfs = new short[values.length];
+        for (int i = 0; i < values.length; i++) {
+            halfs[i] = fromFloat(values[i]);
+        }
+        return halfs;
+    }
+
+    private static int roundToNearestEven(int mantissa, int shift) {
+        int result = mantissa >>> shift;
+        int remainder = mantissa & ((1 << shift) - 1);
+        int halfway = 1 << (shift - 1);
+        if (remainder > halfway || (remainder == halfway && (result & 1) != 0)) {
+            result++;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,146 @@
+package com.github.darrmirr.featurebank;
+
+import com.github.darrmirr.featurebank.verifier.FeatureVerifier;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Feature bank stores features in half precision (binary16) format
+ * It halves memory footprint of feature bank comparing with FLOAT data type.
+ * Feature vectors are converted back to float before distance calculation, so distance is calculated in FLOAT.
+ * Bank could store multiple feature vectors for the same label (many (features) to one (label) relation)
+ */
+
+@Component
+@Qualifier(FeatureBank.HALF_PRECISION)
+@ConditionalOnProperty(name = FeatureBank.TYPE_PROPERTY, havingValue = FeatureBank.HALF_PRECISION)
+public class HalfPrecisionFeatureBank implements FeatureBank {
+    private static final Logger logger = LoggerFactory.getLogger(HalfPrecisionFeatureBank.class);
+    private static final int BLOCK_ROWS = 256;
+    private final List<String> labels = new ArrayList<>();
+    // label to row of its first feature vector
+    private final Map<String, Integer> labelIndex = new HashMap<>();
+    private short[] features = new short[0];
+    private int featureLength;
+    private FeatureVerifier featureVerifier;
+
+    @Autowired
+    public HalfPrecisionFeatureBank(@Qualifier(FeatureVerifier.EUCLIDEAN_DISTANCE) FeatureVerifier featureVerifier) {
+        this.featureVerifier = featureVerifier;
+    }
+
+    @Override
+    public synchronized void put(String label, INDArray featureVector) {
+        logger.info("try to add {} to feature bank", label);
+        if (label != null && featureVector != null) {
+            var feature = featureVector.dup('c').data().asFloat();
+            if (labels.isEmpty()) {
+                featureLength = feature.length;
+            } else if (feature.length != featureLength) {
+                throw new IllegalArgumentException("feature vector length " + feature.length + " differs from " + featureLength);
+            }
+            int offset = labels.size() * featureLength;
+            if (offset + featureLength > features.length) {
+                features = Arrays.copyOf(features, Math.max(featureLength, features.length * 2));
+            }
+            System.arraycopy(HalfFloat.fromFloat(feature), 0, features, offset, featureLength);
+            labelIndex.putIfAbsent(label, labels.size());
+            labels.add(label);
+            logger.info("{} has added to feature bank", label);
+        }
+    }
+
+    @Override
+    public synchronized INDArray get(String label) {
+        var row = label == null ? null : labelIndex.get(label);
+        return row == null ? Nd4j.empty() : Nd4j.create(toFloat(row, 1, new float[featureLength])).reshape(1, featureLength);
+    }
+
+    @Override
+    public INDArray getSimilar(INDArray featureTest) {
+        var featureMatch = getNearest(featureTest).orElse(null);
+        if (featureMatch == null) {
+            logger.info("cannot recognize this person, feature bank is empty");
+            return Nd4j.empty();
+        }
+        if (featureMatch.isRecognized()) {
+            logger.info("similarity with {} is {} (min distance)", featureMatch.getLabel(), featureMatch.getDistance());
+            return get(featureMatch.getLabel());
+        }
+        logger.info("cannot recognize this person, but the similar one is {} ({})",
+                featureMatch.getLabel(), featureMatch.getDistance());
+        return Nd4j.empty();
+    }
+
+    @Override
+    public Optional<FeatureMatch> getNearest(INDArray featureTest) {
+        return search(featureTest.reshape(1, featureTest.length()), 1)
+                .getMatches(0)
+                .stream()
+                .findFirst();
+    }
+
+    /**
+     * Stored feature vectors are decoded block by block (once for all queries)
+     * and compared with every query by batched kernel
+     */
+    @Override
+    public synchronized SearchResult search(INDArray queries, int k) {
+        if (labels.isEmpty()) {
+            return new SearchResult(Collections.nCopies(queries.rows(), List.of()));
+        }
+        var tests = new float[queries.rows()][];
+        var topKs = new TopK[queries.rows()];
+        for (int query = 0; query < queries.rows(); query++) {
+            tests[query] = queries.getRow(query).dup('c').data().asFloat();
+            topKs[query] = new TopK(k);
+        }
+        var block = new float[BLOCK_ROWS * featureLength];
+        var distances = new float[BLOCK_ROWS];
+        for (int firstRow = 0; firstRow < labels.size(); firstRow += BLOCK_ROWS) {
+            int rows = Math.min(BLOCK_ROWS, labels.size() - firstRow);
+            toFloat(firstRow, rows, block);
+            for (int query = 0; query < tests.length; query++) {
+                featureVerifier.verifyAll(block, rows, tests[query], distances);
+                for (int i = 0; i < rows; i++) {
+                    topKs[query].offer(firstRow + i, distances[i]);
+                }
+            }
+        }
+        var matches = new ArrayList<List<FeatureMatch>>(topKs.length);
+        for (TopK topK : topKs) {
+            matches.add(SearchResult.matches(topK, labels::get, featureVerifier.threshold()));
+        }
+        return new SearchResult(matches);
+    }
+
+    /**
+     * Decode stored feature vectors into float array
+     *
+     * @param firstRow index of the first stored feature vector
+     * @param rows amount of feature vectors to decode
+     * @param target array to write feature vectors to (row by row)
+     * @return target array
+     */
+    private float[] toFloat(int firstRow, int rows, float[] target) {
+        int offset = firstRow * featureLength;
+        for (int i = 0; i < rows * featureLength; i++) {
+            target[i] = HalfFloat.toFloat(features[offset + i]);
+        }
+        return target;
+    }
+}
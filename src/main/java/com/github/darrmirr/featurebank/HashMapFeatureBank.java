@@ -7,9 +7,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
@@ -20,6 +23,7 @@ import java.util.Optional;
 
 @Component
 @Qualifier(FeatureBank.HASH_MAP)
+@ConditionalOnProperty(name = FeatureBank.TYPE_PROPERTY, havingValue = FeatureBank.HASH_MAP)
 public class HashMapFeatureBank implements FeatureBank {
     private static final Logger logger = LoggerFactory.getLogger(HashMapFeatureBank.class);
     private final Map<String, INDArray> featureBank = new HashMap<>();
@@ -31,7 +35,7 @@ public class HashMapFeatureBank implements FeatureBank {
     }
 
     @Override
-    public void put(String label, INDArray featureVector) {
+    public synchronized void put(String label, INDArray featureVector) {
         logger.info("try to add {} to feature bank", label);
         if (label != null && featureVector != null) {
             featureBank.put(label, featureVector);
@@ -40,7 +44,7 @@ public class HashMapFeatureBank implements FeatureBank {
     }
 
     @Override
-    public INDArray get(String label) {
+    public synchronized INDArray get(String label) {
         return Optional
                 .ofNullable(label)
                 .map(featureBank::get)
@@ -49,6 +53,25 @@ public class HashMapFeatureBank implements FeatureBank {
 
     @Override
     public INDArray getSimilar(INDArray featureTest) {
+        var featureMatch = getNearest(featureTest).orElse(null);
+        if (featureMatch == null) {
+            logger.info("cannot recognize this person, feature bank is empty");
+            return Nd4j.empty();
+        }
+        if (featureMatch.isRecognized()) {
+            logger.info("similarity with {} is {} (min distance)", featureMatch.getLabel(), featureMatch.getDistance());
+            return get(featureMatch.getLabel());
+        }
+        logger.info("cannot recognize this person, but the similar one is {} ({})",
+                featureMatch.getLabel(), featureMatch.getDistance());
+        return Nd4j.empty();
+    }
+
+    @Override
+    public synchronized Optional<FeatureMatch> getNearest(INDArray featureTest) {
+        if (featureBank.isEmpty()) {
+            return Optional.empty();
+        }
         double minVal = Double.MAX_VALUE;
         String label = "none";
         for(Map.Entry<String, INDArray> entry : featureBank.entrySet()) {
@@ -59,12 +82,31 @@ public class HashMapFeatureBank implements FeatureBank {
                 label = entry.getKey();
             }
         }
+        return Optional.of(new FeatureMatch(label, minVal, minVal < featureVerifier.threshold()));
+    }
 
-        if(minVal < featureVerifier.threshold()) {
-            logger.info("similarity with {} is {} (min distance)", label, minVal);
-            return get(label);
+    /**
+     * Every query is compared with all stored feature vectors one by one (bank does not expose row ids)
+     */
+    @Override
+    public synchronized SearchResult search(INDArray queries, int k) {
+        var entries = new ArrayList<>(featureBank.entrySet());
+        var matches = new ArrayList<List<FeatureMatch>>(queries.rows());
+        for (int query = 0; query < queries.rows(); query++) {
+            var featureTest = queries.getRow(query);
+            var topK = new TopK(k);
+            for (int i = 0; i < entries.size(); i++) {
+                topK.offer(i, (float) featureVerifier.verify(entries.get(i).getValue(), featureTest));
+            }
+            var topEntries = topK.sortedIndexes();
+            var topDistances = topK.sortedDistances();
+            var queryMatches = new ArrayList<FeatureMatch>(topEntries.length);
+            for (int i = 0; i < topEntries.length; i++) {
+                queryMatches.add(new FeatureMatch(entries.get(topEntries[i]).getKey(), topDistances[i],
+                        topDistances[i] < featureVerifier.threshold()));
+            }
+            matches.add(queryMatches);
         }
-        logger.info("cannot recognize this person, but the similar one is {} ({})", label, minVal);
-        return Nd4j.empty();
+        return new SearchResult(matches);
     }
 }
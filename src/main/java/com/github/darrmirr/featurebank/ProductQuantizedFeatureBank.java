@@ -0,0 +1,257 @@
+package com.github.darrmirr.featurebank;
+
+import com.github.darrmirr.featurebank.verifier.FeatureVerifier;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Feature bank stores features compressed by product quantization
+ *
+ * Each feature vector is kept in memory as PQ codes (one byte per subspace, 16 bytes per face by default),
+ * exact feature vectors are appended to file on disk.
+ * Search calculates approximate distances to all stored faces by ADC lookup table
+ * and re-ranks the best candidates by exact feature vectors read from disk.
+ *
+ * Codebooks are trained on first "feature-bank.pq.training-size" feature vectors.
+ * Bank searches exact feature vectors kept in memory until codebooks are trained.
+ * Bank could store multiple feature vectors for the same label (many (features) to one (label) relation)
+ */
+
+@Component
+@Qualifier(FeatureBank.PRODUCT_QUANTIZED)
+@ConditionalOnProperty(name = FeatureBank.TYPE_PROPERTY, havingValue = FeatureBank.PRODUCT_QUANTIZED)
+public class ProductQuantizedFeatureBank implements FeatureBank, DisposableBean {
+    private static final Logger logger = LoggerFactory.getLogger(ProductQuantizedFeatureBank.class);
+    private static final long TRAINING_SEED = 42;
+    private final List<String> labels = new ArrayList<>();
+    private final Map<String, Integer> labelIndex = new HashMap<>();
+    private final int subspaces;
+    private final int trainingSize;
+    private final int rerankSize;
+    private final Path vectorsFile;
+    private final boolean deleteVectorsFile;
+    private final FileChannel vectors;
+    private FeatureVerifier featureVerifier;
+    private ProductQuantizer quantizer;
+    private float[] trainingVectors = new float[0];
+    private byte[] codes = new byte[0];
+    private int featureLength;
+
+    @Autowired
+    public ProductQuantizedFeatureBank(
+            @Qualifier(FeatureVerifier.EUCLIDEAN_DISTANCE) FeatureVerifier featureVerifier,
+            @Value("${feature-bank.pq.subspaces:16}") int subspaces,
+            @Value("${feature-bank.pq.training-size:4096}") int trainingSize,
+            @Value("${feature-bank.pq.rerank-size:64}") int rerankSize,
+            @Value("${feature-bank.pq.vectors-file:}") String vectorsFile
+    ) {
+        if (trainingSize < ProductQuantizer.CENTROIDS) {
+            throw new IllegalArgumentException("training size should be at least " + ProductQuantizer.CENTROIDS);
+        }
+        this.featureVerifier = featureVerifier;
+        this.subspaces = subspaces;
+        this.trainingSize = trainingSize;
+        this.rerankSize = Math.max(1, rerankSize);
+        try {
+            this.deleteVectorsFile = vectorsFile.isBlank();
+            this.vectorsFile = deleteVectorsFile ? Files.createTempFile("feature-bank", ".vectors") : Paths.get(vectorsFile);
+            this.vectors = FileChannel.open(this.vectorsFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized void put(String label, INDArray featureVector) {
+        logger.info("try to add {} to feature bank", label);
+        if (label != null && featureVector != null) {
+            var feature = featureVector.dup('c').data().asFloat();
+            if (labels.isEmpty()) {
+                featureLength = feature.length;
+                quantizer = new ProductQuantizer(featureLength, subspaces);
+            } else if (feature.length != featureLength) {
+                throw new IllegalArgumentException("feature vector length " + feature.length + " differs from " + featureLength);
+            }
+            int row = labels.size();
+            write(row, feature);
+            if (quantizer.isTrained()) {
+                encode(feature, row);
+            } else {
+                appendTrainingVector(feature, row);
+            }
+            labels.add(label);
+            labelIndex.putIfAbsent(label, row);
+            if (!quantizer.isTrained() && labels.size() >= trainingSize) {
+                train();
+            }
+            logger.info("{} has added to feature bank", label);
+        }
+    }
+
+    @Override
+    public synchronized INDArray get(String label) {
+        var row = labelIndex.get(label);
+        return row == null ? Nd4j.empty() : Nd4j.create(readExact(row)).reshape(1, featureLength);
+    }
+
+    @Override
+    public INDArray getSimilar(INDArray featureTest) {
+        var featureMatch = getNearest(featureTest).orElse(null);
+        if (featureMatch == null) {
+            logger.info("cannot recognize this person, feature bank is empty");
+            return Nd4j.empty();
+        }
+        if (featureMatch.isRecognized()) {
+            logger.info("similarity with {} is {} (min distance)", featureMatch.getLabel(), featureMatch.getDistance());
+            return get(featureMatch.getLabel());
+        }
+        logger.info("cannot recognize this person, but the similar one is {} ({})",
+                featureMatch.getLabel(), featureMatch.getDistance());
+        return Nd4j.empty();
+    }
+
+    @Override
+    public Optional<FeatureMatch> getNearest(INDArray featureTest) {
+        return search(featureTest.reshape(1, featureTest.length()), 1)
+                .getMatches(0)
+                .stream()
+                .findFirst();
+    }
+
+    /**
+     * Top-k of every query is selected from re-ranked candidates (at least k candidates are re-ranked)
+     */
+    @Override
+    public synchronized SearchResult search(INDArray queries, int k) {
+        if (labels.isEmpty()) {
+            return new SearchResult(Collections.nCopies(queries.rows(), List.of()));
+        }
+        var matches = new ArrayList<List<FeatureMatch>>(queries.rows());
+        for (int query = 0; query < queries.rows(); query++) {
+            var test = queries.getRow(query).dup('c').data().asFloat();
+            var candidates = quantizer.isTrained() ? approximateCandidates(test, Math.max(rerankSize, k)) : allCandidates();
+            var topK = new TopK(k);
+            for (int row : candidates) {
+                topK.offer(row, (float) featureVerifier.verify(readExact(row), test));
+            }
+            matches.add(SearchResult.matches(topK, labels::get, featureVerifier.threshold()));
+        }
+        return new SearchResult(matches);
+    }
+
+    /**
+     * @return amount of memory used by PQ codes of single face
+     */
+    public int getBytesPerFace() {
+        return subspaces;
+    }
+
+    @Override
+    public void destroy() throws IOException {
+        vectors.close();
+        if (deleteVectorsFile) {
+            Files.deleteIfExists(vectorsFile);
+        }
+    }
+
+    private int[] approximateCandidates(float[] featureTest, int candidates) {
+        var table = quantizer.distanceTable(featureTest);
+        var topK = new TopK(candidates);
+        for (int row = 0; row < labels.size(); row++) {
+            topK.offer(row, quantizer.distance(table, codes, row * subspaces));
+        }
+        return topK.sortedIndexes();
+    }
+
+    private int[] allCandidates() {
+        var candidates = new int[labels.size()];
+        Arrays.setAll(candidates, row -> row);
+        return candidates;
+    }
+
+    private void appendTrainingVector(float[] feature, int row) {
+        if ((row + 1) * featureLength > trainingVectors.length) {
+            trainingVectors = Arrays.copyOf(trainingVectors, Math.max(featureLength, trainingVectors.length * 2));
+        }
+        System.arraycopy(feature, 0, trainingVectors, row * featureLength, featureLength);
+    }
+
+    private void encode(float[] feature, int row) {
+        if ((row + 1) * subspaces > codes.length) {
+            codes = Arrays.copyOf(codes, Math.max(subspaces, codes.length * 2));
+        }
+        quantizer.encode(feature, 0, codes, row * subspaces);
+    }
+
+    private void train() {
+        var start = System.currentTimeMillis();
+        int count = labels.size();
+        quantizer.train(trainingVectors, count, TRAINING_SEED);
+        codes = new byte[count * subspaces * 2];
+        for (int row = 0; row < count; row++) {
+            quantizer.encode(trainingVectors, row * featureLength, codes, row * subspaces);
+        }
+        trainingVectors = null;
+        logger.info("product quantizer has trained on {} feature vectors in {} ms", count, System.currentTimeMillis() - start);
+    }
+
+    private float[] readExact(int row) {
+        if (trainingVectors != null) {
+            return Arrays.copyOfRange(trainingVectors, row * featureLength, (row + 1) * featureLength);
+        }
+        var buffer = ByteBuffer.allocate(featureLength * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        long position = (long) row * featureLength * Float.BYTES;
+        try {
+            while (buffer.hasRemaining()) {
+                if (vectors.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("unexpected end of file " + vectorsFile);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        var feature = new float[featureLength];
+        buffer.flip();
+        buffer.asFloatBuffer().get(feature);
+        return feature;
+    }
+
+    private void write(int row, float[] feature) {
+        var buffer = ByteBuffer.allocate(featureLength * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(feature);
+        long position = (long) row * featureLength * Float.BYTES;
+        try {
+            while (buffer.hasRemaining()) {
+                vectors.write(buffer, position + buffer.position());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
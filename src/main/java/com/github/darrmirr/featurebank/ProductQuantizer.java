@@ -0,0 +1,182 @@
+package com.github.darrmirr.featurebank;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Product quantizer of feature vectors
+ *
+ * Feature vector is split into subspaces of equal length. Each subspace has its own codebook
+ * of 256 centroids trained by k-means, so sub vector is encoded by one byte (index of nearest centroid).
+ * Distance between query and encoded vector is calculated by asymmetric distance computation (ADC):
+ * query is not encoded, squared distances from query sub vectors to all centroids are calculated once per query
+ * and distance to every encoded vector is sum of table lookups.
+ */
+public class ProductQuantizer {
+    public static final int CENTROIDS = 256;
+    private static final int ITERATIONS = 20;
+    private final int dimension;
+    private final int subspaces;
+    private final int subDimension;
+    // centroids[subspace][centroid * subDimension + i]
+    private final float[][] centroids;
+
+    public ProductQuantizer(int dimension, int subspaces) {
+        if (subspaces <= 0 || dimension % subspaces != 0) {
+            throw new IllegalArgumentException("feature vector length " + dimension
+                    + " is not divisible by amount of subspaces " + subspaces);
+        }
+        this.dimension = dimension;
+        this.subspaces = subspaces;
+        this.subDimension = dimension / subspaces;
+        this.centroids = new float[subspaces][];
+    }
+
+    /**
+     * Train codebooks by k-means
+     *
+     * @param vectors training vectors stored row by row
+     * @param count amount of training vectors (at least 256)
+     * @param seed random seed of centroids initialization
+     */
+    public void train(float[] vectors, int count, long seed) {
+        if (count < CENTROIDS) {
+            throw new IllegalArgumentException("at least " + CENTROIDS + " vectors are required to train quantizer");
+        }
+        var random = new Random(seed);
+        var subVectors = new float[count * subDimension];
+        var assignment = new int[count];
+        for (int m = 0; m < subspaces; m++) {
+            for (int n = 0; n < count; n++) {
+                System.arraycopy(vectors, n * dimension + m * subDimension, subVectors, n * subDimension, subDimension);
+            }
+            centroids[m] = kmeans(subVectors, count, assignment, random);
+        }
+    }
+
+    public boolean isTrained() {
+        return centroids[0] != null;
+    }
+
+    public int getSubspaces() {
+        return subspaces;
+    }
+
+    /**
+     * Encode feature vector
+     *
+     * @param vectors array of vectors stored row by row
+     * @param vectorOffset offset of vector to encode
+     * @param codes array to write codes to
+     * @param codeOffset offset to write codes from (amount of written codes is equal to amount of subspaces)
+     */
+    public void encode(float[] vectors, int vectorOffset, byte[] codes, int codeOffset) {
+        for (int m = 0; m < subspaces; m++) {
+            codes[codeOffset + m] = (byte) nearest(centroids[m], vectors, vectorOffset + m * subDimension);
+        }
+    }
+
+    /**
+     * Calculate ADC lookup table for query vector
+     *
+     * @param query query feature vector
+     * @return squared distances from query sub vectors to centroids (table[subspace * 256 + centroid])
+     */
+    public float[] distanceTable(float[] query) {
+        var table = new float[subspaces * CENTROIDS];
+        for (int m = 0; m < subspaces; m++) {
+            var codebook = centroids[m];
+            for (int k = 0; k < CENTROIDS; k++) {
+                table[m * CENTROIDS + k] = squaredDistance(codebook, k * subDimension, query, m * subDimension, subDimension);
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Calculate approximate squared distance between query and encoded vector
+     *
+     * @param table ADC lookup table of query
+     * @param codes array of codes
+     * @param codeOffset offset of encoded vector
+     * @return approximate squared euclidean distance
+     */
+    public float distance(float[] table, byte[] codes, int codeOffset) {
+        float distance = 0;
+        for (int m = 0; m < subspaces; m++) {
+            distance += table[m * CENTROIDS + (codes[codeOffset + m] & 0xff)];
+        }
+        return distance;
+    }
+
+    private float[] kmeans(float[] subVectors, int count, int[] assignment, Random random) {
+        var codebook = new float[CENTROIDS * subDimension];
+        // initialize centroids by distinct random training vectors
+        var indexes = new int[count];
+        for (int i = 0; i < count; i++) {
+            indexes[i] = i;
+        }
+        for (int k = 0; k < CENTROIDS; k++) {
+            int swap = k + random.nextInt(count - k);
+            int index = indexes[swap];
+            indexes[swap] = indexes[k];
+            indexes[k] = index;
+            System.arraycopy(subVectors, index * subDimension, codebook, k * subDimension, subDimension);
+        }
+        var sums = new double[CENTROIDS * subDimension];
+        var sizes = new int[CENTROIDS];
+        for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+            boolean changed = false;
+            for (int n = 0; n < count; n++) {
+                int k = nearest(codebook, subVectors, n * subDimension);
+                changed |= iteration == 0 || assignment[n] != k;
+                assignment[n] = k;
+            }
+            if (!changed) {
+                break;
+            }
+            Arrays.fill(sums, 0);
+            Arrays.fill(sizes, 0);
+            for (int n = 0; n < count; n++) {
+                int k = assignment[n];
+                sizes[k]++;
+                for (int i = 0; i < subDimension; i++) {
+                    sums[k * subDimension + i] += subVectors[n * subDimension + i];
+                }
+            }
+            for (int k = 0; k < CENTROIDS; k++) {
+                if (sizes[k] == 0) {
+                    // re-seed empty cluster by random training vector
+                    System.arraycopy(subVectors, random.nextInt(count) * subDimension, codebook, k * subDimension, subDimension);
+                    continue;
+                }
+                for (int i = 0; i < subDimension; i++) {
+                    codebook[k * subDimension + i] = (float) (sums[k * subDimension + i] / sizes[k]);
+                }
+            }
+        }
+        return codebook;
+    }
+
+    private int nearest(float[] codebook, float[] vectors, int offset) {
+        int nearest = 0;
+        float minDistance = Float.MAX_VALUE;
+        for (int k = 0; k < CENTROIDS; k++) {
+            float distance = squaredDistance(codebook, k * subDimension, vectors, offset, subDimension);
+            if (distance < minDistance) {
+                minDistance = distance;
+                nearest = k;
+            }
+        }
+        return nearest;
+    }
+
+    private static float squaredDistance(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        float distance = 0;
+        for (int i = 0; i < length; i++) {
+            float diff = a[aOffset + i] - b[bOffset + i];
+            distance += diff * diff;
+        }
+        return distance;
+    }
+}
@@ -0,0 +1,74 @@
+package com.github.darrmirr.featurebank;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * Result of batch search at feature bank : top-k feature matches (label, distance and row id) per query
+ */
+
+@AllArgsConstructor
+@Getter
+public class SearchResult {
+    // feature matches per query sorted by distance (ascending)
+    private List<List<FeatureMatch>> matches;
+
+    /**
+     * @param query index of query (row of queries array)
+     * @return feature matches of query sorted by distance (ascending)
+     */
+    public List<FeatureMatch> getMatches(int query) {
+        return matches.get(query);
+    }
+
+    public int size() {
+        return matches.size();
+    }
+
+    /**
+     * Select top-k feature matches of every query from distance matrix
+     *
+     * @param distances distance matrix [amount of queries, amount of stored feature vectors]
+     * @param labelOfRow label of stored feature vector by its row
+     * @param k max amount of matches per query
+     * @param threshold max distance of recognized face
+     * @return search result
+     */
+    public static SearchResult of(INDArray distances, IntFunction<String> labelOfRow, int k, double threshold) {
+        int queries = distances.rows();
+        int rows = distances.columns();
+        var distanceValues = distances.dup('c').data().asFloat();
+        var matches = new ArrayList<List<FeatureMatch>>(queries);
+        for (int query = 0; query < queries; query++) {
+            var topK = new TopK(k);
+            int offset = query * rows;
+            for (int row = 0; row < rows; row++) {
+                topK.offer(row, distanceValues[offset + row]);
+            }
+            matches.add(matches(topK, labelOfRow, threshold));
+        }
+        return new SearchResult(matches);
+    }
+
+    /**
+     * @param topK selected stored feature vectors (index is row of stored feature vector)
+     * @param labelOfRow label of stored feature vector by its row
+     * @param threshold max distance of recognized face
+     * @return feature matches of query sorted by distance (ascending)
+     */
+    public static List<FeatureMatch> matches(TopK topK, IntFunction<String> labelOfRow, double threshold) {
+        var topRows = topK.sortedIndexes();
+        var topDistances = topK.sortedDistances();
+        var queryMatches = new ArrayList<FeatureMatch>(topRows.length);
+        for (int i = 0; i < topRows.length; i++) {
+            queryMatches.add(new FeatureMatch(labelOfRow.apply(topRows[i]), topDistances[i],
+                    topDistances[i] < threshold, topRows[i]));
+        }
+        return queryMatches;
+    }
+}
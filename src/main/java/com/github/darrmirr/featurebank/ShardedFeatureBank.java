@@ -0,0 +1,163 @@
+package com.github.darrmirr.featurebank;
+
+import com.github.darrmirr.featurebank.shard.LocalShard;
+import com.github.darrmirr.featurebank.shard.RemoteShard;
+import com.github.darrmirr.featurebank.shard.Shard;
+import com.github.darrmirr.featurebank.verifier.FeatureVerifier;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Feature bank partitions labels across shards by label hash
+ *
+ * All feature vectors of the same label are stored at the same shard.
+ * Search is scatter-gather: query is sent to all shards in parallel, each shard returns its local top-k
+ * and local results are merged into global top-k.
+ * Shards are configured by "feature-bank.shards" property: comma separated list of "local" (in-process shard)
+ * or "host:port" (remote shard served by ShardServer).
+ * Bean is created only if it is selected by "feature-bank.type" property, so shards and their threads are not started otherwise.
+ */
+
+@Component
+@ConditionalOnProperty(name = FeatureBank.TYPE_PROPERTY, havingValue = FeatureBank.SHARDED)
+@Qualifier(FeatureBank.SHARDED)
+public class ShardedFeatureBank implements FeatureBank, DisposableBean {
+    private static final Logger logger = LoggerFactory.getLogger(ShardedFeatureBank.class);
+    private final List<Shard> shards;
+    private final ExecutorService executor;
+
+    @Autowired
+    public ShardedFeatureBank(
+            @Qualifier(FeatureVerifier.EUCLIDEAN_DISTANCE) FeatureVerifier featureVerifier,
+            @Value("${feature-bank.shards:local,local}") String[] shards
+    ) {
+        this(createShards(featureVerifier, shards));
+    }
+
+    public ShardedFeatureBank(List<Shard> shards) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("at least one shard is required");
+        }
+        this.shards = List.copyOf(shards);
+        this.executor = Executors.newFixedThreadPool(shards.size(), runnable -> {
+            var thread = new Thread(runnable, "feature-bank-shard");
+            thread.setDaemon(true);
+            return thread;
+        });
+        logger.info("feature bank shards : {}", this.shards);
+    }
+
+    @Override
+    public void put(String label, INDArray featureVector) {
+        logger.info("try to add {} to feature bank", label);
+        if (label != null && featureVector != null) {
+            shardOf(label).put(label, featureVector);
+            logger.info("{} has added to feature bank", label);
+        }
+    }
+
+    @Override
+    public INDArray get(String label) {
+        return label == null ? Nd4j.empty() : shardOf(label).get(label);
+    }
+
+    @Override
+    public INDArray getSimilar(INDArray featureTest) {
+        var featureMatch = getNearest(featureTest).orElse(null);
+        if (featureMatch == null) {
+            logger.info("cannot recognize this person, feature bank is empty");
+            return Nd4j.empty();
+        }
+        if (featureMatch.isRecognized()) {
+            logger.info("similarity with {} is {} (min distance)", featureMatch.getLabel(), featureMatch.getDistance());
+            return get(featureMatch.getLabel());
+        }
+        logger.info("cannot recognize this person, but the similar one is {} ({})",
+                featureMatch.getLabel(), featureMatch.getDistance());
+        return Nd4j.empty();
+    }
+
+    @Override
+    public Optional<FeatureMatch> getNearest(INDArray featureTest) {
+        return search(featureTest.reshape(1, featureTest.length()), 1)
+                .getMatches(0)
+                .stream()
+                .findFirst();
+    }
+
+    /**
+     * Queries are sent to all shards in parallel, local top-k of shards are merged into global top-k
+     * Row id of match is (row at shard) * (amount of shards) + (index of shard)
+     */
+    @Override
+    public SearchResult search(INDArray queries, int k) {
+        var localResults = new ArrayList<CompletableFuture<SearchResult>>(shards.size());
+        for (Shard shard : shards) {
+            localResults.add(CompletableFuture.supplyAsync(() -> shard.search(queries, k), executor));
+        }
+        var matches = new ArrayList<List<FeatureMatch>>(queries.rows());
+        for (int query = 0; query < queries.rows(); query++) {
+            matches.add(new ArrayList<>());
+        }
+        for (int shardIdx = 0; shardIdx < shards.size(); shardIdx++) {
+            var localResult = localResults.get(shardIdx).join();
+            for (int query = 0; query < queries.rows(); query++) {
+                for (FeatureMatch featureMatch : localResult.getMatches(query)) {
+                    matches.get(query).add(new FeatureMatch(featureMatch.getLabel(), featureMatch.getDistance(),
+                            featureMatch.isRecognized(), featureMatch.getRow() * shards.size() + shardIdx));
+                }
+            }
+        }
+        for (int query = 0; query < queries.rows(); query++) {
+            var queryMatches = matches.get(query);
+            queryMatches.sort(Comparator.comparingDouble(FeatureMatch::getDistance));
+            if (queryMatches.size() > k) {
+                matches.set(query, new ArrayList<>(queryMatches.subList(0, k)));
+            }
+        }
+        return new SearchResult(matches);
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+        shards.forEach(Shard::close);
+    }
+
+    private Shard shardOf(String label) {
+        return shards.get(Math.floorMod(label.hashCode(), shards.size()));
+    }
+
+    private static List<Shard> createShards(FeatureVerifier featureVerifier, String[] shards) {
+        var shardList = new ArrayList<Shard>(shards.length);
+        for (String shard : shards) {
+            var address = shard.trim();
+            if ("local".equalsIgnoreCase(address)) {
+                shardList.add(new LocalShard(featureVerifier));
+            } else {
+                var separator = address.lastIndexOf(':');
+                if (separator == -1) {
+                    throw new IllegalArgumentException("shard address should be 'local' or 'host:port' : " + address);
+                }
+                shardList.add(new RemoteShard(address.substring(0, separator), Integer.parseInt(address.substring(separator + 1))));
+            }
+        }
+        return shardList;
+    }
+}
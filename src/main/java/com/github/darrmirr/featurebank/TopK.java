@@ -0,0 +1,101 @@
+package com.github.darrmirr.featurebank;
+
+import java.util.Comparator;
+import java.util.stream.IntStream;
+
+/**
+ * Bounded selection of k candidates with the smallest distances
+ *
+ * Candidates are kept at binary max-heap, so the worst of selected candidates is replaced in O(log k).
+ */
+public class TopK {
+    private final int[] indexes;
+    private final float[] distances;
+    private int size;
+
+    public TopK(int k) {
+        this.indexes = new int[k];
+        this.distances = new float[k];
+    }
+
+    public void offer(int index, float distance) {
+        if (size < indexes.length) {
+            indexes[size] = index;
+            distances[size] = distance;
+            siftUp(size++);
+        } else if (size > 0 && distance < distances[0]) {
+            indexes[0] = index;
+            distances[0] = distance;
+            siftDown(0);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return indexes of selected candidates sorted by distance (ascending)
+     */
+    public int[] sortedIndexes() {
+        return sortedOrder().map(i -> indexes[i]).toArray();
+    }
+
+    /**
+     * @return distances of selected candidates sorted ascending
+     */
+    public float[] sortedDistances() {
+        var order = sortedOrder().toArray();
+        var sortedDistances = new float[order.length];
+        for (int i = 0; i < order.length; i++) {
+            sortedDistances[i] = distances[order[i]];
+        }
+        return sortedDistances;
+    }
+
+    private IntStream sortedOrder() {
+        return IntStream.range(0, size)
+                .boxed()
+                .sorted(Comparator.comparingDouble(i -> distances[i]))
+                .mapToInt(Integer::intValue);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (distances[parent] >= distances[i]) {
+                return;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int largest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < size && distances[left] > distances[largest]) {
+                largest = left;
+            }
+            if (right < size && distances[right] > distances[largest]) {
+                largest = right;
+            }
+            if (largest == i) {
+                return;
+            }
+            swap(i, largest);
+            i = largest;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int index = indexes[i];
+        indexes[i] = indexes[j];
+        indexes[j] = index;
+        float distance = distances[i];
+        distances[i] = distances[j];
+        distances[j] = distance;
+    }
+}
@@ -0,0 +1,42 @@
+package com.github.darrmirr.featurebank.shard;
+
+import com.github.darrmirr.featurebank.DataSetFeatureBank;
+import com.github.darrmirr.featurebank.SearchResult;
+import com.github.darrmirr.featurebank.verifier.FeatureVerifier;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+/**
+ * Shard stored at the same JVM
+ */
+public class LocalShard implements Shard {
+    private final DataSetFeatureBank featureBank;
+
+    public LocalShard(FeatureVerifier featureVerifier) {
+        this.featureBank = new DataSetFeatureBank(featureVerifier);
+    }
+
+    @Override
+    public void put(String label, INDArray featureVector) {
+        featureBank.put(label, featureVector);
+    }
+
+    @Override
+    public INDArray get(String label) {
+        return featureBank.get(label);
+    }
+
+    @Override
+    public SearchResult search(INDArray queries, int k) {
+        return featureBank.search(queries, k);
+    }
+
+    @Override
+    public void close() {
+        // nothing to release
+    }
+
+    @Override
+    public String toString() {
+        return "local shard (" + featureBank.size() + " feature vectors)";
+    }
+}
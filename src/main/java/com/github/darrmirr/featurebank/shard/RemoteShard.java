@@ -0,0 +1,134 @@
+package com.github.darrmirr.featurebank.shard;
+
+import com.github.darrmirr.featurebank.SearchResult;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.Socket;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Shard stored at remote process (see ShardServer)
+ *
+ * Connections are pooled: request borrows idle connection or opens new one and returns it to pool after response.
+ * Connection that failed is closed and I/O error is thrown as UncheckedIOException.
+ * Connection is returned to pool only after complete response, connection that failed by any other error is closed too
+ * (it could keep half written request).
+ */
+public class RemoteShard implements Shard {
+    private final String host;
+    private final int port;
+    private final Queue<Connection> idleConnections = new ConcurrentLinkedQueue<>();
+
+    public RemoteShard(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    @Override
+    public void put(String label, INDArray featureVector) {
+        request(connection -> {
+            connection.out.writeByte(ShardProtocol.PUT);
+            connection.out.writeUTF(label);
+            ShardProtocol.writeFeature(connection.out, featureVector);
+            connection.out.flush();
+            ShardProtocol.readStatus(connection.in);
+            return null;
+        });
+    }
+
+    @Override
+    public INDArray get(String label) {
+        return request(connection -> {
+            connection.out.writeByte(ShardProtocol.GET);
+            connection.out.writeUTF(label);
+            connection.out.flush();
+            ShardProtocol.readStatus(connection.in);
+            return ShardProtocol.readFeature(connection.in);
+        });
+    }
+
+    @Override
+    public SearchResult search(INDArray queries, int k) {
+        return request(connection -> {
+            connection.out.writeByte(ShardProtocol.SEARCH);
+            connection.out.writeInt(k);
+            ShardProtocol.writeMatrix(connection.out, queries);
+            connection.out.flush();
+            ShardProtocol.readStatus(connection.in);
+            return ShardProtocol.readSearchResult(connection.in);
+        });
+    }
+
+    @Override
+    public void close() {
+        Connection connection;
+        while ((connection = idleConnections.poll()) != null) {
+            connection.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "remote shard " + host + ":" + port;
+    }
+
+    private <T> T request(Request<T> request) {
+        var connection = idleConnections.poll();
+        T response;
+        try {
+            if (connection == null) {
+                connection = new Connection(new Socket(host, port));
+            }
+            response = request.execute(connection);
+        } catch (IOException e) {
+            close(connection);
+            throw new UncheckedIOException("request to " + this + " has failed", e);
+        } catch (RuntimeException | Error e) {
+            close(connection);
+            throw e;
+        }
+        idleConnections.add(connection);
+        return response;
+    }
+
+    private static void close(Connection connection) {
+        if (connection != null) {
+            connection.close();
+        }
+    }
+
+    @FunctionalInterface
+    private interface Request<T> {
+        T execute(Connection connection) throws IOException;
+    }
+
+    private static class Connection implements Closeable {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+
+        private Connection(Socket socket) throws IOException {
+            socket.setTcpNoDelay(true);
+            this.socket = socket;
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        @Override
+        public void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // connection is discarded anyway
+            }
+        }
+    }
+}
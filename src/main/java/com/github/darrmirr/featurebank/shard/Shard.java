@@ -0,0 +1,40 @@
+package com.github.darrmirr.featurebank.shard;
+
+import com.github.darrmirr.featurebank.SearchResult;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+import java.io.Closeable;
+
+/**
+ * Partition of sharded feature bank
+ */
+public interface Shard extends Closeable {
+
+    /**
+     * Put new feature vector to shard
+     *
+     * @param label label for input feature
+     * @param featureVector feature vector to store at shard
+     */
+    void put(String label, INDArray featureVector);
+
+    /**
+     * Get stored feature vector by label
+     *
+     * @param label label name
+     * @return feature vector stored at shard or empty array
+     */
+    INDArray get(String label);
+
+    /**
+     * Get k feature vectors stored at shard nearest to every query (local top-k)
+     *
+     * @param queries feature vectors to test (row per query)
+     * @param k max amount of matches per query
+     * @return feature matches per query sorted by distance (row ids are local to shard)
+     */
+    SearchResult search(INDArray queries, int k);
+
+    @Override
+    void close();
+}
@@ -0,0 +1,118 @@
+package com.github.darrmirr.featurebank.shard;
+
+import com.github.darrmirr.featurebank.FeatureMatch;
+import com.github.darrmirr.featurebank.SearchResult;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary protocol between remote shard client and shard server
+ *
+ * Client sends command byte followed by its arguments, server replies on the same connection:
+ * <pre>
+ * PUT     : label (UTF), feature vector          -> status
+ * GET     : label (UTF)                          -> status, length (-1 if label is absent), floats
+ * SEARCH  : k (int), queries                     -> status, amount of queries (int),
+ *                                                   [amount of matches (int), [label (UTF), distance (double), recognized (boolean), row (long)]]
+ * </pre>
+ * Feature vector is written as length (int) followed by floats.
+ * Queries are written as amount of rows (int), amount of columns (int) followed by floats row by row.
+ * Status is OK or ERROR followed by error message (UTF).
+ * Feature vector and queries of more than MAX_VALUES floats are rejected as malformed.
+ */
+final class ShardProtocol {
+    static final byte PUT = 1;
+    static final byte GET = 2;
+    static final byte SEARCH = 3;
+    static final byte OK = 0;
+    static final byte ERROR = -1;
+    // max amount of floats of feature vector or queries read from connection (64 MB)
+    static final int MAX_VALUES = 1 << 24;
+
+    private ShardProtocol() {
+    }
+
+    static void writeFeature(DataOutputStream out, INDArray featureVector) throws IOException {
+        var feature = featureVector.dup('c').data().asFloat();
+        out.writeInt(feature.length);
+        for (float value : feature) {
+            out.writeFloat(value);
+        }
+    }
+
+    static INDArray readFeature(DataInputStream in) throws IOException {
+        var length = in.readInt();
+        if (length < 0) {
+            return Nd4j.empty();
+        }
+        if (length > MAX_VALUES) {
+            throw new IOException("feature vector length " + length + " exceeds " + MAX_VALUES);
+        }
+        var feature = new float[length];
+        for (int i = 0; i < length; i++) {
+            feature[i] = in.readFloat();
+        }
+        return Nd4j.create(feature).reshape(1, length);
+    }
+
+    static void writeMatrix(DataOutputStream out, INDArray matrix) throws IOException {
+        var values = matrix.dup('c').data().asFloat();
+        out.writeInt(matrix.rows());
+        out.writeInt(matrix.columns());
+        for (float value : values) {
+            out.writeFloat(value);
+        }
+    }
+
+    static INDArray readMatrix(DataInputStream in) throws IOException {
+        var rows = in.readInt();
+        var columns = in.readInt();
+        if (rows < 0 || columns < 0 || (long) rows * columns > MAX_VALUES) {
+            throw new IOException("invalid matrix size " + rows + " x " + columns);
+        }
+        var values = new float[rows * columns];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readFloat();
+        }
+        return Nd4j.create(values).reshape(rows, columns);
+    }
+
+    static void writeSearchResult(DataOutputStream out, SearchResult searchResult) throws IOException {
+        out.writeInt(searchResult.size());
+        for (List<FeatureMatch> featureMatches : searchResult.getMatches()) {
+            out.writeInt(featureMatches.size());
+            for (FeatureMatch featureMatch : featureMatches) {
+                out.writeUTF(featureMatch.getLabel());
+                out.writeDouble(featureMatch.getDistance());
+                out.writeBoolean(featureMatch.isRecognized());
+                out.writeLong(featureMatch.getRow());
+            }
+        }
+    }
+
+    static SearchResult readSearchResult(DataInputStream in) throws IOException {
+        var queries = in.readInt();
+        var matches = new ArrayList<List<FeatureMatch>>(queries);
+        for (int query = 0; query < queries; query++) {
+            var amount = in.readInt();
+            var featureMatches = new ArrayList<FeatureMatch>(amount);
+            for (int i = 0; i < amount; i++) {
+                featureMatches.add(new FeatureMatch(in.readUTF(), in.readDouble(), in.readBoolean(), in.readLong()));
+            }
+            matches.add(featureMatches);
+        }
+        return new SearchResult(matches);
+    }
+
+    static void readStatus(DataInputStream in) throws IOException {
+        if (in.readByte() != OK) {
+            throw new IOException("shard server error : " + in.readUTF());
+        }
+    }
+}
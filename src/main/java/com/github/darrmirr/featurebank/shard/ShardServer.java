@@ -0,0 +1,146 @@
+package com.github.darrmirr.featurebank.shard;
+
+import com.github.darrmirr.featurebank.verifier.EuclideanFeatureVerifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Server exposes shard to remote shard clients by socket protocol (see ShardProtocol)
+ *
+ * Each client connection is served by its own thread.
+ * Run main method to start shard at separate JVM : ShardServer &lt;port&gt;
+ */
+public class ShardServer implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(ShardServer.class);
+    private final Shard shard;
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        var thread = new Thread(runnable, "shard-server");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ShardServer(Shard shard, int port) throws IOException {
+        this.shard = shard;
+        this.serverSocket = new ServerSocket(port);
+    }
+
+    public static void main(String[] args) throws IOException {
+        var port = args.length > 0 ? Integer.parseInt(args[0]) : 7000;
+        try (var server = new ShardServer(new LocalShard(new EuclideanFeatureVerifier()), port)) {
+            logger.info("shard server is listening on port {}", server.getPort());
+            server.run();
+        }
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Accept client connections at background thread
+     */
+    public void start() {
+        executor.execute(this::run);
+    }
+
+    /**
+     * Accept client connections until server is closed
+     */
+    public void run() {
+        while (!serverSocket.isClosed()) {
+            try {
+                var socket = serverSocket.accept();
+                executor.execute(() -> serve(socket));
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    logger.warn("cannot accept connection", e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        executor.shutdownNow();
+        shard.close();
+    }
+
+    private void serve(Socket socket) {
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            var in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            var out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            while (true) {
+                byte command;
+                try {
+                    command = in.readByte();
+                } catch (EOFException e) {
+                    return;
+                }
+                // response is built before it is written, so failed command never leaves partial response at connection
+                var response = new ByteArrayOutputStream();
+                try {
+                    handle(command, in, new DataOutputStream(response));
+                    out.writeByte(ShardProtocol.OK);
+                    response.writeTo(out);
+                } catch (RuntimeException e) {
+                    // arguments of command have been read already, so connection could be reused
+                    logger.warn("shard command {} has failed", command, e);
+                    out.writeByte(ShardProtocol.ERROR);
+                    out.writeUTF(String.valueOf(e.getMessage()));
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            logger.debug("connection {} is closed : {}", socket, e.getMessage());
+        }
+    }
+
+    /**
+     * Read arguments of command, execute it and write response (except for status)
+     * Malformed arguments are thrown as IOException (connection is closed, because it is not known where next command starts).
+     */
+    private void handle(byte command, DataInputStream in, DataOutputStream out) throws IOException {
+        switch (command) {
+            case ShardProtocol.PUT: {
+                var label = in.readUTF();
+                var featureVector = ShardProtocol.readFeature(in);
+                shard.put(label, featureVector);
+                break;
+            }
+            case ShardProtocol.GET: {
+                var featureVector = shard.get(in.readUTF());
+                if (featureVector.isEmpty()) {
+                    out.writeInt(-1);
+                } else {
+                    ShardProtocol.writeFeature(out, featureVector);
+                }
+                break;
+            }
+            case ShardProtocol.SEARCH: {
+                var k = in.readInt();
+                var queries = ShardProtocol.readMatrix(in);
+                var searchResult = shard.search(queries, k);
+                ShardProtocol.writeSearchResult(out, searchResult);
+                break;
+            }
+            default:
+                throw new IOException("unknown command " + command);
+        }
+    }
+}
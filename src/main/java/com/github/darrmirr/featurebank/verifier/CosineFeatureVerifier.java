@@ -19,8 +19,28 @@ public class CosineFeatureVerifier implements FeatureVerifier {
         return distance;
     }
 
+    @Override
+    public double verify(float[] featureSource, float[] featureTest) {
+        return DistanceKernels.cosine(featureSource, featureTest);
+    }
+
+    @Override
+    public void verifyAll(float[] featureSources, int rows, float[] featureTest, float[] distances) {
+        DistanceKernels.cosine(featureSources, rows, featureTest, distances);
+    }
+
     @Override
     public double threshold() {
         return 0.4;
     }
+
+    /**
+     * Distance matrix is calculated by single matrix multiplication of normalized feature vectors
+     */
+    @Override
+    public INDArray verifyAll(INDArray featureSources, INDArray featureTests) {
+        var sources = featureSources.divColumnVector(featureSources.norm2(1).reshape(featureSources.rows(), 1));
+        var tests = featureTests.divColumnVector(featureTests.norm2(1).reshape(featureTests.rows(), 1));
+        return tests.mmul(sources.transpose()).rsubi(1);
+    }
 }
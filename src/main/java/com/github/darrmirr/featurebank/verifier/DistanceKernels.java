@@ -0,0 +1,100 @@
+package com.github.darrmirr.featurebank.verifier;
+
+/**
+ * Distance kernels over float arrays
+ *
+ * Loops are unrolled by 4 with independent accumulators, so JIT compiler keeps several multiply-add chains
+ * in flight instead of single dependent chain. It avoids JNI call (and array allocation) of ND4J op per vector pair
+ * that dominates the cost for short (128-d) feature vectors.
+ * Vectors are addressed by offset at shared array, so feature bank could scan its storage without copying rows.
+ */
+public final class DistanceKernels {
+
+    private DistanceKernels() {
+    }
+
+    public static float squaredEuclidean(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i + 3 < length; i += 4) {
+            float d0 = a[aOffset + i] - b[bOffset + i];
+            float d1 = a[aOffset + i + 1] - b[bOffset + i + 1];
+            float d2 = a[aOffset + i + 2] - b[bOffset + i + 2];
+            float d3 = a[aOffset + i + 3] - b[bOffset + i + 3];
+            s0 += d0 * d0;
+            s1 += d1 * d1;
+            s2 += d2 * d2;
+            s3 += d3 * d3;
+        }
+        for (; i < length; i++) {
+            float d = a[aOffset + i] - b[bOffset + i];
+            s0 += d * d;
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    public static float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i + 3 < length; i += 4) {
+            s0 += a[aOffset + i] * b[bOffset + i];
+            s1 += a[aOffset + i + 1] * b[bOffset + i + 1];
+            s2 += a[aOffset + i + 2] * b[bOffset + i + 2];
+            s3 += a[aOffset + i + 3] * b[bOffset + i + 3];
+        }
+        for (; i < length; i++) {
+            s0 += a[aOffset + i] * b[bOffset + i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    public static float euclidean(float[] a, float[] b) {
+        checkLength(a, b);
+        return (float) Math.sqrt(squaredEuclidean(a, 0, b, 0, a.length));
+    }
+
+    public static float cosine(float[] a, float[] b) {
+        checkLength(a, b);
+        var norms = Math.sqrt(dot(a, 0, a, 0, a.length)) * Math.sqrt(dot(b, 0, b, 0, b.length));
+        return (float) (1 - dot(a, 0, b, 0, a.length) / norms);
+    }
+
+    /**
+     * Euclidean distances between query and every vector of matrix (one query versus many)
+     *
+     * @param vectors vectors stored row by row
+     * @param rows amount of vectors
+     * @param query query vector
+     * @param distances array to write distances to (length is at least rows)
+     */
+    public static void euclidean(float[] vectors, int rows, float[] query, float[] distances) {
+        int length = query.length;
+        for (int row = 0; row < rows; row++) {
+            distances[row] = (float) Math.sqrt(squaredEuclidean(vectors, row * length, query, 0, length));
+        }
+    }
+
+    /**
+     * Cosine distances between query and every vector of matrix (one query versus many)
+     *
+     * @param vectors vectors stored row by row
+     * @param rows amount of vectors
+     * @param query query vector
+     * @param distances array to write distances to (length is at least rows)
+     */
+    public static void cosine(float[] vectors, int rows, float[] query, float[] distances) {
+        int length = query.length;
+        var queryNorm = Math.sqrt(dot(query, 0, query, 0, length));
+        for (int row = 0; row < rows; row++) {
+            int offset = row * length;
+            var norms = Math.sqrt(dot(vectors, offset, vectors, offset, length)) * queryNorm;
+            distances[row] = (float) (1 - dot(vectors, offset, query, 0, length) / norms);
+        }
+    }
+
+    private static void checkLength(float[] a, float[] b) {
+        if (a.length != b.length) {
+            throw new IllegalArgumentException("vectors have different length : " + a.length + " and " + b.length);
+        }
+    }
+}
@@ -19,11 +19,36 @@ public class EuclideanFeatureVerifier implements FeatureVerifier {
         return distance;
     }
 
+    @Override
+    public double verify(float[] featureSource, float[] featureTest) {
+        return DistanceKernels.euclidean(featureSource, featureTest);
+    }
+
+    @Override
+    public void verifyAll(float[] featureSources, int rows, float[] featureTest, float[] distances) {
+        DistanceKernels.euclidean(featureSources, rows, featureTest, distances);
+    }
+
     @Override
     public double threshold() {
         return 1.1;
     }
 
+    /**
+     * Distance matrix is calculated by single matrix multiplication : |a - b|^2 = |a|^2 + |b|^2 - 2 * a.b
+     */
+    @Override
+    public INDArray verifyAll(INDArray featureSources, INDArray featureTests) {
+        var sourceNorms = featureSources.mul(featureSources).sum(1).reshape(1, featureSources.rows());
+        var testNorms = featureTests.mul(featureTests).sum(1).reshape(featureTests.rows(), 1);
+        var distances = featureTests.mmul(featureSources.transpose())
+                .muli(-2)
+                .addiRowVector(sourceNorms)
+                .addiColumnVector(testNorms);
+        // rounding error could make squared distance of (almost) equal vectors negative
+        return Transforms.sqrt(Transforms.max(distances, 0, false), false);
+    }
+
     private double euclideanDistance(INDArray featureSource, INDArray featureTest) {
         INDArray tmp = featureSource.sub(featureTest);
         tmp = tmp.mul(tmp).sum(1);
@@ -1,6 +1,9 @@
 package com.github.darrmirr.featurebank.verifier;
 
 import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.Arrays;
 
 public interface FeatureVerifier {
     String COSINE_DISTANCE = "cosine_distance";
@@ -9,4 +12,47 @@ public interface FeatureVerifier {
     double verify(INDArray featureSource, INDArray featureTest);
 
     double threshold();
+
+    /**
+     * Calculate distance between feature vectors stored at java arrays
+     *
+     * @param featureSource source feature vector
+     * @param featureTest test feature vector
+     * @return distance
+     */
+    default double verify(float[] featureSource, float[] featureTest) {
+        return verify(Nd4j.create(featureSource), Nd4j.create(featureTest));
+    }
+
+    /**
+     * Calculate distances between test feature vector and every source feature vector (one query versus many)
+     *
+     * @param featureSources source feature vectors stored row by row
+     * @param rows amount of source feature vectors
+     * @param featureTest test feature vector
+     * @param distances array to write distances to (length is at least rows)
+     */
+    default void verifyAll(float[] featureSources, int rows, float[] featureTest, float[] distances) {
+        int length = featureTest.length;
+        for (int row = 0; row < rows; row++) {
+            distances[row] = (float) verify(Arrays.copyOfRange(featureSources, row * length, (row + 1) * length), featureTest);
+        }
+    }
+
+    /**
+     * Calculate distances between every test feature vector and every source feature vector
+     *
+     * @param featureSources source feature vectors (row per vector)
+     * @param featureTests test feature vectors (row per vector)
+     * @return distance matrix [amount of test vectors, amount of source vectors]
+     */
+    default INDArray verifyAll(INDArray featureSources, INDArray featureTests) {
+        var distances = Nd4j.create(featureTests.rows(), featureSources.rows());
+        for (int i = 0; i < featureTests.rows(); i++) {
+            for (int j = 0; j < featureSources.rows(); j++) {
+                distances.putScalar(i, j, verify(featureSources.getRow(j), featureTests.getRow(i)));
+            }
+        }
+        return distances;
+    }
 }
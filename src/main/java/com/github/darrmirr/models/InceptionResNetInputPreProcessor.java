@@ -7,15 +7,15 @@ import org.nd4j.linalg.api.ndarray.INDArray;
 
 /**
  * Input preprocessor for input neural network layer
+ *
+ * Input is passed as is : faces are prewhitened per sample while they are resized to network input
+ * (see Nd4jUtils.resizeAndPrewhiten), so batch of faces could be fed to network.
  */
 public class InceptionResNetInputPreProcessor extends BaseInputPreProcessor {
 
     @Override
     public INDArray preProcess(INDArray indArray, int i, LayerWorkspaceMgr layerWorkspaceMgr) {
-        double mean = indArray.mean().getDouble(0);
-        double std = indArray.std().getDouble(0);
-        double stdAdj = Math.max(std, 1.0 / Math.sqrt(indArray.length()));
-        return indArray.sub(mean).mul(1 / stdAdj);
+        return indArray;
     }
 
     @Override
@@ -2,6 +2,7 @@ package com.github.darrmirr.models;
 
 import com.github.darrmirr.models.custom.ActivationLinear;
 import com.github.darrmirr.models.custom.ActivationReverse;
+import com.github.darrmirr.models.optimization.LayerFolding;
 import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
 import org.deeplearning4j.nn.conf.ConvolutionMode;
 import org.deeplearning4j.nn.conf.InputPreProcessor;
@@ -13,6 +14,7 @@ import org.deeplearning4j.nn.conf.graph.L2NormalizeVertex;
 import org.deeplearning4j.nn.conf.graph.MergeVertex;
 import org.deeplearning4j.nn.conf.inputs.InputType;
 import org.deeplearning4j.nn.conf.layers.*;
+import org.deeplearning4j.nn.graph.ComputationGraph;
 import org.deeplearning4j.nn.weights.WeightInit;
 import org.nd4j.linalg.activations.Activation;
 import org.nd4j.linalg.api.ndarray.INDArray;
@@ -42,18 +44,52 @@ public class InceptionResNetV1 implements Dl4jModel {
     private static final Logger logger = LoggerFactory.getLogger(InceptionResNetV1.class);
     private static final String WEIGHTS_PATH = "models/inceptionResNetV1/*";
     private ComputationGraphConfiguration graphConfiguration;
+    private ComputationGraphConfiguration inferenceConfiguration;
+    private LayerFolding layerFolding;
     private Resource[] modelParts;
 
+    /**
+     * @param modelParts model weights files
+     * @param foldLayers true to fold batch normalization and residual scale layers into convolution and dense layers
+     *                   they follow and to drop dropout layer (inference graph is built without them, see getGraph)
+     */
     @Autowired
-    public InceptionResNetV1(@Value("classpath:" + WEIGHTS_PATH) Resource[] modelParts)  {
+    public InceptionResNetV1(@Value("classpath:" + WEIGHTS_PATH) Resource[] modelParts,
+                             @Value("${facenet.fold-layers:true}") boolean foldLayers)  {
         this.modelParts = modelParts;
         try {
-            graphConfiguration = buildConfiguration(new long[] { 160, 160, 3 });
+            graphConfiguration = buildConfiguration(new long[] { 160, 160, 3 }, null);
+            if (foldLayers) {
+                layerFolding = new LayerFolding();
+                inferenceConfiguration = buildConfiguration(new long[] { 160, 160, 3 }, layerFolding);
+            }
         } catch (Exception e) {
             logger.error("error to build ComputationGraphConfiguration", e);
         }
     }
 
+    /**
+     * Build graph and load model weights to it
+     *
+     * Model weights are loaded to graph with layout of model weights (see getConfiguration).
+     * If layer folding is enabled, inference graph without batch normalization, residual scale and dropout layers
+     * is returned.
+     *
+     * @return graph for inference
+     * @throws IOException exception while model weights are read
+     */
+    @Override
+    public ComputationGraph getGraph() throws IOException {
+        var graph = Dl4jModel.super.getGraph();
+        if (inferenceConfiguration == null) {
+            return graph;
+        }
+        var inferenceGraph = new ComputationGraph(inferenceConfiguration);
+        inferenceGraph.init();
+        layerFolding.apply(graph, inferenceGraph);
+        return inferenceGraph;
+    }
+
     @Override
     public Supplier<InputStream> modelWeights() {
         return () -> {
@@ -92,11 +128,18 @@ public class InceptionResNetV1 implements Dl4jModel {
         return 160;
     }
 
-    private ComputationGraphConfiguration buildConfiguration(long[] inputShape) throws Exception {
+    /**
+     * @param inputShape input shape [height, width, channels]
+     * @param layerFolding layer folding to register folded layers at
+     *                     or null to build graph with layout of model weights
+     * @return graph configuration
+     * @throws Exception exception while graph is built
+     */
+    private ComputationGraphConfiguration buildConfiguration(long[] inputShape, LayerFolding layerFolding) throws Exception {
         String input = "input";
         ComputationGraphConfiguration.GraphBuilder builder = new NeuralNetConfiguration.Builder().graphBuilder().addInputs(input)
                 .setInputTypes(InputType.convolutional(inputShape[0], inputShape[1], inputShape[2]));
-        GraphBuilderHelper helper = new GraphBuilderHelper(builder);
+        GraphBuilderHelper helper = new GraphBuilderHelper(builder, layerFolding);
         helper.lastLayer = input;
         helper.layerConfMap.put(input, new LayerConf(input, (int) inputShape[2]));
         helper.addLayerAndBatchNormBehind("Conv2d_1a_3x3", defConv(32, 3, 2).convolutionMode(Truncate));
@@ -119,7 +162,10 @@ public class InceptionResNetV1 implements Dl4jModel {
         }
         block8(helper, false, "block8_final", 1);
         helper.addLayerBehind("avg_pool", defPool(PoolingType.AVG, 3).convolutionMode(Truncate));
-        helper.addLayerBehind("Dropout", new DropoutLayer.Builder(0.8));
+        if (layerFolding == null) {
+            // dropout is identity at inference
+            helper.addLayerBehind("Dropout", new DropoutLayer.Builder(0.8));
+        }
         helper.addLayerBehind("reverse", new ActivationLayer.Builder(new ActivationReverse()));
         helper.addLayerAndBatchNormBehind("Bottleneck", defDense(128), Activation.IDENTITY);
         helper.addLayerBehind("logits", defDense(44052).hasBias(true));
@@ -198,10 +244,9 @@ public class InceptionResNetV1 implements Dl4jModel {
         helper.addLayerAndBatchNormBehind(tower_conv2_2, defConv(32, 3));
         String[] merges = new String[] { toActName(tower_conv2_2), toActName(tower_conv1_1), toActName(tower_conv) };
         helper.addVertex(mixed, new MergeVertex(), helper.getOutput(merges), merges);
-        helper.addLayer(up, defConv(helper.getOutput(input), 1).hasBias(true), mixed);
-        helper.addLayerBehind(scaleName, new ActivationLayer.Builder(new ActivationLinear(scale)));
+        helper.addLayerAndScale(up, scaleName, defConv(helper.getOutput(input), 1).hasBias(true), scale, mixed);
         helper.addVertex(add, new ElementWiseVertex(ElementWiseVertex.Op.Add), helper.getOutput(input), input,
-                scaleName);
+                helper.lastLayer);
         helper.addLayer(relu, new ActivationLayer.Builder().activation(Activation.RELU), add);
     }
 
@@ -217,10 +262,9 @@ public class InceptionResNetV1 implements Dl4jModel {
         helper.addLayerAndBatchNormBehind(b1_2, defConv(128, 1).kernelSize(7, 1));
         String[] merges = new String[] { toActName(b1_2), toActName(b0) };
         helper.addVertex(mixed, new MergeVertex(), helper.getOutput(merges), merges);
-        helper.addLayer(up, defConv(helper.getOutput(input), 1).hasBias(true), mixed);
-        helper.addLayerBehind(scaleName, new ActivationLayer.Builder(new ActivationLinear(scale)));
+        helper.addLayerAndScale(up, scaleName, defConv(helper.getOutput(input), 1).hasBias(true), scale, mixed);
         helper.addVertex(add, new ElementWiseVertex(ElementWiseVertex.Op.Add), helper.getOutput(input), input,
-                scaleName);
+                helper.lastLayer);
         helper.addLayer(activation, new ActivationLayer.Builder().activation(Activation.RELU), add);
     }
 
@@ -237,10 +281,9 @@ public class InceptionResNetV1 implements Dl4jModel {
         helper.addLayerAndBatchNormBehind(b1_2, defConv(192, 1).kernelSize(3, 1));
         String[] merges = new String[] { toActName(b1_2), toActName(b0) };
         helper.addVertex(mixed, new MergeVertex(), helper.getOutput(merges), merges);
-        helper.addLayerBehind(up, defConv(helper.getOutput(input), 1).hasBias(true));
-        helper.addLayerBehind(scaleName, new ActivationLayer.Builder(new ActivationLinear(scale)));
+        helper.addLayerAndScale(up, scaleName, defConv(helper.getOutput(input), 1).hasBias(true), scale, helper.lastLayer);
         helper.addVertex(add, new ElementWiseVertex(ElementWiseVertex.Op.Add), helper.getOutput(input), input,
-                scaleName);
+                helper.lastLayer);
         Activation act = activateFunc ? Activation.RELU : Activation.IDENTITY;
         helper.addLayer(activation, new ActivationLayer.Builder().activation(act), add);
     }
@@ -284,10 +327,12 @@ public class InceptionResNetV1 implements Dl4jModel {
         String lastLayer = null;
         Map<String, LayerConf> layerConfMap = new HashMap<String, LayerConf>();
         Field outField;
+        LayerFolding layerFolding;
 
-        public GraphBuilderHelper(ComputationGraphConfiguration.GraphBuilder builder) throws Exception {
+        public GraphBuilderHelper(ComputationGraphConfiguration.GraphBuilder builder, LayerFolding layerFolding) throws Exception {
             super();
             this.builder = builder;
+            this.layerFolding = layerFolding;
             outField = FeedForwardLayer.Builder.class.getDeclaredField("nOut");
             outField.setAccessible(true);
         }
@@ -336,11 +381,43 @@ public class InceptionResNetV1 implements Dl4jModel {
 
         void addLayerAndBatchNorm(String name, @SuppressWarnings("rawtypes") Layer.Builder layer, Activation act,
                                   String... input) throws Exception {
-            addLayer(name, layer, input);
-            addLayerBehind(toBatchNormName(name), defBatchNorm());
+            if (layerFolding == null) {
+                addLayer(name, layer, input);
+                addLayerBehind(toBatchNormName(name), defBatchNorm());
+            } else {
+                // batch normalization is folded into weights and bias of layer
+                addLayer(name, withBias(layer), input);
+                layerFolding.foldBatchNorm(name, toBatchNormName(name));
+            }
             addLayerBehind(toActName(name), new ActivationLayer.Builder().activation(act));
         }
 
+        /**
+         * Add layer followed by linear scale of its output
+         * Scaled output is the last layer after method call.
+         */
+        void addLayerAndScale(String name, String scaleName, @SuppressWarnings("rawtypes") Layer.Builder layer,
+                              double scale, String... input) throws Exception {
+            addLayer(name, layer, input);
+            if (layerFolding == null) {
+                addLayerBehind(scaleName, new ActivationLayer.Builder(new ActivationLinear(scale)));
+            } else {
+                // scale is folded into weights and bias of layer
+                layerFolding.foldScale(name, scale);
+            }
+        }
+
+        @SuppressWarnings("rawtypes")
+        private Layer.Builder withBias(Layer.Builder layer) {
+            if (layer instanceof ConvolutionLayer.Builder) {
+                return ((ConvolutionLayer.Builder) layer).hasBias(true);
+            }
+            if (layer instanceof DenseLayer.Builder) {
+                return ((DenseLayer.Builder) layer).hasBias(true);
+            }
+            throw new IllegalArgumentException("batch normalization could not be folded into " + layer.getClass().getSimpleName());
+        }
+
         void addLayerAndBatchNorm(String name, @SuppressWarnings("rawtypes") Layer.Builder layer, String... input)
                 throws Exception {
             addLayerAndBatchNorm(name, layer, Activation.RELU, input);
@@ -0,0 +1,148 @@
+package com.github.darrmirr.models;
+
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.memory.conf.WorkspaceConfiguration;
+import org.nd4j.linalg.api.memory.enums.AllocationPolicy;
+import org.nd4j.linalg.api.memory.enums.LearningPolicy;
+import org.nd4j.linalg.api.memory.enums.SpillPolicy;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Per-thread ND4J workspace that is scoped around whole face detection and feature extraction request
+ *
+ * All intermediate arrays created at request (image pyramid, network outputs, bounding boxes and so on)
+ * are allocated inside single memory arena that is reused by next request at the same thread.
+ * Workspace size is learned during first requests and grows over time if it is required.
+ *
+ * ND4J workspaces belong to threads, so requests are executed by fixed pool of platform inference threads
+ * (request threads, e.g. virtual thread per request, are short-lived and would never reuse their workspaces).
+ * Request thread waits for result, which is cheap for virtual thread.
+ *
+ * notice: arrays allocated in workspace are invalid after request is finished.
+ *         Results that outlive request must be detached (see detach method).
+ */
+
+@Component
+public class InferenceWorkspace {
+    private static final Logger logger = LoggerFactory.getLogger(InferenceWorkspace.class);
+    public static final String WORKSPACE_ID = "FACE_INFERENCE_WORKSPACE";
+    private final WorkspaceConfiguration configuration = WorkspaceConfiguration
+            .builder()
+            .initialSize(0)
+            .cyclesBeforeInitialization(3)
+            .policyLearning(LearningPolicy.OVER_TIME)
+            .policyAllocation(AllocationPolicy.OVERALLOCATE)
+            .overallocationLimit(0.2)
+            .policySpill(SpillPolicy.REALLOCATE)
+            .build();
+    private boolean enabled;
+    private ExecutorService inferenceThreads;
+
+    /**
+     * @param enabled true to execute requests inside workspace
+     * @param threads amount of inference threads (0 means amount of available processors)
+     */
+    @Autowired
+    public InferenceWorkspace(@Value("${inference.workspace.enabled:true}") boolean enabled,
+                              @Value("${inference.workspace.threads:0}") int threads) {
+        this.enabled = enabled;
+        if (enabled) {
+            var threadAmount = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+            var threadIndex = new AtomicInteger();
+            inferenceThreads = Executors.newFixedThreadPool(threadAmount, task -> {
+                var thread = new Thread(task, "inference-workspace-" + threadIndex.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+            logger.info("inference workspace enabled : {} inference threads", threadAmount);
+        } else {
+            logger.info("inference workspace enabled : false");
+        }
+    }
+
+    public InferenceWorkspace(boolean enabled) {
+        this(enabled, 0);
+    }
+
+    public InferenceWorkspace() {
+        this(true);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (inferenceThreads != null) {
+            inferenceThreads.shutdown();
+        }
+    }
+
+    /**
+     * Execute request inside workspace of inference thread
+     *
+     * Request is executed at current thread if workspace is disabled or request is nested one
+     * (workspace is already active at current thread).
+     *
+     * @param request request to execute
+     * @param <T> request result type
+     * @return request result (arrays at result must be detached by request)
+     */
+    public <T> T execute(Supplier<T> request) {
+        if (!enabled || Nd4j.getWorkspaceManager().anyWorkspaceActiveForCurrentThread()) {
+            return request.get();
+        }
+        try {
+            return CompletableFuture.supplyAsync(() -> executeInWorkspace(request), inferenceThreads).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private <T> T executeInWorkspace(Supplier<T> request) {
+        try (MemoryWorkspace ignored = Nd4j.getWorkspaceManager().getAndActivateWorkspace(configuration, WORKSPACE_ID)) {
+            return request.get();
+        }
+    }
+
+    /**
+     * Copy array out of workspace
+     *
+     * @param array array that could be allocated in workspace
+     * @return array that is not attached to any workspace
+     */
+    public static INDArray detach(INDArray array) {
+        return array == null || !array.isAttached() ? array : array.detach();
+    }
+
+    /**
+     * Perform graph inference
+     * Output arrays are allocated at current workspace if any is active.
+     *
+     * @param graph graph to perform inference
+     * @param input graph input
+     * @return graph output
+     */
+    public static INDArray[] output(ComputationGraph graph, INDArray input) {
+        var workspace = Nd4j.getMemoryManager().getCurrentWorkspace();
+        return workspace == null ? graph.output(input) : graph.output(false, workspace, input);
+    }
+}
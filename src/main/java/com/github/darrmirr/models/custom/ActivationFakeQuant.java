@@ -0,0 +1,57 @@
+package com.github.darrmirr.models.custom;
+
+import org.nd4j.linalg.activations.BaseActivationFunction;
+import org.nd4j.linalg.activations.IActivation;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.ops.transforms.Transforms;
+import org.nd4j.linalg.primitives.Pair;
+
+/**
+ * Activation function rounds output of wrapped activation function to int8 grid
+ *
+ * Output is divided by scale, rounded, clipped to [min, max] range of quantized values and multiplied by scale back,
+ * so next layer receives exactly the values it would receive from int8 tensor.
+ * Gradient is passed through rounding unchanged (straight-through estimator).
+ */
+public class ActivationFakeQuant extends BaseActivationFunction {
+
+    private static final long serialVersionUID = 6412338416524781094L;
+    private IActivation activation;
+    private double scale;
+    private double min;
+    private double max;
+
+    public ActivationFakeQuant(IActivation activation, double scale, double min, double max) {
+        this.activation = activation;
+        this.scale = scale;
+        this.min = min;
+        this.max = max;
+    }
+
+    @Override
+    public INDArray getActivation(INDArray in, boolean training) {
+        var out = activation.getActivation(in, training).divi(scale);
+        Transforms.round(out, false);
+        Transforms.max(out, min, false);
+        Transforms.min(out, max, false);
+        return out.muli(scale);
+    }
+
+    @Override
+    public Pair<INDArray, INDArray> backprop(INDArray in, INDArray epsilon) {
+        return activation.backprop(in, epsilon);
+    }
+
+    public IActivation getActivation() {
+        return activation;
+    }
+
+    public double getScale() {
+        return scale;
+    }
+
+    @Override
+    public String toString() {
+        return "fakequant(" + activation + ")";
+    }
+}
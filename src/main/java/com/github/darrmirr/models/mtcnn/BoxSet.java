@@ -0,0 +1,408 @@
+package com.github.darrmirr.models.mtcnn;
+
+import com.github.darrmirr.utils.BoundBox;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Candidate bounding boxes of MTCNN stages (structure of arrays)
+ *
+ * Every box is stored at the same index of coordinate (x1, y1, x2, y2), score and regression arrays.
+ * Boxes are processed in place by plain loops between network stages,
+ * INDArray is created only to feed network (see MtcnnUtils.reshapeAndNorm).
+ *
+ * Box layout of array boxes are converted from / to (see of and toArray) is row of 9 columns:
+ * x1, y1, x2, y2, score, regression of x1, y1, x2, y2.
+ */
+public class BoxSet {
+    private static final int REG_LENGTH = 4;
+    private float[] x1;
+    private float[] y1;
+    private float[] x2;
+    private float[] y2;
+    private float[] score;
+    // reg[box * 4 + k]
+    private float[] reg;
+    private int size;
+
+    public BoxSet(int capacity) {
+        capacity = Math.max(capacity, 1);
+        x1 = new float[capacity];
+        y1 = new float[capacity];
+        x2 = new float[capacity];
+        y2 = new float[capacity];
+        score = new float[capacity];
+        reg = new float[capacity * REG_LENGTH];
+    }
+
+    public BoxSet() {
+        this(16);
+    }
+
+    /**
+     * Generate boxes from P-Net output
+     *
+     * @param score face scores of shape [h, w]
+     * @param reg bounding box regression of shape [1, 4, h, w]
+     * @param threshold min score of generated box
+     * @param scale image scale P-Net is fed by
+     * @return generated boxes
+     */
+    public static BoxSet generate(INDArray score, INDArray reg, double threshold, double scale) {
+        int rows = score.rows();
+        int columns = score.columns();
+        var scores = score.dup('c').data().asFloat();
+        var regs = reg.dup('c').data().asFloat();
+        int plane = rows * columns;
+        // 12 x 12 kernel at stride 2 to “un-scaled image” coordinates
+        int stride = 2, cellSize = 12;
+        var boxes = new BoxSet();
+        for (int row = 0, i = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++, i++) {
+                if (scores[i] >= threshold) {
+                    boxes.add((float) Math.floor((row * stride + 1) / scale),
+                            (float) Math.floor((column * stride + 1) / scale),
+                            (float) Math.floor((row * stride + cellSize) / scale),
+                            (float) Math.floor((column * stride + cellSize) / scale),
+                            scores[i],
+                            regs[3 * plane + i], regs[2 * plane + i], regs[plane + i], regs[i]);
+                }
+            }
+        }
+        return boxes;
+    }
+
+    /**
+     * @param boxes array of boxes of shape [n, 9] (or [9] for single box)
+     * @return boxes
+     */
+    public static BoxSet of(INDArray boxes) {
+        var matrix = boxes.rank() == 1 ? boxes.reshape(1, boxes.length()) : boxes;
+        var values = matrix.dup('c').data().asFloat();
+        var boxSet = new BoxSet(matrix.rows());
+        for (int i = 0; i < matrix.rows(); i++) {
+            int o = i * 9;
+            boxSet.add(values[o], values[o + 1], values[o + 2], values[o + 3], values[o + 4],
+                    values[o + 5], values[o + 6], values[o + 7], values[o + 8]);
+        }
+        return boxSet;
+    }
+
+    /**
+     * @return array of boxes of shape [n, 9]
+     */
+    public INDArray toArray() {
+        var values = new float[size * 9];
+        for (int i = 0; i < size; i++) {
+            int o = i * 9;
+            values[o] = x1[i];
+            values[o + 1] = y1[i];
+            values[o + 2] = x2[i];
+            values[o + 3] = y2[i];
+            values[o + 4] = score[i];
+            System.arraycopy(reg, i * REG_LENGTH, values, o + 5, REG_LENGTH);
+        }
+        return Nd4j.create(values, new int[] { size, 9 }, 'c');
+    }
+
+    public List<BoundBox> toBoundBoxes() {
+        var boxes = new ArrayList<BoundBox>(size);
+        for (int i = 0; i < size; i++) {
+            boxes.add(new BoundBox((int) x1[i], (int) y1[i], (int) x2[i], (int) y2[i]));
+        }
+        return boxes;
+    }
+
+    public void add(float x1, float y1, float x2, float y2, float score, float reg0, float reg1, float reg2, float reg3) {
+        ensureCapacity(size + 1);
+        this.x1[size] = x1;
+        this.y1[size] = y1;
+        this.x2[size] = x2;
+        this.y2[size] = y2;
+        this.score[size] = score;
+        int o = size * REG_LENGTH;
+        reg[o] = reg0;
+        reg[o + 1] = reg1;
+        reg[o + 2] = reg2;
+        reg[o + 3] = reg3;
+        size++;
+    }
+
+    public void addAll(BoxSet boxes) {
+        ensureCapacity(size + boxes.size);
+        System.arraycopy(boxes.x1, 0, x1, size, boxes.size);
+        System.arraycopy(boxes.y1, 0, y1, size, boxes.size);
+        System.arraycopy(boxes.x2, 0, x2, size, boxes.size);
+        System.arraycopy(boxes.y2, 0, y2, size, boxes.size);
+        System.arraycopy(boxes.score, 0, score, size, boxes.size);
+        System.arraycopy(boxes.reg, 0, reg, size * REG_LENGTH, boxes.size * REG_LENGTH);
+        size += boxes.size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int x1(int box) {
+        return (int) x1[box];
+    }
+
+    public int y1(int box) {
+        return (int) y1[box];
+    }
+
+    public int x2(int box) {
+        return (int) x2[box];
+    }
+
+    public int y2(int box) {
+        return (int) y2[box];
+    }
+
+    public float score(int box) {
+        return score[box];
+    }
+
+    /**
+     * Set scores and regressions of boxes from R-Net or O-Net output
+     *
+     * @param from index of the first box network is fed by
+     * @param scores face scores of shape [n] or [n, 1]
+     * @param regs bounding box regression of shape [n, 4]
+     */
+    public void update(int from, INDArray scores, INDArray regs) {
+        var scoreValues = scores.dup('c').data().asFloat();
+        var regValues = regs.dup('c').data().asFloat();
+        System.arraycopy(scoreValues, 0, score, from, scoreValues.length);
+        System.arraycopy(regValues, 0, reg, from * REG_LENGTH, regValues.length);
+    }
+
+    /**
+     * Keep boxes with the highest scores only (in order of descending score)
+     *
+     * @param maxSize max amount of boxes to keep
+     */
+    public void top(int maxSize) {
+        if (size <= maxSize) {
+            return;
+        }
+        var order = sortedByScore();
+        var top = new int[maxSize];
+        for (int i = 0; i < maxSize; i++) {
+            top[i] = order[size - 1 - i];
+        }
+        select(top);
+    }
+
+    /**
+     * Keep boxes with score greater than threshold
+     *
+     * @param threshold score threshold
+     */
+    public void filter(double threshold) {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (score[i] > threshold) {
+                move(i, kept++);
+            }
+        }
+        size = kept;
+    }
+
+    /**
+     * Non-maximum suppression (see https://towardsdatascience.com/non-maximum-suppression-nms-93ce178e177c)
+     * Boxes are kept in order of descending score.
+     *
+     * @param threshold overlap threshold
+     * @param isMethodMin true to divide intersection by area of smaller box, otherwise by union
+     */
+    public void nms(double threshold, boolean isMethodMin) {
+        if (size == 0) {
+            return;
+        }
+        var area = new float[size];
+        for (int i = 0; i < size; i++) {
+            area[i] = (x2[i] - x1[i] + 1) * (y2[i] - y1[i] + 1);
+        }
+        // ascending order of score (stable), box with the highest score is the last one
+        var order = sortedByScore();
+        int remaining = order.length;
+        var picked = new int[size];
+        int pickedSize = 0;
+        while (remaining > 0) {
+            int highest = order[remaining - 1];
+            picked[pickedSize++] = highest;
+            int kept = 0;
+            for (int j = 0; j < remaining - 1; j++) {
+                int other = order[j];
+                float w = Math.max(0, Math.min(x2[highest], x2[other]) - Math.max(x1[highest], x1[other]) + 1);
+                float h = Math.max(0, Math.min(y2[highest], y2[other]) - Math.max(y1[highest], y1[other]) + 1);
+                float interArea = w * h;
+                float overlap = isMethodMin
+                        ? interArea / Math.min(area[highest], area[other])
+                        : interArea / (area[other] + area[highest] - interArea);
+                if (overlap <= threshold) {
+                    order[kept++] = other;
+                }
+            }
+            remaining = kept;
+        }
+        select(Arrays.copyOf(picked, pickedSize));
+    }
+
+    /**
+     * Calibrate boxes by regression
+     */
+    public void regress() {
+        for (int i = 0; i < size; i++) {
+            float w = x2[i] - x1[i];
+            float h = y2[i] - y1[i];
+            int o = i * REG_LENGTH;
+            x1[i] += reg[o] * w;
+            y1[i] += reg[o + 1] * h;
+            x2[i] += reg[o + 2] * w;
+            y2[i] += reg[o + 3] * h;
+        }
+    }
+
+    /**
+     * Move boxes (e.g. from tile to image coordinates)
+     *
+     * @param dx x offset
+     * @param dy y offset
+     */
+    public void translate(float dx, float dy) {
+        for (int i = 0; i < size; i++) {
+            x1[i] += dx;
+            y1[i] += dy;
+            x2[i] += dx;
+            y2[i] += dy;
+        }
+    }
+
+    /**
+     * Scale box coordinates (see MtcnnUtils.scale)
+     *
+     * @param scale scale factor
+     */
+    public void scale(double scale) {
+        for (int i = 0; i < size; i++) {
+            x1[i] = (float) Math.ceil(x1[i] * scale);
+            y1[i] = (float) Math.ceil(y1[i] * scale);
+            x2[i] = (float) Math.ceil(x2[i] * scale);
+            y2[i] = (float) Math.ceil(y2[i] * scale);
+        }
+    }
+
+    /**
+     * Convert boxes to squares clipped by image bounds
+     *
+     * @param imgW image width
+     * @param imgH image height
+     */
+    public void square(double imgW, double imgH) {
+        for (int i = 0; i < size; i++) {
+            float w = x2[i] - x1[i];
+            float h = y2[i] - y1[i];
+            float l = Math.max(w, h);
+            float lossW = (l - w) * 0.5f;
+            float lossH = (l - h) * 0.5f;
+            x1[i] = (float) Math.floor(Math.max(0, x1[i] - lossW));
+            y1[i] = (float) Math.floor(Math.max(0, y1[i] - lossH));
+            x2[i] = (float) Math.floor(Math.min(imgW, x2[i] + lossW));
+            y2[i] = (float) Math.floor(Math.min(imgH, y2[i] + lossH));
+        }
+    }
+
+    /**
+     * Keep boxes at indexes only
+     *
+     * @param indexes indexes of boxes to keep (in order boxes will be stored)
+     */
+    public void select(int[] indexes) {
+        var selected = new BoxSet(indexes.length);
+        for (int index : indexes) {
+            selected.add(x1[index], y1[index], x2[index], y2[index], score[index],
+                    reg[index * REG_LENGTH], reg[index * REG_LENGTH + 1], reg[index * REG_LENGTH + 2], reg[index * REG_LENGTH + 3]);
+        }
+        x1 = selected.x1;
+        y1 = selected.y1;
+        x2 = selected.x2;
+        y2 = selected.y2;
+        score = selected.score;
+        reg = selected.reg;
+        size = selected.size;
+    }
+
+    /**
+     * Keep single dominant box : the largest box of boxes which score is not less than min score
+     * (or box with the highest score if there is no such box)
+     *
+     * @param minScore min score of confident box
+     * @return true if dominant box is confident
+     */
+    public boolean dominant(double minScore) {
+        if (size == 0) {
+            return false;
+        }
+        int dominant = 0;
+        for (int i = 1; i < size; i++) {
+            boolean confident = score[i] >= minScore;
+            if (score[dominant] >= minScore ? confident && area(i) > area(dominant) : confident || score[i] > score[dominant]) {
+                dominant = i;
+            }
+        }
+        select(new int[] { dominant });
+        return score[0] >= minScore;
+    }
+
+    private float area(int box) {
+        return (x2[box] - x1[box]) * (y2[box] - y1[box]);
+    }
+
+    private int[] sortedByScore() {
+        var order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Float.compare(score[a], score[b]));
+        var sorted = new int[size];
+        for (int i = 0; i < size; i++) {
+            sorted[i] = order[i];
+        }
+        return sorted;
+    }
+
+    private void move(int from, int to) {
+        if (from == to) {
+            return;
+        }
+        x1[to] = x1[from];
+        y1[to] = y1[from];
+        x2[to] = x2[from];
+        y2[to] = y2[from];
+        score[to] = score[from];
+        System.arraycopy(reg, from * REG_LENGTH, reg, to * REG_LENGTH, REG_LENGTH);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= x1.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, x1.length * 2);
+        x1 = Arrays.copyOf(x1, newCapacity);
+        y1 = Arrays.copyOf(y1, newCapacity);
+        x2 = Arrays.copyOf(x2, newCapacity);
+        y2 = Arrays.copyOf(y2, newCapacity);
+        score = Arrays.copyOf(score, newCapacity);
+        reg = Arrays.copyOf(reg, newCapacity * REG_LENGTH);
+    }
+}
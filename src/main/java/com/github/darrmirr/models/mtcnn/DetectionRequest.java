@@ -0,0 +1,117 @@
+package com.github.darrmirr.models.mtcnn;
+
+import com.github.darrmirr.utils.BoundBox;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Constraints of face detection request
+ *
+ * Expected face size range and regions of interest (ROI) are set in coordinates of image faces are detected in.
+ * If face size range is not set, default min face size is applied to image downscaled for detection
+ * (as it is for detection without request), so pyramid of request without face size range is not changed.
+ * Image pyramid of propose net is built for expected face sizes only
+ * and propose net is evaluated at regions of interest only (instead of the whole image).
+ * Single face request detects dominant face only (e.g. face of enrollment image).
+ * Request with deadline skips image pyramid scales that do not fit into time left (see Mtcnn.detect).
+ */
+@AllArgsConstructor
+@Getter
+public class DetectionRequest {
+    public static final int DEFAULT_MIN_FACE_SIZE = 20;
+    // min face size propose net (12 x 12 kernel) detects without image upsampling
+    private static final int MIN_DETECTABLE_FACE_SIZE = 12;
+    private static final DetectionRequest DEFAULT = new DetectionRequest(DEFAULT_MIN_FACE_SIZE, 0, false, List.of(), false, null);
+    private final int minFaceSize;
+    /** max face size (0 means no limit) */
+    private final int maxFaceSize;
+    /** face size range is set by withFaceSize (otherwise it is not converted to coordinates of scaled image) */
+    private final boolean faceSizeSet;
+    /** regions of interest (empty list means the whole image) */
+    private final List<BoundBox> regions;
+    /** detect the largest confident face only */
+    private final boolean singleFace;
+    /** deadline of detection in terms of System.nanoTime (null means no deadline) */
+    private final Long deadline;
+
+    /**
+     * @return request without constraints (faces of default min size and larger at the whole image)
+     */
+    public static DetectionRequest create() {
+        return DEFAULT;
+    }
+
+    /**
+     * @param minFaceSize min face size
+     * @param maxFaceSize max face size (0 means no limit)
+     * @return request with expected face size range
+     */
+    public DetectionRequest withFaceSize(int minFaceSize, int maxFaceSize) {
+        if (minFaceSize <= 0 || (maxFaceSize > 0 && maxFaceSize < minFaceSize)) {
+            throw new IllegalArgumentException("invalid face size range : " + minFaceSize + " - " + maxFaceSize);
+        }
+        return new DetectionRequest(minFaceSize, maxFaceSize, true, regions, singleFace, deadline);
+    }
+
+    /**
+     * @param regions regions of interest (faces are searched inside them)
+     * @return request with regions of interest
+     */
+    public DetectionRequest withRegions(List<BoundBox> regions) {
+        return new DetectionRequest(minFaceSize, maxFaceSize, faceSizeSet, List.copyOf(regions), singleFace, deadline);
+    }
+
+    /**
+     * @return request of the largest confident face only
+     */
+    public DetectionRequest withSingleFace() {
+        return new DetectionRequest(minFaceSize, maxFaceSize, faceSizeSet, regions, true, deadline);
+    }
+
+    /**
+     * @param timeout time budget of detection (it starts now, so time request waits for execution is counted too)
+     * @return request with deadline
+     */
+    public DetectionRequest withTimeout(Duration timeout) {
+        return new DetectionRequest(minFaceSize, maxFaceSize, faceSizeSet, regions, singleFace, System.nanoTime() + timeout.toNanos());
+    }
+
+    /**
+     * @return true if request constrains coordinates of faces (face size range or regions of interest),
+     *         single face and deadline requests are not constrained
+     */
+    public boolean isConstrained() {
+        return faceSizeSet || !regions.isEmpty();
+    }
+
+    /**
+     * Convert request to coordinates of scaled image
+     * Face size range is converted only if it is set, min face size is not less than face size propose net is able to detect.
+     *
+     * @param scale ratio of scaled image size to image size
+     * @return request at scaled image
+     */
+    public DetectionRequest scale(double scale) {
+        if (scale == 1) {
+            return this;
+        }
+        var scaledRegions = new ArrayList<BoundBox>(regions.size());
+        for (BoundBox region : regions) {
+            scaledRegions.add(new BoundBox(
+                    (int) Math.floor(region.x1 * scale),
+                    (int) Math.floor(region.y1 * scale),
+                    (int) Math.ceil(region.x2 * scale),
+                    (int) Math.ceil(region.y2 * scale)));
+        }
+        if (!faceSizeSet) {
+            return new DetectionRequest(minFaceSize, maxFaceSize, false, scaledRegions, singleFace, deadline);
+        }
+        int scaledMinFaceSize = Math.max(MIN_DETECTABLE_FACE_SIZE, (int) Math.floor(minFaceSize * scale));
+        int scaledMaxFaceSize = maxFaceSize > 0 ? Math.max(scaledMinFaceSize, (int) Math.ceil(maxFaceSize * scale)) : 0;
+        return new DetectionRequest(scaledMinFaceSize, scaledMaxFaceSize, true, scaledRegions, singleFace, deadline);
+    }
+}
@@ -0,0 +1,22 @@
+package com.github.darrmirr.models.mtcnn;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * Faces detected within deadline of detection request
+ *
+ * Result is partial if some image pyramid scales are skipped to meet deadline :
+ * faces of sizes these scales detect (the smallest faces) may be missed.
+ *
+ * @param <T> face type (bound box or face image)
+ */
+@AllArgsConstructor
+@Getter
+public class DetectionResult<T> {
+    private final List<T> faces;
+    private final boolean partial;
+    private final int skippedScales;
+}
@@ -4,18 +4,28 @@ import com.github.darrmirr.models.mtcnn.networks.OutputNet;
 import com.github.darrmirr.models.mtcnn.networks.ProposeNet;
 import com.github.darrmirr.models.mtcnn.networks.RefineNet;
 import com.github.darrmirr.utils.BoundBox;
+import com.github.darrmirr.utils.FullResolutionImage;
 import com.github.darrmirr.utils.Nd4jUtils;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import java.util.Collections;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
+import static org.nd4j.linalg.indexing.NDArrayIndex.all;
+import static org.nd4j.linalg.indexing.NDArrayIndex.interval;
+
 @Component
 public class Mtcnn {
     private static final Logger logger = LoggerFactory.getLogger(Mtcnn.class);
@@ -25,13 +35,55 @@ public class Mtcnn {
     private MtcnnUtils mtcnnUtils;
     private double thresholds[] = { 0.6, 0.7, 0.7 };
     private int optimizedScaleSize = 600;
+    private boolean tiling;
+    private int tileSize;
+    private int tileOverlap;
+    private int minTiledImageSize;
+    private double singleFaceMinScore;
+    private long deadlineReserveNanos;
+    // metrics of deadline-aware detection
+    private final AtomicLong partialDetections = new AtomicLong();
+    private final AtomicLong skippedScales = new AtomicLong();
+    private ForkJoinPool tilePool;
 
     @Autowired
-    public Mtcnn(ProposeNet proposeNet, RefineNet refineNet, OutputNet outputNet, MtcnnUtils mtcnnUtils) {
+    public Mtcnn(ProposeNet proposeNet, RefineNet refineNet, OutputNet outputNet, MtcnnUtils mtcnnUtils,
+                 @Value("${mtcnn.tiling.enabled:false}") boolean tiling,
+                 @Value("${mtcnn.tiling.tile-size:600}") int tileSize,
+                 @Value("${mtcnn.tiling.overlap:100}") int tileOverlap,
+                 @Value("${mtcnn.tiling.min-image-size:1800}") int minTiledImageSize,
+                 @Value("${mtcnn.tiling.parallelism:0}") int tileParallelism,
+                 @Value("${mtcnn.single-face.min-score:0.95}") double singleFaceMinScore,
+                 @Value("${mtcnn.deadline.reserve-ms:20}") long deadlineReserveMillis) {
         this.proposeNet = proposeNet;
         this.refineNet = refineNet;
         this.outputNet = outputNet;
         this.mtcnnUtils = mtcnnUtils;
+        this.tiling = tiling;
+        this.tileSize = tileSize;
+        this.tileOverlap = tileOverlap;
+        this.minTiledImageSize = minTiledImageSize;
+        this.singleFaceMinScore = singleFaceMinScore;
+        this.deadlineReserveNanos = TimeUnit.MILLISECONDS.toNanos(deadlineReserveMillis);
+        if (tiling) {
+            tilePool = new ForkJoinPool(tileParallelism > 0 ? tileParallelism : Runtime.getRuntime().availableProcessors());
+            logger.info("tiled face detection of images larger than {} : tile size {}, tile parallelism {}",
+                    minTiledImageSize, tileSize, tilePool.getParallelism());
+        }
+    }
+
+    public Mtcnn(ProposeNet proposeNet, RefineNet refineNet, OutputNet outputNet, MtcnnUtils mtcnnUtils) {
+        this(proposeNet, refineNet, outputNet, mtcnnUtils, false, 600, 100, 1800, 0, 0.95, 20);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (partialDetections.get() > 0) {
+            logger.info("deadline-aware detection : partial detections {}, skipped scales {}", partialDetections.get(), skippedScales.get());
+        }
+        if (tilePool != null) {
+            tilePool.shutdown();
+        }
     }
 
     /**
@@ -43,32 +95,363 @@ public class Mtcnn {
      * @return bounded boxes
      */
     public List<BoundBox> detectFaces(INDArray img) {
+        return detectFaces(img, DetectionRequest.create());
+    }
+
+    /**
+     * Detect faces of expected sizes inside regions of interest
+     * Tiled detection is applied to requests without constraints only.
+     *
+     * @param img input image to detect faces in it
+     * @param request detection request (in coordinates of input image)
+     * @return bounded boxes
+     */
+    public List<BoundBox> detectFaces(INDArray img, DetectionRequest request) {
+        if (request.isSingleFace()) {
+            return detectSingleFace(img, request);
+        }
+        if (request.getDeadline() != null) {
+            return detectWithinDeadline(img, request).getFaces();
+        }
+        if (isTiled(request, (int) Math.max(img.shape()[2], img.shape()[3]))) {
+            return detectFacesTiled(img);
+        }
         logger.debug("detectFaces : started");
-        var scaledImage = Nd4jUtils.scale(img, optimizedScaleSize);
-        var boundBoxes = Optional
-                .ofNullable(scaledImage)
-                .map(image ->
-                        proposeNet.execute(image, thresholds[0]))
-                .map(proposeBoxes ->
-                        refineNet.execute(scaledImage, proposeBoxes, thresholds[1]))
-                .map(refinedProposeBoxes ->
-                        outputNet.execute(scaledImage, refinedProposeBoxes, thresholds[2]))
-                .map(BoundBox::create)
-                .orElse(Collections.emptyList());
+        var scaledImage = scale(img);
+        var boxes = output(scaledImage, refine(scaledImage, propose(scaledImage, scale(img, scaledImage, request))));
 
         //        var newImageMatrix = imageUtils.drawBoundBox(boundBox, imageMatrix);
         //        imageUtils.toFile(newImageMatrix, "jpg", image.getName());
 
+        var boundBoxes = toBoundBoxes(img, boxes);
+        logger.debug("detectFaces : finished");
+        return boundBoxes;
+    }
+
+    /**
+     * Detect faces and report whether detection is partial
+     *
+     * @param img input image to detect faces in it
+     * @param request detection request (in coordinates of input image)
+     * @return bounded boxes (partial if request deadline caused image pyramid scales to be skipped)
+     */
+    public DetectionResult<BoundBox> detect(INDArray img, DetectionRequest request) {
+        if (request.getDeadline() != null && !request.isSingleFace()) {
+            return detectWithinDeadline(img, request);
+        }
+        return new DetectionResult<>(detectFaces(img, request), false, 0);
+    }
+
+    /**
+     * Deadline-aware (anytime) face detection
+     *
+     * Image pyramid is evaluated from coarse scales (large faces, the cheapest scales) to fine ones.
+     * Time of next scale is estimated by time per pixel of scales evaluated so far. Next scale and all finer ones
+     * are skipped if its estimated time and time reserved for refine and output nets do not fit into time left.
+     * Faces found at evaluated scales pass refine and output nets as usual (at least one scale is evaluated).
+     * Deadline does not change image pyramid, so detection within generous deadline equals detection without it.
+     *
+     * @param img input image to detect faces in it
+     * @param request detection request with deadline (in coordinates of input image)
+     * @return bounded boxes (partial if scales are skipped)
+     */
+    public DetectionResult<BoundBox> detectWithinDeadline(INDArray img, DetectionRequest request) {
+        logger.debug("detectWithinDeadline : started");
+        long deadline = request.getDeadline();
+        var scaledImage = scale(img);
+        var scaledRequest = scale(img, scaledImage, request);
+        var scales = proposeNet.getScales(scaledImage, scaledRequest);
+        var scaleBoxes = new BoxSet[scales.length];
+        double evaluatedPixels = 0;
+        long evaluatedNanos = 0;
+        int skipped = 0;
+        for (int i = scales.length - 1; i >= 0; i--) {
+            double pixels = Math.ceil(scaledImage.shape()[2] * scales[i]) * Math.ceil(scaledImage.shape()[3] * scales[i]);
+            long started = System.nanoTime();
+            if (evaluatedPixels > 0 && deadline - started < pixels * evaluatedNanos / evaluatedPixels + deadlineReserveNanos) {
+                skipped = i + 1;
+                break;
+            }
+            scaleBoxes[i] = proposeNet.evaluate(scaledImage, thresholds[0], scaledRequest, new double[] { scales[i] });
+            evaluatedNanos += System.nanoTime() - started;
+            evaluatedPixels += pixels;
+        }
+        // boxes are merged in order of scales (as if all scales are evaluated at once)
+        var proposeBoxes = new BoxSet();
+        for (BoxSet boxes : scaleBoxes) {
+            if (boxes != null) {
+                proposeBoxes.addAll(boxes);
+            }
+        }
+        proposeNet.merge(scaledImage, proposeBoxes);
+        var boxes = output(scaledImage, refine(scaledImage, proposeBoxes));
+        if (skipped > 0) {
+            partialDetections.incrementAndGet();
+            skippedScales.addAndGet(skipped);
+            logger.debug("detectWithinDeadline : {} of {} scales are skipped", skipped, scales.length);
+        }
+        logger.debug("detectWithinDeadline : finished");
+        return new DetectionResult<>(toBoundBoxes(img, boxes), skipped > 0, skipped);
+    }
+
+    /**
+     * @return amount of detections that skipped image pyramid scales to meet request deadline
+     */
+    public long getPartialDetections() {
+        return partialDetections.get();
+    }
+
+    /**
+     * @return total amount of image pyramid scales skipped to meet request deadlines
+     */
+    public long getSkippedScales() {
+        return skippedScales.get();
+    }
+
+    /**
+     * Detect dominant face only
+     *
+     * Image pyramid is evaluated scale by scale from coarse scales (large faces) to fine ones,
+     * every scale passes all stages. Detection stops at the first scale which gives face with O-Net score
+     * not less than min score, so fine scales (the most expensive ones) are skipped for image of large face.
+     * The largest confident face is returned (or the most confident one if there is no confident face).
+     *
+     * @param img input image to detect face in it
+     * @param request detection request (in coordinates of input image)
+     * @return bounded box of dominant face (empty list if no face is detected)
+     */
+    public List<BoundBox> detectSingleFace(INDArray img, DetectionRequest request) {
+        logger.debug("detectSingleFace : started");
+        var scaledImage = scale(img);
+        var scaledRequest = scale(img, scaledImage, request);
+        var scales = proposeNet.getScales(scaledImage, scaledRequest);
+        var face = new BoxSet();
+        for (int i = scales.length - 1; i >= 0; i--) {
+            var proposeBoxes = proposeNet.execute(scaledImage, thresholds[0], scaledRequest, new double[] { scales[i] });
+            face.addAll(output(scaledImage, refine(scaledImage, proposeBoxes)));
+            if (face.dominant(singleFaceMinScore)) {
+                logger.debug("detectSingleFace : confident face is found, {} of {} scales are skipped", i, scales.length);
+                break;
+            }
+        }
+        var boundBoxes = toBoundBoxes(img, face);
+        logger.debug("detectSingleFace : finished");
+        return boundBoxes;
+    }
+
+    /**
+     * Downscale image to size faces are detected at
+     *
+     * @param img input image
+     * @return image which larger side is not greater than optimized scale size
+     */
+    public INDArray scale(INDArray img) {
+        return Nd4jUtils.scale(img, optimizedScaleSize);
+    }
+
+    /**
+     * Stage 1 - propose net
+     *
+     * @param scaledImage image returned by scale method
+     * @return face candidates
+     */
+    public BoxSet propose(INDArray scaledImage) {
+        return propose(scaledImage, DetectionRequest.create());
+    }
+
+    /**
+     * Stage 1 - propose net constrained by detection request
+     *
+     * @param scaledImage image returned by scale method
+     * @param scaledRequest detection request in coordinates of scaled image
+     * @return face candidates
+     */
+    public BoxSet propose(INDArray scaledImage, DetectionRequest scaledRequest) {
+        return scaledImage == null ? new BoxSet() : proposeNet.execute(scaledImage, thresholds[0], scaledRequest);
+    }
+
+    /**
+     * Convert detection request to coordinates of scaled image
+     *
+     * @param img input image
+     * @param scaledImage image returned by scale method
+     * @param request detection request in coordinates of input image
+     * @return detection request in coordinates of scaled image
+     */
+    public DetectionRequest scale(INDArray img, INDArray scaledImage, DetectionRequest request) {
+        if (scaledImage == null || !request.isConstrained()) {
+            return request;
+        }
+        return request.scale((double) Math.max(scaledImage.shape()[2], scaledImage.shape()[3]) / Math.max(img.shape()[2], img.shape()[3]));
+    }
+
+    /**
+     * Stage 2 - refine net
+     *
+     * @param scaledImage image returned by scale method
+     * @param proposeBoxes face candidates of stage 1
+     * @return face candidates
+     */
+    public BoxSet refine(INDArray scaledImage, BoxSet proposeBoxes) {
+        return proposeBoxes.isEmpty() ? proposeBoxes : refineNet.execute(scaledImage, proposeBoxes, thresholds[1]);
+    }
+
+    /**
+     * Stage 3 - output net
+     *
+     * @param scaledImage image returned by scale method
+     * @param refinedProposeBoxes face candidates of stage 2
+     * @return face bounding boxes
+     */
+    public BoxSet output(INDArray scaledImage, BoxSet refinedProposeBoxes) {
+        return refinedProposeBoxes.isEmpty() ? refinedProposeBoxes : outputNet.execute(scaledImage, refinedProposeBoxes, thresholds[2]);
+    }
+
+    /**
+     * Convert face bounding boxes of scaled image to input image coordinates
+     *
+     * @param img input image
+     * @param boxes face bounding boxes of stage 3
+     * @return bounded boxes
+     */
+    public List<BoundBox> toBoundBoxes(INDArray img, BoxSet boxes) {
+        var boundBoxes = boxes.toBoundBoxes();
         int originalHeight = (int) img.shape()[2];
         int originalWidth = (int) img.shape()[3];
         if(originalHeight > optimizedScaleSize || originalWidth > optimizedScaleSize) {
             var scale = originalHeight > originalWidth ? (double) originalHeight / optimizedScaleSize : (double) originalWidth / optimizedScaleSize;
             boundBoxes = reScale(boundBoxes, scale, originalHeight, originalWidth);
         }
-        logger.debug("detectFaces : finished");
         return boundBoxes;
     }
 
+    /**
+     * @param request detection request
+     * @param imageSize larger side of image at full resolution
+     * @return true if faces of request are detected by tiled detection
+     *         (single face, deadline and other constrained requests are not)
+     */
+    public boolean isTiled(DetectionRequest request, int imageSize) {
+        return tiling && !request.isSingleFace() && request.getDeadline() == null && !request.isConstrained()
+                && imageSize >= minTiledImageSize;
+    }
+
+    /**
+     * Tiled face detection of very large image
+     *
+     * Large faces are detected at image downscaled to optimized scale size (as usual).
+     * Small faces are detected at overlapping tiles of image at full resolution:
+     * tiles are cropped and evaluated by tile pool, so memory of tile evaluation is proportional to tile size
+     * and pool parallelism. Boxes are translated to image coordinates and duplicates of overlapping tiles
+     * are suppressed by global NMS.
+     *
+     * notice: input image itself is float array at full resolution, see detectFacesTiled(INDArray, FullResolutionImage)
+     *
+     * @param img input image to detect faces in it
+     * @return bounded boxes
+     */
+    public List<BoundBox> detectFacesTiled(INDArray img) {
+        return detectFacesTiled(scale(img), (int) img.shape()[2], (int) img.shape()[3],
+                tile -> img.get(all(), all(), interval(tile.y1, tile.y2), interval(tile.x1, tile.x2)).dup());
+    }
+
+    /**
+     * Tiled face detection of very large image kept at full resolution as 8-bit pixels
+     * Only tiles are converted to float arrays, so float arrays are proportional to tile size instead of image size
+     * (8-bit pixels of the whole image are the only memory proportional to image size).
+     *
+     * @param img input image downscaled during decode
+     * @param fullResolution input image at full resolution
+     * @return bounded boxes (in coordinates of image at full resolution)
+     */
+    public List<BoundBox> detectFacesTiled(INDArray img, FullResolutionImage fullResolution) {
+        return detectFacesTiled(scale(img), fullResolution.getHeight(), fullResolution.getWidth(), fullResolution::crop);
+    }
+
+    /**
+     * @param scaledImage image downscaled to optimized scale size
+     * @param height height of image at full resolution
+     * @param width width of image at full resolution
+     * @param tiles tile (region of image at full resolution) to its pixels
+     * @return bounded boxes
+     */
+    private List<BoundBox> detectFacesTiled(INDArray scaledImage, int height, int width, Function<BoundBox, INDArray> tiles) {
+        logger.debug("detectFacesTiled : started");
+        var boxes = output(scaledImage, refine(scaledImage, propose(scaledImage)));
+        double scale = (double) Math.max(height, width) / Math.max(scaledImage.shape()[2], scaledImage.shape()[3]);
+        boxes.scale(scale);
+
+        // face that is not detected at downscaled image (smaller than min size * scale) should fit into tiles overlap
+        int overlap = Math.min(tileSize / 2, Math.max(tileOverlap, (int) Math.ceil(proposeNet.getMinSize() * scale)));
+        // faces larger than overlap are detected at downscaled image, so tile pyramid ends next to scale of overlap
+        // (the next scale is margin of faces at the border of min size of downscaled image)
+        var tileRequest = DetectionRequest.create().withFaceSize(DetectionRequest.DEFAULT_MIN_FACE_SIZE, overlap);
+        var tileTasks = new ArrayList<ForkJoinTask<BoxSet>>();
+        for (int y : tileOffsets(height, overlap)) {
+            for (int x : tileOffsets(width, overlap)) {
+                var tile = new BoundBox(x, y, Math.min(x + tileSize, width), Math.min(y + tileSize, height));
+                tileTasks.add(ForkJoinTask.adapt(() -> detectTile(tiles.apply(tile), tile, tileRequest)));
+            }
+        }
+        logger.debug("detectFacesTiled : {} tiles of size {}, overlap {}", tileTasks.size(), tileSize, overlap);
+        tilePool.submit(() -> ForkJoinTask.invokeAll(tileTasks)).join();
+        // boxes are merged in order of tiles, so result does not depend on tile evaluation order
+        for (ForkJoinTask<BoxSet> tileTask : tileTasks) {
+            boxes.addAll(tileTask.join());
+        }
+        boxes.nms(0.7, true);
+
+        var boundBoxes = boxes.toBoundBoxes();
+        boundBoxes.forEach(box -> {
+            box.sourceHeight = height;
+            box.sourceWidth = width;
+        });
+        logger.debug("detectFacesTiled : finished");
+        return boundBoxes;
+    }
+
+    private BoxSet detectTile(INDArray tileImage, BoundBox tile, DetectionRequest tileRequest) {
+        var boxes = output(tileImage, refine(tileImage, propose(tileImage, tileRequest)));
+        boxes.translate(tile.x1, tile.y1);
+        return boxes;
+    }
+
+    /**
+     * @param length image length (height or width)
+     * @param overlap overlap of adjacent tiles
+     * @return offsets of tiles which cover image length
+     */
+    private List<Integer> tileOffsets(int length, int overlap) {
+        var offsets = new ArrayList<Integer>();
+        for (int offset = 0; ; offset += tileSize - overlap) {
+            if (offset + tileSize >= length) {
+                offsets.add(Math.max(0, length - tileSize));
+                return offsets;
+            }
+            offsets.add(offset);
+        }
+    }
+
+    public int getOptimizedScaleSize() {
+        return optimizedScaleSize;
+    }
+
+    /**
+     * @return min size of image larger side image is downscaled to during decode (0 means no downscale)
+     */
+    public int getDecodeSize() {
+        return optimizedScaleSize;
+    }
+
+    /**
+     * Tiled detection requires image at full resolution, so it is kept for images of tiled detection only
+     *
+     * @return min size of image larger side image is kept at full resolution during decode (0 means never)
+     */
+    public int getFullResolutionSize() {
+        return tiling ? minTiledImageSize : 0;
+    }
+
     private List<BoundBox> reScale(List<BoundBox> boundBoxes, double scale, int originalHeight, int originalWidth){
         return boundBoxes
                 .stream()
@@ -80,4 +463,4 @@ public class Mtcnn {
                 })
                 .collect(Collectors.toList());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,295 @@
+package com.github.darrmirr.models.mtcnn;
+
+import com.github.darrmirr.utils.BoundBox;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+
+/**
+ * Face detection of image stream where MTCNN stages of different images are performed concurrently
+ *
+ * Every stage (propose, refine and output net) is performed by its own worker threads.
+ * Stages hand images over by bounded queues : image i + 1 is at propose net while image i is at refine net
+ * and image i - 1 is at output net. Reading of image stream is blocked while the first queue is full.
+ * Results are passed to consumer in order of input images.
+ *
+ * Statistics of every stage are returned to find bottleneck stage : stage with the highest utilization
+ * (share of time its workers are busy) limits throughput and should get more workers.
+ * Busy time is time of stage task only : time worker is blocked by full queue of the next stage is not counted,
+ * so stage that waits for slow next stage has low utilization.
+ *
+ * FaceNet is not a stage of this pipeline : MTCNN package does not depend on FaceNet model and pipeline returns
+ * bounded boxes only, while faces are cropped and their features are extracted by FaceDetector
+ * (see FaceDetector.extractFeatures). Consumer is called in caller thread, so consumer that extracts features
+ * of image i works as FaceNet stage performed while MTCNN stages process next images.
+ */
+@Component
+public class MtcnnPipeline {
+    private static final Logger logger = LoggerFactory.getLogger(MtcnnPipeline.class);
+    private static final Detection END = new Detection(-1, null);
+    private Mtcnn mtcnn;
+    private int proposeWorkers;
+    private int refineWorkers;
+    private int outputWorkers;
+    private int queueCapacity;
+
+    @Autowired
+    public MtcnnPipeline(Mtcnn mtcnn,
+                         @Value("${mtcnn.pipeline.propose-workers:1}") int proposeWorkers,
+                         @Value("${mtcnn.pipeline.refine-workers:1}") int refineWorkers,
+                         @Value("${mtcnn.pipeline.output-workers:1}") int outputWorkers,
+                         @Value("${mtcnn.pipeline.queue-capacity:4}") int queueCapacity) {
+        this.mtcnn = mtcnn;
+        this.proposeWorkers = proposeWorkers;
+        this.refineWorkers = refineWorkers;
+        this.outputWorkers = outputWorkers;
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Detect faces in every image
+     *
+     * @param images input images
+     * @return bounded boxes of every image (in order of input images)
+     */
+    public List<List<BoundBox>> detectFaces(List<INDArray> images) {
+        var results = new ArrayList<List<BoundBox>>(images.size());
+        var statistics = detectFaces(images.stream(), results::add);
+        statistics.forEach(stage -> logger.info("{}", stage));
+        return results;
+    }
+
+    /**
+     * Detect faces in image stream
+     *
+     * @param images input images
+     * @param consumer consumer of bounded boxes of every image (it is called in order of input images)
+     * @return statistics of every stage
+     */
+    public List<StageStatistics> detectFaces(Stream<INDArray> images, Consumer<List<BoundBox>> consumer) {
+        BlockingQueue<Detection> proposeQueue = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Detection> refineQueue = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Detection> outputQueue = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Detection> resultQueue = new ArrayBlockingQueue<>(queueCapacity);
+        var error = new AtomicReference<RuntimeException>();
+        long started = System.nanoTime();
+        var stages = List.of(
+                new Stage("propose net", proposeWorkers, proposeQueue, refineQueue, error, detection -> {
+                    detection.scaledImage = mtcnn.scale(detection.image);
+                    detection.boxes = mtcnn.propose(detection.scaledImage);
+                    return detection;
+                }),
+                new Stage("refine net", refineWorkers, refineQueue, outputQueue, error, detection -> {
+                    detection.boxes = mtcnn.refine(detection.scaledImage, detection.boxes);
+                    return detection;
+                }),
+                new Stage("output net", outputWorkers, outputQueue, resultQueue, error, detection -> {
+                    detection.result = mtcnn.toBoundBoxes(detection.image, mtcnn.output(detection.scaledImage, detection.boxes));
+                    detection.image = null;
+                    detection.scaledImage = null;
+                    detection.boxes = null;
+                    return detection;
+                }));
+        stages.forEach(Stage::start);
+        var feeder = new Thread(() -> feed(images.iterator(), proposeQueue, error), "mtcnn-pipeline-feeder");
+        feeder.start();
+        collect(resultQueue, consumer, error);
+        long elapsed = System.nanoTime() - started;
+        var statistics = new ArrayList<StageStatistics>();
+        for (Stage stage : stages) {
+            statistics.add(stage.statistics(elapsed));
+        }
+        if (error.get() != null) {
+            throw error.get();
+        }
+        return statistics;
+    }
+
+    private void feed(Iterator<INDArray> images, BlockingQueue<Detection> queue, AtomicReference<RuntimeException> error) {
+        try {
+            for (int index = 0; images.hasNext() && error.get() == null; index++) {
+                queue.put(new Detection(index, images.next()));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            error.compareAndSet(null, e);
+        } finally {
+            putEnd(queue);
+        }
+    }
+
+    /**
+     * Pass results to consumer in order of input images
+     * Results of images that are finished before previous images are kept until previous images are finished.
+     */
+    private void collect(BlockingQueue<Detection> queue, Consumer<List<BoundBox>> consumer, AtomicReference<RuntimeException> error) {
+        var finished = new HashMap<Integer, List<BoundBox>>();
+        int next = 0;
+        try {
+            for (var detection = queue.take(); detection != END; detection = queue.take()) {
+                finished.put(detection.index, detection.result);
+                for (var result = finished.remove(next); result != null; result = finished.remove(next)) {
+                    if (error.get() == null) {
+                        consumer.accept(result);
+                    }
+                    next++;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            error.compareAndSet(null, new IllegalStateException("face detection pipeline is interrupted", e));
+        } catch (RuntimeException e) {
+            error.compareAndSet(null, e);
+            // drain queue until workers are finished
+            drain(queue);
+        }
+    }
+
+    private static void drain(BlockingQueue<Detection> queue) {
+        try {
+            while (queue.take() != END) {
+                // skip result
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void putEnd(BlockingQueue<Detection> queue) {
+        try {
+            queue.put(END);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Image that passes pipeline stages
+     */
+    private static class Detection {
+        private final int index;
+        private INDArray image;
+        private INDArray scaledImage;
+        private BoxSet boxes;
+        private List<BoundBox> result;
+
+        private Detection(int index, INDArray image) {
+            this.index = index;
+            this.image = image;
+        }
+    }
+
+    /**
+     * Workers of pipeline stage
+     * The last finished worker of stage passes end of stream to the next stage.
+     */
+    private static class Stage {
+        private final String name;
+        private final int workers;
+        private final BlockingQueue<Detection> input;
+        private final BlockingQueue<Detection> output;
+        private final AtomicReference<RuntimeException> error;
+        private final UnaryOperator<Detection> task;
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicLong busyNanos = new AtomicLong();
+        private final AtomicLong images = new AtomicLong();
+
+        private Stage(String name, int workers, BlockingQueue<Detection> input, BlockingQueue<Detection> output,
+                      AtomicReference<RuntimeException> error, UnaryOperator<Detection> task) {
+            this.name = name;
+            this.workers = Math.max(workers, 1);
+            this.input = input;
+            this.output = output;
+            this.error = error;
+            this.task = task;
+        }
+
+        private void start() {
+            running.set(workers);
+            for (int i = 0; i < workers; i++) {
+                var thread = new Thread(this::work, "mtcnn-pipeline-" + name.replace(' ', '-') + "-" + i);
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+
+        private void work() {
+            try {
+                for (var detection = input.take(); detection != END; detection = input.take()) {
+                    if (error.get() != null) {
+                        // skip images after error, but keep stream going to its end
+                        continue;
+                    }
+                    Detection processed;
+                    long started = System.nanoTime();
+                    try {
+                        processed = task.apply(detection);
+                    } catch (RuntimeException e) {
+                        error.compareAndSet(null, e);
+                        continue;
+                    } finally {
+                        busyNanos.addAndGet(System.nanoTime() - started);
+                        images.incrementAndGet();
+                    }
+                    // time worker waits for free space at queue of the next stage is idle time (not busy time)
+                    output.put(processed);
+                }
+                // pass end of stream to other workers of stage
+                input.put(END);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                error.compareAndSet(null, new IllegalStateException("face detection pipeline is interrupted", e));
+            } finally {
+                if (running.decrementAndGet() == 0) {
+                    input.clear();
+                    putEnd(output);
+                }
+            }
+        }
+
+        private StageStatistics statistics(long elapsedNanos) {
+            double utilization = elapsedNanos == 0 ? 0 : (double) busyNanos.get() / elapsedNanos / workers;
+            return new StageStatistics(name, workers, images.get(), busyNanos.get() / 1_000_000, utilization);
+        }
+    }
+
+    /**
+     * Statistics of pipeline stage
+     * Utilization is share of elapsed time workers of stage are busy (1.0 means workers are never idle).
+     */
+    @AllArgsConstructor
+    @Getter
+    public static class StageStatistics {
+        private final String stage;
+        private final int workers;
+        private final long images;
+        private final long busyMillis;
+        private final double utilization;
+
+        @Override
+        public String toString() {
+            return String.format("%s : workers %d, images %d, busy %d ms, utilization %.1f%%",
+                    stage, workers, images, busyMillis, utilization * 100);
+        }
+    }
+}
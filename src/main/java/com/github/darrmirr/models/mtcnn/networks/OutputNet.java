@@ -1,18 +1,20 @@
 package com.github.darrmirr.models.mtcnn.networks;
 
+import com.github.darrmirr.concurrent.InferenceLimiter;
+import com.github.darrmirr.models.mtcnn.BoxSet;
 import com.github.darrmirr.models.mtcnn.MtcnnUtils;
 import com.github.darrmirr.models.mtcnn.networks.dl4j.OutputNetModel;
-import com.github.darrmirr.utils.Nd4jUtils;
 import org.deeplearning4j.nn.graph.ComputationGraph;
 import org.nd4j.linalg.api.ndarray.INDArray;
-import org.nd4j.linalg.indexing.conditions.Conditions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
 import java.io.IOException;
+import java.util.function.Function;
 
 import static org.nd4j.linalg.indexing.NDArrayIndex.all;
 import static org.nd4j.linalg.indexing.NDArrayIndex.point;
@@ -22,21 +24,36 @@ public class OutputNet {
     private static final Logger logger = LoggerFactory.getLogger(OutputNet.class);
     private OutputNetModel outputNetModel;
     private ComputationGraph graph;
+    private StageBatching stageBatching;
+    private Function<INDArray, INDArray[]> inference;
+    private int maxCandidates;
+    private int batchSize;
     private MtcnnUtils mtcnnUtils;
 
     @Autowired
-    public OutputNet(OutputNetModel outputNetModel, MtcnnUtils mtcnnUtils) {
+    public OutputNet(OutputNetModel outputNetModel, MtcnnUtils mtcnnUtils, StageBatching stageBatching,
+                     @Value("${mtcnn.output.max-candidates:128}") int maxCandidates,
+                     @Value("${mtcnn.output.batch-size:32}") int batchSize) {
         this.outputNetModel = outputNetModel;
         this.mtcnnUtils = mtcnnUtils;
+        this.stageBatching = stageBatching;
+        this.maxCandidates = maxCandidates;
+        this.batchSize = batchSize;
+    }
+
+    public OutputNet(OutputNetModel outputNetModel, MtcnnUtils mtcnnUtils, InferenceLimiter inferenceLimiter) {
+        this(outputNetModel, mtcnnUtils, new StageBatching(inferenceLimiter), 128, 32);
     }
 
     @PostConstruct
     public void init() throws IOException {
         graph = outputNetModel.getGraph();
+        inference = stageBatching.inference("output", graph);
     }
 
     /**
      * Stage 3:
+     * 00. Keep boxes with the highest scores only (max candidates)
      * 01. Pad out-of-bound boxes
      * 02. Feed scaled images into O-Net
      * 03. Gather O-Net output
@@ -47,29 +64,29 @@ public class OutputNet {
      * @param img input image to find proposal faces
      * @param totalBoxes bouncing boxes retrieve from stage 2 (refine-net)
      * @param threshold threshold for bounding box with low confidence
-     * @return array of bounding box face in image
+     * @return bounding box face in image
      */
-    public INDArray execute(INDArray img, INDArray totalBoxes, double threshold) {
+    public BoxSet execute(INDArray img, BoxSet totalBoxes, double threshold) {
         logger.debug("output net : started");
-        INDArray onetInput = mtcnnUtils.transposeBorder(mtcnnUtils.reshapeAndNorm(img, totalBoxes, 48));
-        // 02. Feed scaled images into O-Net
-        INDArray onetOut[] = graph.output(onetInput);
-        // 03. Gather O-Net output
-        var score = onetOut[0].get(all(), point(1)).transposei();
-        var reg = onetOut[1];
-        // 04. Find indices of bounding boxes with high confidence
-        var ipass = Nd4jUtils.findFitIndexes(score, Conditions.greaterThan(threshold));
-        if (ipass == null) {
-            return null;
-        }
-        totalBoxes = mtcnnUtils.squeeze(mtcnnUtils.mergeRegAndScore(totalBoxes, reg, score).get(ipass).dup());
-        if (totalBoxes.rank() == 1) {
-            return null;
+        // 00. Keep boxes with the highest scores only
+        logger.debug("output net : {} candidates, {} are kept.", totalBoxes.size(), Math.min(totalBoxes.size(), maxCandidates));
+        totalBoxes.top(maxCandidates);
+        // O-Net is fed by batches of fixed max size to bound memory of input and activations
+        for (int from = 0; from < totalBoxes.size(); from += batchSize) {
+            int to = Math.min(from + batchSize, totalBoxes.size());
+            INDArray onetInput = mtcnnUtils.transposeBorder(mtcnnUtils.reshapeAndNorm(img, totalBoxes, from, to, 48));
+            // 02. Feed scaled images into O-Net
+            // (forward pass is shared with concurrent requests if batching is enabled)
+            INDArray onetOut[] = inference.apply(onetInput);
+            // 03. Gather O-Net output
+            totalBoxes.update(from, onetOut[0].get(all(), point(1)), onetOut[1]);
         }
+        // 04. Find indices of bounding boxes with high confidence
+        totalBoxes.filter(threshold);
         // 05. Convert bounding box and facial landmark coordinates to “un-scaled image” coordinates
-        totalBoxes = mtcnnUtils.bbreg(totalBoxes);
+        totalBoxes.regress();
         // 06. Non-Maximum Suppression for all boxes
-        totalBoxes = mtcnnUtils.nms(totalBoxes, 0.7, true);
+        totalBoxes.nms(0.7, true);
         logger.debug("output net : finished");
         return totalBoxes;
     }
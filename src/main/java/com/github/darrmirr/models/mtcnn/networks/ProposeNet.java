@@ -1,22 +1,34 @@
 package com.github.darrmirr.models.mtcnn.networks;
 
+import com.github.darrmirr.concurrent.InferenceLimiter;
+import com.github.darrmirr.models.InferenceWorkspace;
+import com.github.darrmirr.models.mtcnn.BoxSet;
+import com.github.darrmirr.models.mtcnn.DetectionRequest;
 import com.github.darrmirr.models.mtcnn.MtcnnUtils;
 import com.github.darrmirr.models.mtcnn.networks.dl4j.ProposeNetModel;
+import com.github.darrmirr.utils.BoundBox;
 import com.github.darrmirr.utils.Nd4jUtils;
 import org.deeplearning4j.nn.graph.ComputationGraph;
 import org.nd4j.linalg.api.ndarray.INDArray;
-import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.nativeblas.NativeOpsHolder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import static org.nd4j.linalg.indexing.NDArrayIndex.all;
+import static org.nd4j.linalg.indexing.NDArrayIndex.interval;
 import static org.nd4j.linalg.indexing.NDArrayIndex.point;
 
 @Component
@@ -25,18 +37,52 @@ public class ProposeNet {
     private ProposeNetModel proposeNetModel;
     private MtcnnUtils mtcnnUtils;
     private ComputationGraph graph;
-    private int minSize = 20;
+    private InferenceLimiter inferenceLimiter;
+    private int minSize = DetectionRequest.DEFAULT_MIN_FACE_SIZE;
     private double factor = 0.709;
+    private boolean parallelScales;
+    private ScaleParallelismTuner tuner;
+    // graph replicas and pool of parallel scale evaluation
+    private BlockingQueue<ComputationGraph> replicas;
+    private ForkJoinPool forkJoinPool;
 
     @Autowired
-    public ProposeNet(ProposeNetModel proposeNetModel, MtcnnUtils mtcnnUtils) {
+    public ProposeNet(ProposeNetModel proposeNetModel, MtcnnUtils mtcnnUtils, InferenceLimiter inferenceLimiter,
+                      @Value("${mtcnn.propose.parallel-scales:false}") boolean parallelScales,
+                      @Value("${mtcnn.propose.parallel-scales.cores:0}") int cores,
+                      @Value("${mtcnn.propose.parallel-scales.min-pixels:50000}") long minParallelPixels) {
         this.proposeNetModel = proposeNetModel;
         this.mtcnnUtils = mtcnnUtils;
+        this.inferenceLimiter = inferenceLimiter;
+        this.parallelScales = parallelScales;
+        this.tuner = new ScaleParallelismTuner(cores, minParallelPixels);
+    }
+
+    public ProposeNet(ProposeNetModel proposeNetModel, MtcnnUtils mtcnnUtils, InferenceLimiter inferenceLimiter) {
+        this(proposeNetModel, mtcnnUtils, inferenceLimiter, false, 0, 50000);
     }
 
     @PostConstruct
     public void init() throws IOException {
         graph = proposeNetModel.getGraph();
+        if (parallelScales) {
+            // plan never has more tasks, so more threads and graph replicas are never used
+            int parallelism = tuner.getMaxTasks(factor);
+            replicas = new ArrayBlockingQueue<>(parallelism);
+            replicas.add(graph);
+            for (int i = 1; i < parallelism; i++) {
+                replicas.add(graph.clone());
+            }
+            forkJoinPool = new ForkJoinPool(parallelism);
+            logger.info("parallel evaluation of image pyramid scales : {} graph replicas", parallelism);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (forkJoinPool != null) {
+            forkJoinPool.shutdown();
+        }
     }
 
     /**
@@ -54,40 +100,190 @@ public class ProposeNet {
      *
      * @param img input image to find proposal faces
      * @param threshold threshold for bounding box with low confidence
-     * @return array of bounding box face candidates
+     * @return bounding box face candidates
+     */
+    public BoxSet execute(INDArray img, double threshold) {
+        return execute(img, threshold, DetectionRequest.create());
+    }
+
+    /**
+     * Stage 1 constrained by detection request:
+     * image pyramid contains scales of expected face sizes only and
+     * P-Net is fed by crops of regions of interest (instead of the whole image).
+     *
+     * @param img input image to find proposal faces
+     * @param threshold threshold for bounding box with low confidence
+     * @param request detection request (in coordinates of input image)
+     * @return bounding box face candidates
      */
-    public INDArray execute(INDArray img, double threshold) {
+    public BoxSet execute(INDArray img, double threshold, DetectionRequest request) {
+        return execute(img, threshold, request, getScales(img, request));
+    }
+
+    /**
+     * Stage 1 evaluated at given scales of image pyramid only
+     *
+     * @param img input image to find proposal faces
+     * @param threshold threshold for bounding box with low confidence
+     * @param request detection request (in coordinates of input image)
+     * @param scales image pyramid scales to evaluate (see getScales)
+     * @return bounding box face candidates
+     */
+    public BoxSet execute(INDArray img, double threshold, DetectionRequest request, double[] scales) {
         logger.debug("propose net : started.");
-        // 02. Calculate multiple scaled factors in order to create scaled copies of the image
-        double scales[] = getScales(img, minSize, factor);
-        logger.debug("scales loaded : {}.", Arrays.toString(scales));
-        INDArray totalBoxes = null;
+        var totalBoxes = merge(img, evaluate(img, threshold, request, scales));
+        logger.debug("propose net : finished.");
+        return totalBoxes;
+    }
 
-        for (double scale : scales) {
-            // 03.- 06.
-            var boxes = evaluateBoxes(img, threshold, scale);
-            if (boxes == null || boxes.rank() == 1) {
-                continue;
+    /**
+     * Steps 03. - 07. of stage 1 at given scales of image pyramid
+     *
+     * @param img input image to find proposal faces
+     * @param threshold threshold for bounding box with low confidence
+     * @param request detection request (in coordinates of input image)
+     * @param scales image pyramid scales to evaluate (see getScales)
+     * @return bounding boxes of every scale (in order of scales), see merge method
+     */
+    public BoxSet evaluate(INDArray img, double threshold, DetectionRequest request, double[] scales) {
+        var totalBoxes = new BoxSet();
+        if (request.getRegions().isEmpty()) {
+            evaluateRegion(img, threshold, scales, totalBoxes);
+        } else {
+            long[] shape = mtcnnUtils.shape(img);
+            for (BoundBox region : request.getRegions()) {
+                int x1 = Math.max(0, region.x1);
+                int y1 = Math.max(0, region.y1);
+                int x2 = (int) Math.min(shape[3], region.x2);
+                int y2 = (int) Math.min(shape[2], region.y2);
+                if (x2 - x1 < 12 || y2 - y1 < 12) {
+                    continue;
+                }
+                var crop = img.get(all(), all(), interval(y1, y2), interval(x1, x2)).dup();
+                var regionBoxes = new BoxSet();
+                // scales crop is smaller than kernel at are skipped
+                int minLength = Math.min(x2 - x1, y2 - y1);
+                evaluateRegion(crop, threshold, Arrays.stream(scales).filter(scale -> minLength * scale >= 12).toArray(), regionBoxes);
+                // region boxes to image coordinates
+                regionBoxes.translate(x1, y1);
+                totalBoxes.addAll(regionBoxes);
             }
-            // 07. Non-Maximum Suppression for kernels in each scaled image
-            boxes = mtcnnUtils.nms(boxes, 0.5, false);
-            totalBoxes = mergeBoxes(totalBoxes, boxes);
         }
+        return totalBoxes;
+    }
 
-        if (totalBoxes == null || totalBoxes.rank() == 1) {
-            return null;
-        }
+    /**
+     * Steps 08. - 10. of stage 1 : merge bounding boxes of all evaluated scales
+     *
+     * @param img input image to find proposal faces
+     * @param totalBoxes bounding boxes of evaluated scales (they are modified)
+     * @return bounding box face candidates
+     */
+    public BoxSet merge(INDArray img, BoxSet totalBoxes) {
         // 08. Non-Maximum Suppression for all kernels
-        totalBoxes = mtcnnUtils.nms(totalBoxes, 0.7, false);
+        totalBoxes.nms(0.7, false);
         // 09. Convert bounding box coordinates to “un-scaled image” coordinates
-        totalBoxes = mtcnnUtils.bbreg(totalBoxes);
+        totalBoxes.regress();
         long[] imgShape = mtcnnUtils.shape(img);
         // 10. Reshape bounding boxes to square
-        totalBoxes = mtcnnUtils.rerec(totalBoxes, imgShape[3], imgShape[2]);
-        logger.debug("propose net : finished.");
+        totalBoxes.square(imgShape[3], imgShape[2]);
         return totalBoxes;
     }
 
+    private void evaluateRegion(INDArray img, double threshold, double[] scales, BoxSet totalBoxes) {
+        // 03.- 07. (boxes are merged in order of scales whether scales are evaluated in parallel or not)
+        for (BoxSet boxes : parallelScales ? evaluateScalesInParallel(img, threshold, scales) : evaluateScales(graph, img, threshold, scales)) {
+            totalBoxes.addAll(boxes);
+        }
+    }
+
+    private BoxSet[] evaluateScales(ComputationGraph graph, INDArray img, double threshold, double[] scales) {
+        var scaleBoxes = new BoxSet[scales.length];
+        for (int i = 0; i < scales.length; i++) {
+            scaleBoxes[i] = evaluateScale(graph, img, threshold, scales[i]);
+        }
+        return scaleBoxes;
+    }
+
+    /**
+     * Evaluate scales by ForkJoin tasks on graph replicas
+     * Tasks and intra-op threads of every task are planned by tuner according to image size and CPU cores.
+     *
+     * @param img image array
+     * @param threshold threshold used to reduce bounding box amount
+     * @param scales image scale factors
+     * @return bounding boxes of every scale (in order of scales)
+     */
+    private BoxSet[] evaluateScalesInParallel(INDArray img, double threshold, double[] scales) {
+        long[] imgShape = mtcnnUtils.shape(img);
+        var plan = tuner.plan(imgShape[2], imgShape[3], scales);
+        logger.debug("scale tasks : {}, intra-op threads : {}.", plan.getTasks(), plan.getIntraOpThreads());
+        if (plan.getTasks() == 1) {
+            // graph is one of replicas, so sequential evaluation takes replica too (parallel tasks may use graph)
+            var replica = takeReplica();
+            try {
+                return evaluateScales(replica, img, threshold, scales);
+            } finally {
+                replicas.add(replica);
+            }
+        }
+        var scaleBoxes = new BoxSet[scales.length];
+        var tasks = new ArrayList<ForkJoinTask<?>>();
+        for (int[] taskScales : plan.getTaskScales()) {
+            tasks.add(ForkJoinTask.adapt(() -> {
+                var replica = takeReplica();
+                try {
+                    // OpenMP threads of current (worker) thread
+                    NativeOpsHolder.getInstance().getDeviceNativeOps().setOmpNumThreads(plan.getIntraOpThreads());
+                    for (int scale : taskScales) {
+                        scaleBoxes[scale] = evaluateScale(replica, img, threshold, scales[scale]);
+                    }
+                } finally {
+                    replicas.add(replica);
+                }
+            }));
+        }
+        forkJoinPool.submit(() -> ForkJoinTask.invokeAll(tasks)).join();
+        return scaleBoxes;
+    }
+
+    private ComputationGraph takeReplica() {
+        try {
+            return replicas.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("propose net : interrupted while waiting for graph replica", e);
+        }
+    }
+
+    private BoxSet evaluateScale(ComputationGraph graph, INDArray img, double threshold, double scale) {
+        // 03.- 06.
+        var boxes = evaluateBoxes(graph, img, threshold, scale);
+        // 07. Non-Maximum Suppression for kernels in each scaled image
+        boxes.nms(0.5, false);
+        return boxes;
+    }
+
+    /**
+     * 02. Calculate multiple scaled factors in order to create scaled copies of the image
+     *
+     * @param img input image
+     * @param request detection request (in coordinates of input image)
+     * @return image pyramid scales of face sizes of request (in order of descending scale)
+     */
+    public double[] getScales(INDArray img, DetectionRequest request) {
+        double[] scales = getScales(img, request.getMinFaceSize(), request.getMaxFaceSize(), factor);
+        logger.debug("scales loaded : {}.", Arrays.toString(scales));
+        return scales;
+    }
+
+    /**
+     * @return min size of face detected by propose net (in pixels of image it is fed by)
+     */
+    public int getMinSize() {
+        return minSize;
+    }
+
     /**
      * Compute the image scale pyramid
      * Image scale pyramid is used to detect faces of all different sizes.
@@ -95,23 +291,32 @@ public class ProposeNet {
      * to search for different sized faces within the image.
      *
      * notice: 12 number is kernel size used in Propose network
+     * Face of size 12 / scale is detected at scale, so pyramid starts at scale of min face size
+     * and ends next to scale of max face size (or at scale image is smaller than kernel).
      *
      * @param img image array
-     * @param minSize
+     * @param minSize min face size
+     * @param maxSize max face size (0 means no limit)
      * @param factor base factor used to calculate image scale factor
      * @return array of image scale factors
      *         (image scale factor is number in percents. It points
      *         how resized image is smaller than original one)
      */
-    private double[] getScales(INDArray img, int minSize, double factor) {
+    double[] getScales(INDArray img, int minSize, int maxSize, double factor) {
         ArrayList<Double> scales = new ArrayList<>();
         long[] imgShape = mtcnnUtils.shape(img);
         assert imgShape.length == 4;
         double m = 12.0 / minSize;
+        double minScale = maxSize > 0 ? 12.0 / maxSize : 0;
         double minLength = Math.min(imgShape[2], imgShape[3]) * m;
         int factorCount = 0;
         while (minLength >= 12) {
-            scales.add(m * Math.pow(factor, factorCount));
+            double scale = m * Math.pow(factor, factorCount);
+            // pyramid ends at the first scale below scale of max face size (faces between scales are detected too)
+            if (scale < minScale * factor) {
+                break;
+            }
+            scales.add(scale);
             minLength *= factor;
             factorCount++;
         }
@@ -131,6 +336,7 @@ public class ProposeNet {
      *    out[1] is reg layer (bounding box regression layer) output.
      *           Contains coordinates (box center coordinates, width and height) of founded boxes
      *
+     * @param graph propose net graph (or its replica)
      * @param img image array
      * @param threshold threshold used to reduce bounding box amount.
      *                  There is object inside bounced box if score >= threshold
@@ -138,15 +344,15 @@ public class ProposeNet {
      * @param scale image scale factor is used for resize image
      * @return bounding boxes of object is found by propose net
      */
-    private INDArray evaluateBoxes(INDArray img,  double threshold, double scale){
+    private BoxSet evaluateBoxes(ComputationGraph graph, INDArray img,  double threshold, double scale){
         INDArray pnetInput = mtcnnUtils.transposeBorder(scaleAndNorm(img, scale));
         // 03. Feed scaled images into P-Net
-        INDArray[] out = graph.output(pnetInput);
+        INDArray[] out = inferenceLimiter.execute(() -> InferenceWorkspace.output(graph, pnetInput));
         // 04. Gather P-Net output
         INDArray score = out[0].get(point(0), point(0), all(), all());
         INDArray reg = out[1];
         // 05. - 06.
-        return mtcnnUtils.generateBox(score, reg, threshold, scale);
+        return BoxSet.generate(score, reg, threshold, scale);
     }
 
     public INDArray scaleAndNorm(INDArray img, double scale) {
@@ -154,19 +360,4 @@ public class ProposeNet {
         INDArray ret = Nd4jUtils.imresample(img, (int) Math.ceil(shape[2] * scale), (int) Math.ceil(shape[3] * scale));
         return ret.subi(127.5).muli(0.0078125);
     }
-
-    private INDArray mergeBoxes(INDArray totalBoxes, INDArray boxes) {
-        if (boxes == null) {
-            return totalBoxes;
-        }
-        if(boxes.rank() == 1) {
-            boxes = Nd4j.expandDims(boxes, 0);
-        }
-        if (totalBoxes == null || totalBoxes.shape().length == 0) {
-            totalBoxes = boxes;
-        } else if (boxes.shape().length != 0) {
-            return Nd4j.concat(0, totalBoxes, boxes);
-        }
-        return totalBoxes;
-    }
 }
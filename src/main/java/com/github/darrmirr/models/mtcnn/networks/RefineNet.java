@@ -1,19 +1,20 @@
 package com.github.darrmirr.models.mtcnn.networks;
 
+import com.github.darrmirr.concurrent.InferenceLimiter;
+import com.github.darrmirr.models.mtcnn.BoxSet;
 import com.github.darrmirr.models.mtcnn.MtcnnUtils;
 import com.github.darrmirr.models.mtcnn.networks.dl4j.RefineNetModel;
-import com.github.darrmirr.utils.Nd4jUtils;
 import org.deeplearning4j.nn.graph.ComputationGraph;
 import org.nd4j.linalg.api.ndarray.INDArray;
-import org.nd4j.linalg.factory.Nd4j;
-import org.nd4j.linalg.indexing.conditions.Conditions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
 import java.io.IOException;
+import java.util.function.Function;
 
 import static org.nd4j.linalg.factory.Nd4j.shape;
 import static org.nd4j.linalg.indexing.NDArrayIndex.all;
@@ -25,20 +26,35 @@ public class RefineNet {
     private RefineNetModel refineNetModel;
     private MtcnnUtils mtcnnUtils;
     private ComputationGraph graph;
+    private StageBatching stageBatching;
+    private Function<INDArray, INDArray[]> inference;
+    private int maxCandidates;
+    private int batchSize;
 
     @Autowired
-    public RefineNet(RefineNetModel refineNetModel, MtcnnUtils mtcnnUtils) {
+    public RefineNet(RefineNetModel refineNetModel, MtcnnUtils mtcnnUtils, StageBatching stageBatching,
+                     @Value("${mtcnn.refine.max-candidates:512}") int maxCandidates,
+                     @Value("${mtcnn.refine.batch-size:128}") int batchSize) {
         this.refineNetModel = refineNetModel;
         this.mtcnnUtils = mtcnnUtils;
+        this.stageBatching = stageBatching;
+        this.maxCandidates = maxCandidates;
+        this.batchSize = batchSize;
+    }
+
+    public RefineNet(RefineNetModel refineNetModel, MtcnnUtils mtcnnUtils, InferenceLimiter inferenceLimiter) {
+        this(refineNetModel, mtcnnUtils, new StageBatching(inferenceLimiter), 512, 128);
     }
 
     @PostConstruct
     public void init() throws IOException {
         graph = refineNetModel.getGraph();
+        inference = stageBatching.inference("refine", graph);
     }
 
     /**
      * Stage 2:
+     * 00. Keep boxes with the highest scores only (max candidates)
      * 01. Pad out-of-bound boxes
      * 02. Feed scaled images into R-Net
      * 03. Gather R-Net output
@@ -50,37 +66,32 @@ public class RefineNet {
      * @param img input image to find proposal faces
      * @param totalBoxes bouncing boxes retrieve from stage 1 (propose-net)
      * @param threshold threshold for bounding box with low confidence
-     * @return array of bounding box face candidates
+     * @return bounding box face candidates
      */
-    public INDArray execute(INDArray img, INDArray totalBoxes, double threshold) {
+    public BoxSet execute(INDArray img, BoxSet totalBoxes, double threshold) {
         logger.debug("refine net : started.");
-        INDArray rnetInput = mtcnnUtils.transposeBorder(mtcnnUtils.reshapeAndNorm(img, totalBoxes, 24));
-        // 02. Feed scaled images into R-Net
-        INDArray rnetOut[] = graph.output(rnetInput);
-        // 03. Gather R-Net output
-        INDArray score = rnetOut[0].get(all(), point(1)).transposei();
-        INDArray reg = rnetOut[1];
-        // 04. Find indices of bounding boxes with high confidence
-        INDArray ipass = Nd4jUtils.findFitIndexes(score, Conditions.greaterThan(threshold));
-
-        if (ipass == null) {
-            return null;
-        }
-        totalBoxes = mtcnnUtils.squeeze(mtcnnUtils.mergeRegAndScore(totalBoxes, reg, score).get(ipass).dup());
-        // or expand dimension to rank 2?
-        if (totalBoxes.rank() == 1) {
-            return null;
+        // 00. Keep boxes with the highest scores only
+        logger.debug("refine net : {} candidates, {} are kept.", totalBoxes.size(), Math.min(totalBoxes.size(), maxCandidates));
+        totalBoxes.top(maxCandidates);
+        // R-Net is fed by batches of fixed max size to bound memory of input and activations
+        for (int from = 0; from < totalBoxes.size(); from += batchSize) {
+            int to = Math.min(from + batchSize, totalBoxes.size());
+            INDArray rnetInput = mtcnnUtils.transposeBorder(mtcnnUtils.reshapeAndNorm(img, totalBoxes, from, to, 24));
+            // 02. Feed scaled images into R-Net
+            // (forward pass is shared with concurrent requests if batching is enabled)
+            INDArray rnetOut[] = inference.apply(rnetInput);
+            // 03. Gather R-Net output
+            totalBoxes.update(from, rnetOut[0].get(all(), point(1)), rnetOut[1]);
         }
+        // 04. Find indices of bounding boxes with high confidence
+        totalBoxes.filter(threshold);
         // 05. Non-Maximum Suppression for all boxes
-        totalBoxes = mtcnnUtils.nms(totalBoxes, 0.7, false);
-        if (totalBoxes.rank() == 1) {
-            return null;
-        }
+        totalBoxes.nms(0.7, false);
         // 06. Convert bounding box coordinates to “un-scaled image” coordinates
-        totalBoxes = mtcnnUtils.bbreg(totalBoxes);
+        totalBoxes.regress();
         long[] imgShape = shape(img);
         // 07. Reshape bounding boxes to square
-        totalBoxes = mtcnnUtils.rerec(totalBoxes, imgShape[3], imgShape[2]);
+        totalBoxes.square(imgShape[3], imgShape[2]);
         logger.debug("refine net : finished.");
         return totalBoxes;
     }
@@ -0,0 +1,121 @@
+package com.github.darrmirr.models.mtcnn.networks;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Split of CPU cores between parallel evaluation of image pyramid scales and ND4J intra-op threads
+ *
+ * P-Net work of scale is proportional to pixel amount of scaled image, so the largest (first) scale
+ * is about half of the whole pyramid work (scale factor 0.709 halves pixel amount every scale).
+ * Scales are evaluated by as many tasks as the largest scale fits into pyramid work,
+ * cores are divided between tasks as intra-op threads.
+ * Small images are evaluated sequentially, because task overhead is comparable with their work.
+ */
+public class ScaleParallelismTuner {
+    private final int cores;
+    private final long minParallelPixels;
+
+    /**
+     * @param cores amount of CPU cores (0 means amount of available processors)
+     * @param minParallelPixels min pixel amount of the whole pyramid to evaluate scales in parallel
+     */
+    public ScaleParallelismTuner(int cores, long minParallelPixels) {
+        this.cores = cores > 0 ? cores : Runtime.getRuntime().availableProcessors();
+        this.minParallelPixels = minParallelPixels;
+    }
+
+    public int getCores() {
+        return cores;
+    }
+
+    /**
+     * Pyramid work is geometric series of ratio factor^2, so it is less than work of the largest scale
+     * multiplied by 1 / (1 - factor^2) (about 2 for factor 0.709) whatever image size is.
+     *
+     * @param factor scale factor of image pyramid
+     * @return max amount of tasks of plan (amount of threads and graph replicas parallel evaluation needs)
+     */
+    public int getMaxTasks(double factor) {
+        return (int) Math.min(cores, Math.ceil(1 / (1 - factor * factor)));
+    }
+
+    /**
+     * @param height image height
+     * @param width image width
+     * @param scales image pyramid scales
+     * @return split of cores
+     */
+    public Plan plan(long height, long width, double[] scales) {
+        var work = work(height, width, scales);
+        double total = 0;
+        double max = 0;
+        for (double scaleWork : work) {
+            total += scaleWork;
+            max = Math.max(max, scaleWork);
+        }
+        if (cores == 1 || scales.length < 2 || total < minParallelPixels) {
+            return new Plan(1, cores, List.of(indexes(scales.length)));
+        }
+        int tasks = (int) Math.min(Math.min(cores, scales.length), Math.max(1, Math.round(total / max)));
+        return new Plan(tasks, Math.max(1, cores / tasks), split(work, tasks));
+    }
+
+    private static double[] work(long height, long width, double[] scales) {
+        var work = new double[scales.length];
+        for (int i = 0; i < scales.length; i++) {
+            work[i] = Math.ceil(height * scales[i]) * Math.ceil(width * scales[i]);
+        }
+        return work;
+    }
+
+    /**
+     * Assign scales (in order of descending work) to the least loaded task
+     */
+    private static List<int[]> split(double[] work, int tasks) {
+        var load = new double[tasks];
+        var taskScales = new ArrayList<List<Integer>>();
+        for (int task = 0; task < tasks; task++) {
+            taskScales.add(new ArrayList<>());
+        }
+        // pyramid scales are in order of descending work
+        for (int scale = 0; scale < work.length; scale++) {
+            int task = 0;
+            for (int i = 1; i < tasks; i++) {
+                if (load[i] < load[task]) {
+                    task = i;
+                }
+            }
+            load[task] += work[scale];
+            taskScales.get(task).add(scale);
+        }
+        var split = new ArrayList<int[]>();
+        for (List<Integer> scales : taskScales) {
+            split.add(scales.stream().mapToInt(Integer::intValue).toArray());
+        }
+        return split;
+    }
+
+    private static int[] indexes(int length) {
+        var indexes = new int[length];
+        for (int i = 0; i < length; i++) {
+            indexes[i] = i;
+        }
+        return indexes;
+    }
+
+    /**
+     * Evaluation plan of image pyramid
+     * Every task evaluates its scales (indexes of pyramid scales) sequentially using intra-op threads.
+     */
+    @AllArgsConstructor
+    @Getter
+    public static class Plan {
+        private final int tasks;
+        private final int intraOpThreads;
+        private final List<int[]> taskScales;
+    }
+}
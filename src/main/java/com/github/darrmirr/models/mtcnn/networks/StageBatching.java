@@ -0,0 +1,71 @@
+package com.github.darrmirr.models.mtcnn.networks;
+
+import com.github.darrmirr.concurrent.BatchingExecutor;
+import com.github.darrmirr.concurrent.InferenceLimiter;
+import com.github.darrmirr.models.InferenceWorkspace;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Inference of MTCNN stages that are fed by face candidates (R-Net and O-Net)
+ *
+ * If batching is enabled, candidates of concurrent face detection requests share single forward pass
+ * (see BatchingExecutor). Otherwise every request performs its own forward pass.
+ */
+@Component
+public class StageBatching {
+    private static final Logger logger = LoggerFactory.getLogger(StageBatching.class);
+    private final List<BatchingExecutor> executors = new ArrayList<>();
+    private InferenceLimiter inferenceLimiter;
+    private boolean enabled;
+    private int maxBatchSize;
+    private long maxWaitMillis;
+
+    @Autowired
+    public StageBatching(InferenceLimiter inferenceLimiter,
+                         @Value("${mtcnn.batching.enabled:false}") boolean enabled,
+                         @Value("${mtcnn.batching.max-batch:256}") int maxBatchSize,
+                         @Value("${mtcnn.batching.max-wait-ms:2}") long maxWaitMillis) {
+        this.inferenceLimiter = inferenceLimiter;
+        this.enabled = enabled;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitMillis = maxWaitMillis;
+        logger.info("cross-request batching of MTCNN stages enabled : {}", enabled);
+    }
+
+    public StageBatching(InferenceLimiter inferenceLimiter) {
+        this(inferenceLimiter, false, 256, 2);
+    }
+
+    /**
+     * @param stage stage name
+     * @param graph stage network
+     * @return inference of stage network
+     */
+    public synchronized Function<INDArray, INDArray[]> inference(String stage, ComputationGraph graph) {
+        Function<INDArray, INDArray[]> inference = input -> inferenceLimiter.execute(() -> InferenceWorkspace.output(graph, input));
+        if (!enabled) {
+            return inference;
+        }
+        var executor = new BatchingExecutor("mtcnn-" + stage + "-batching", inference, maxBatchSize, maxWaitMillis);
+        executors.add(executor);
+        return executor::output;
+    }
+
+    @PreDestroy
+    public synchronized void destroy() {
+        executors.forEach(executor -> logger.info("{} : average requests per batch : {}", executor.getName(), executor.getAverageRequestsPerBatch()));
+        executors.forEach(BatchingExecutor::close);
+        executors.clear();
+    }
+}
@@ -0,0 +1,112 @@
+package com.github.darrmirr.models.optimization;
+
+import org.deeplearning4j.nn.api.Layer;
+import org.deeplearning4j.nn.conf.layers.BatchNormalization;
+import org.deeplearning4j.nn.conf.layers.ConvolutionLayer;
+import org.deeplearning4j.nn.conf.layers.FeedForwardLayer;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.params.BatchNormalizationParamInitializer;
+import org.deeplearning4j.nn.params.DefaultParamInitializer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.ops.transforms.Transforms;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Folding of per-channel affine layers into weights of preceding convolution or dense layer
+ *
+ * Inference graph is built without affine layers (batch normalization, linear scale), but with bias at layers they follow.
+ * Parameters are transferred from source graph (layout of model weights) to inference graph by layer name:
+ * weights of output channel c are multiplied by a[c] and bias is set to b[c] * a[c] + shift[c],
+ * where a and shift are calculated from parameters of folded layer.
+ * Parameters of other layers are copied as is.
+ */
+public class LayerFolding {
+    private static final Logger logger = LoggerFactory.getLogger(LayerFolding.class);
+    // layer name to name of batch normalization layer folded into it
+    private final Map<String, String> batchNorms = new HashMap<>();
+    // layer name to scale its output is multiplied by
+    private final Map<String, Double> scales = new HashMap<>();
+
+    /**
+     * Register batch normalization layer following layer
+     *
+     * @param layer name of convolution or dense layer
+     * @param batchNorm name of batch normalization layer at source graph
+     */
+    public void foldBatchNorm(String layer, String batchNorm) {
+        batchNorms.put(layer, batchNorm);
+    }
+
+    /**
+     * Register linear scale of layer output (applied after batch normalization if both are registered)
+     *
+     * @param layer name of convolution or dense layer
+     * @param scale scale
+     */
+    public void foldScale(String layer, double scale) {
+        scales.put(layer, scale);
+    }
+
+    /**
+     * Transfer parameters from source graph to inference graph
+     *
+     * @param source graph with loaded weights
+     * @param target inference graph built without folded layers
+     */
+    public void apply(ComputationGraph source, ComputationGraph target) {
+        int folded = 0;
+        for (Layer targetLayer : target.getLayers()) {
+            if (targetLayer.numParams() == 0) {
+                continue;
+            }
+            var name = targetLayer.conf().getLayer().getLayerName();
+            var sourceLayer = source.getLayer(name);
+            var batchNorm = batchNorms.get(name);
+            var scale = scales.get(name);
+            if (batchNorm == null && scale == null) {
+                targetLayer.setParams(sourceLayer.params().dup());
+                continue;
+            }
+            var channels = ((FeedForwardLayer) targetLayer.conf().getLayer()).getNOut();
+            var a = Nd4j.ones(1, channels);
+            var shift = Nd4j.zeros(1, channels);
+            if (batchNorm != null) {
+                var bn = source.getLayer(batchNorm);
+                var eps = ((BatchNormalization) bn.conf().getLayer()).getEps();
+                var gamma = bn.getParam(BatchNormalizationParamInitializer.GAMMA);
+                var beta = bn.getParam(BatchNormalizationParamInitializer.BETA);
+                var mean = bn.getParam(BatchNormalizationParamInitializer.GLOBAL_MEAN);
+                var variance = bn.getParam(BatchNormalizationParamInitializer.GLOBAL_VAR);
+                // y = (x - mean) / sqrt(var + eps) * gamma + beta = x * a + (beta - mean * a)
+                a.assign(gamma.div(Transforms.sqrt(variance.add(eps), false)).reshape(1, channels));
+                shift.assign(beta.sub(mean.mul(a)).reshape(1, channels));
+            }
+            if (scale != null) {
+                a.muli(scale);
+                shift.muli(scale);
+            }
+            fold(sourceLayer, targetLayer, a, shift);
+            folded++;
+        }
+        logger.info("{} layers are folded into preceding layers of inference graph", folded);
+    }
+
+    private static void fold(Layer sourceLayer, Layer targetLayer, INDArray a, INDArray shift) {
+        var channelsFirst = sourceLayer.conf().getLayer() instanceof ConvolutionLayer;
+        var weights = sourceLayer.getParam(DefaultParamInitializer.WEIGHT_KEY);
+        // convolution weights [out channels, in channels, kernel height, kernel width], dense weights [inputs, outputs]
+        var foldedWeights = channelsFirst
+                ? weights.reshape('c', weights.size(0), weights.length() / weights.size(0)).mulColumnVector(a.reshape(a.length(), 1)).reshape('c', weights.shape())
+                : weights.mulRowVector(a.reshape(1, a.length()));
+        var bias = sourceLayer.paramTable().containsKey(DefaultParamInitializer.BIAS_KEY)
+                ? sourceLayer.getParam(DefaultParamInitializer.BIAS_KEY).mul(a)
+                : Nd4j.zeros(1, a.length());
+        targetLayer.setParam(DefaultParamInitializer.WEIGHT_KEY, foldedWeights);
+        targetLayer.setParam(DefaultParamInitializer.BIAS_KEY, bias.addi(shift.reshape(bias.shape())));
+    }
+}
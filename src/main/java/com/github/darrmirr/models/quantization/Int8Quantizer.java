@@ -0,0 +1,165 @@
+package com.github.darrmirr.models.quantization;
+
+import com.github.darrmirr.models.custom.ActivationFakeQuant;
+import org.deeplearning4j.nn.api.Layer;
+import org.deeplearning4j.nn.conf.layers.ActivationLayer;
+import org.deeplearning4j.nn.conf.layers.ConvolutionLayer;
+import org.deeplearning4j.nn.conf.layers.DenseLayer;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.nd4j.linalg.activations.IActivation;
+import org.nd4j.linalg.activations.impl.ActivationIdentity;
+import org.nd4j.linalg.activations.impl.ActivationReLU;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.ops.transforms.Transforms;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Post-training int8 quantization of computation graph
+ *
+ * Weights of convolution and dense layers are quantized symmetrically per output channel:
+ * scale of channel is max |w| / 127 and every weight is replaced by round(w / scale) * scale.
+ * Outputs of ReLU and identity activation layers are quantized per tensor by ranges calibrated
+ * on representative inputs (uint8 grid for ReLU outputs, int8 grid otherwise), so every convolution
+ * and dense layer receives int8 representable inputs.
+ *
+ * notice: ND4J CPU backend has no int8 kernels, so quantized tensors are kept dequantized in FLOAT data type.
+ *         Graph produces the same outputs as int8 inference would (up to accumulation order),
+ *         but inference time does not change. So quantizer is used to estimate accuracy of int8 model only:
+ *         FLOAT weights and activations are restored after evaluation (see restore).
+ */
+public class Int8Quantizer {
+    private static final Logger logger = LoggerFactory.getLogger(Int8Quantizer.class);
+    private static final String WEIGHTS = "W";
+    private static final int INT8_MAX = 127;
+    private static final int UINT8_MAX = 255;
+    private static final int CALIBRATION_BATCH = 8;
+    // layer name to max |activation| seen during calibration
+    private final Map<String, Double> activationRanges = new HashMap<>();
+    // FLOAT parameters and activations of quantized graph (layer configurations are mutable, so they are keyed by identity)
+    private INDArray floatParams;
+    private final Map<ActivationLayer, IActivation> floatActivations = new IdentityHashMap<>();
+
+    /**
+     * Collect output ranges of activation layers
+     *
+     * @param graph graph in FLOAT precision
+     * @param inputs representative graph inputs (single example per array)
+     */
+    public void calibrate(ComputationGraph graph, List<INDArray> inputs) {
+        for (int first = 0; first < inputs.size(); first += CALIBRATION_BATCH) {
+            var batch = Nd4j.concat(0, inputs.subList(first, Math.min(inputs.size(), first + CALIBRATION_BATCH)).toArray(new INDArray[0]));
+            var activations = graph.feedForward(batch, false);
+            for (Layer layer : graph.getLayers()) {
+                var name = layer.conf().getLayer().getLayerName();
+                if (isQuantizable(layer) && activations.containsKey(name)) {
+                    var range = Transforms.abs(activations.get(name), true).maxNumber().doubleValue();
+                    activationRanges.merge(name, range, Math::max);
+                }
+            }
+        }
+        logger.info("activation ranges of {} layers are calibrated on {} inputs", activationRanges.size(), inputs.size());
+    }
+
+    /**
+     * Quantize weights and calibrated activations of graph
+     *
+     * @param graph graph to quantize in place
+     */
+    public void quantize(ComputationGraph graph) {
+        floatParams = graph.params().dup();
+        long quantizedWeights = 0;
+        for (Layer layer : graph.getLayers()) {
+            var layerConf = layer.conf().getLayer();
+            if (layerConf instanceof ConvolutionLayer) {
+                // convolution weights [out channels, in channels, kernel height, kernel width]
+                quantizedWeights += quantizeWeights(layer.getParam(WEIGHTS), true);
+            } else if (layerConf instanceof DenseLayer) {
+                // dense weights [inputs, outputs]
+                quantizedWeights += quantizeWeights(layer.getParam(WEIGHTS), false);
+            } else if (isQuantizable(layer) && activationRanges.containsKey(layerConf.getLayerName())) {
+                quantizeActivation((ActivationLayer) layerConf, activationRanges.get(layerConf.getLayerName()));
+            }
+        }
+        logger.info("{} weights are quantized to int8 ({} MB instead of {} MB in FLOAT)",
+                quantizedWeights, quantizedWeights >> 20, (quantizedWeights * Float.BYTES) >> 20);
+    }
+
+    /**
+     * Restore FLOAT weights and activations of quantized graph
+     *
+     * @param graph graph quantized by this quantizer
+     */
+    public void restore(ComputationGraph graph) {
+        if (floatParams == null) {
+            return;
+        }
+        graph.setParams(floatParams);
+        floatActivations.forEach(ActivationLayer::setActivationFn);
+        floatParams = null;
+        floatActivations.clear();
+        logger.info("FLOAT weights and activations are restored");
+    }
+
+    public Map<String, Double> getActivationRanges() {
+        return activationRanges;
+    }
+
+    private static boolean isQuantizable(Layer layer) {
+        if (!(layer.conf().getLayer() instanceof ActivationLayer)) {
+            return false;
+        }
+        // custom activations (e.g. linear scale of residual branch) are folded into integer arithmetic, not quantized
+        var activation = ((ActivationLayer) layer.conf().getLayer()).getActivationFn();
+        return activation instanceof ActivationReLU || activation.getClass() == ActivationIdentity.class;
+    }
+
+    private void quantizeActivation(ActivationLayer layerConf, double range) {
+        if (range == 0) {
+            return;
+        }
+        IActivation activation = layerConf.getActivationFn();
+        floatActivations.put(layerConf, activation);
+        if (activation instanceof ActivationReLU) {
+            layerConf.setActivationFn(new ActivationFakeQuant(activation, range / UINT8_MAX, 0, UINT8_MAX));
+        } else {
+            layerConf.setActivationFn(new ActivationFakeQuant(activation, range / INT8_MAX, -INT8_MAX, INT8_MAX));
+        }
+    }
+
+    /**
+     * @param weights weights array (quantized in place)
+     * @param channelsFirst true if output channel is the first dimension, otherwise it is the last one
+     * @return amount of quantized weights
+     */
+    private static long quantizeWeights(INDArray weights, boolean channelsFirst) {
+        var values = weights.dup('c').data().asFloat();
+        int channels = (int) (channelsFirst ? weights.size(0) : weights.size(weights.rank() - 1));
+        int channelLength = values.length / channels;
+        // offset of i-th weight of channel is channel * channelStride + i * weightStride
+        int channelStride = channelsFirst ? channelLength : 1;
+        int weightStride = channelsFirst ? 1 : channels;
+        for (int channel = 0; channel < channels; channel++) {
+            float range = 0;
+            for (int i = 0; i < channelLength; i++) {
+                range = Math.max(range, Math.abs(values[channel * channelStride + i * weightStride]));
+            }
+            if (range == 0) {
+                continue;
+            }
+            float scale = range / INT8_MAX;
+            for (int i = 0; i < channelLength; i++) {
+                int offset = channel * channelStride + i * weightStride;
+                values[offset] = Math.round(values[offset] / scale) * scale;
+            }
+        }
+        weights.assign(Nd4j.create(values, weights.shape(), 'c'));
+        return values.length;
+    }
+}
@@ -0,0 +1,70 @@
+package com.github.darrmirr.models.quantization;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.ops.transforms.Transforms;
+
+import java.util.List;
+
+/**
+ * Accuracy of quantized model comparing with model in FLOAT precision
+ *
+ * Drift is cosine distance between FLOAT and quantized embeddings of the same face.
+ * Agreement is share of test faces recognized as the same label by both models,
+ * every model recognizes test face by the nearest gallery face embedded by the same model.
+ */
+@AllArgsConstructor
+@Getter
+public class QuantizationReport {
+    private final int faces;
+    private final double meanDrift;
+    private final double maxDrift;
+    private final double agreement;
+
+    /**
+     * @param referenceTests test face embeddings of FLOAT model [faces, features]
+     * @param quantizedTests test face embeddings of quantized model [faces, features]
+     * @param referenceGallery gallery face embeddings of FLOAT model [gallery faces, features]
+     * @param quantizedGallery gallery face embeddings of quantized model [gallery faces, features]
+     * @param galleryLabels labels of gallery faces
+     * @return report
+     */
+    public static QuantizationReport of(INDArray referenceTests, INDArray quantizedTests,
+                                        INDArray referenceGallery, INDArray quantizedGallery, List<String> galleryLabels) {
+        int faces = referenceTests.rows();
+        double driftSum = 0;
+        double maxDrift = 0;
+        int agreed = 0;
+        for (int face = 0; face < faces; face++) {
+            var reference = referenceTests.getRow(face);
+            var quantized = quantizedTests.getRow(face);
+            var drift = 1 - Transforms.cosineSim(reference, quantized);
+            driftSum += drift;
+            maxDrift = Math.max(maxDrift, drift);
+            if (galleryLabels.get(nearest(referenceGallery, reference)).equals(galleryLabels.get(nearest(quantizedGallery, quantized)))) {
+                agreed++;
+            }
+        }
+        return new QuantizationReport(faces, faces == 0 ? 0 : driftSum / faces, maxDrift, faces == 0 ? 1 : (double) agreed / faces);
+    }
+
+    private static int nearest(INDArray gallery, INDArray embedding) {
+        int nearest = 0;
+        double minDistance = Double.MAX_VALUE;
+        for (int row = 0; row < gallery.rows(); row++) {
+            var distance = gallery.getRow(row).distance2(embedding);
+            if (distance < minDistance) {
+                minDistance = distance;
+                nearest = row;
+            }
+        }
+        return nearest;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("faces : %d, mean drift (cosine distance) : %.6f, max drift : %.6f, recognition agreement : %.1f%%",
+                faces, meanDrift, maxDrift, agreement * 100);
+    }
+}
@@ -0,0 +1,77 @@
+package com.github.darrmirr.utils;
+
+import org.springframework.core.io.AbstractResource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Resource of bytes kept in byte buffer
+ *
+ * Direct byte buffer is passed to image decoder without copy (see ImageDecoder).
+ */
+public class ByteBufferResource extends AbstractResource {
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+    private final ByteBuffer buffer;
+    private final String description;
+
+    public ByteBufferResource(ByteBuffer buffer, String description) {
+        this.buffer = buffer;
+        this.description = description;
+    }
+
+    /**
+     * Read stream to direct byte buffer
+     *
+     * @param inputStream input stream (it is not closed)
+     * @param length expected amount of bytes (negative if it is unknown)
+     * @param description resource description
+     * @return resource of bytes read from stream
+     * @throws IOException exception while stream is read
+     */
+    public static ByteBufferResource read(InputStream inputStream, long length, String description) throws IOException {
+        var buffer = ByteBuffer.allocateDirect(length > 0 ? (int) length : INITIAL_CAPACITY);
+        ReadableByteChannel channel = Channels.newChannel(inputStream);
+        while (channel.read(buffer) >= 0) {
+            if (!buffer.hasRemaining()) {
+                if (length > 0) {
+                    break;
+                }
+                var grown = ByteBuffer.allocateDirect(buffer.capacity() * 2);
+                buffer.flip();
+                grown.put(buffer);
+                buffer = grown;
+            }
+        }
+        buffer.flip();
+        return new ByteBufferResource(buffer, description);
+    }
+
+    /**
+     * @return view of bytes (from position to limit)
+     */
+    public ByteBuffer getByteBuffer() {
+        return buffer.duplicate();
+    }
+
+    @Override
+    public long contentLength() {
+        return buffer.remaining();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        var bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return new ByteArrayInputStream(bytes);
+    }
+
+    @Override
+    public String getDescription() {
+        return description;
+    }
+}
@@ -0,0 +1,36 @@
+package com.github.darrmirr.utils;
+
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.factory.Nd4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationEnvironmentPreparedEvent;
+import org.springframework.context.ApplicationListener;
+
+/**
+ * Set ND4J global data type before any array or model is created
+ *
+ * Data type is read from "nd4j.data-type" property (FLOAT by default).
+ * All arrays of detection and recognition pipeline (images, network parameters and outputs,
+ * bounding boxes and feature vectors) use this data type.
+ *
+ * notice: HALF data type is not supported by ND4J CPU backend.
+ */
+public class DataTypeInitializer implements ApplicationListener<ApplicationEnvironmentPreparedEvent> {
+    private static final Logger logger = LoggerFactory.getLogger(DataTypeInitializer.class);
+    public static final String DATA_TYPE_PROPERTY = "nd4j.data-type";
+
+    @Override
+    public void onApplicationEvent(ApplicationEnvironmentPreparedEvent event) {
+        var dataType = event.getEnvironment().getProperty(DATA_TYPE_PROPERTY, DataBuffer.Type.FLOAT.name());
+        apply(DataBuffer.Type.valueOf(dataType.toUpperCase()));
+    }
+
+    public static void apply(DataBuffer.Type dataType) {
+        if (dataType != DataBuffer.Type.FLOAT && dataType != DataBuffer.Type.DOUBLE) {
+            throw new IllegalArgumentException("unsupported data type : " + dataType);
+        }
+        Nd4j.setDataType(dataType);
+        logger.info("ND4J data type : {}", Nd4j.dataType());
+    }
+}
@@ -0,0 +1,39 @@
+package com.github.darrmirr.utils;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+/**
+ * Image decoded to NCHW array
+ *
+ * Image could be downscaled during decode. Scale is kept in order to
+ * convert coordinates at decoded image to original image ones.
+ * Downscaled image could keep original image at full resolution too (e.g. for tiled face detection),
+ * so decoded image should be closed in order to release it.
+ */
+
+@AllArgsConstructor
+@Getter
+public class DecodedImage implements AutoCloseable {
+    private INDArray image;
+    /** ratio of original image size to decoded image one (1 if image is not downscaled) */
+    private double scale;
+    /** original image at full resolution (null if it is not kept) */
+    private FullResolutionImage fullResolution;
+
+    public DecodedImage(INDArray image, double scale) {
+        this(image, scale, null);
+    }
+
+    public boolean isDownscaled() {
+        return scale != 1;
+    }
+
+    @Override
+    public void close() {
+        if (fullResolution != null) {
+            fullResolution.close();
+        }
+    }
+}
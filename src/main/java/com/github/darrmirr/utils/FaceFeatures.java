@@ -4,6 +4,8 @@ import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
 import org.springframework.core.io.Resource;
 
 import java.util.List;
@@ -15,4 +17,15 @@ import java.util.List;
 public class FaceFeatures {
     private Resource image;
     private List<ImageFace> imageFaces;
+
+    /**
+     * @return feature vectors of all faces stacked into matrix (row per face) to search them by single query
+     */
+    public INDArray getFeatureVectors() {
+        return Nd4j.vstack(imageFaces
+                .stream()
+                .map(imageFace ->
+                        imageFace.getFeatureVector().reshape(1, imageFace.getFeatureVector().length()))
+                .toArray(INDArray[]::new));
+    }
 }
@@ -0,0 +1,51 @@
+package com.github.darrmirr.utils;
+
+import org.bytedeco.javacpp.opencv_core.Mat;
+import org.bytedeco.javacpp.opencv_core.Rect;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+/**
+ * Image at full resolution kept as decoded 8-bit pixels (OpenCV Mat)
+ *
+ * Regions of image (e.g. tiles of tiled face detection and faces) are converted to NCHW arrays on demand,
+ * so float arrays are proportional to region size. Pixels of the whole image take 1 byte per channel
+ * (quarter of float array of the same image), but they are still proportional to image size.
+ * Regions could be read by several threads concurrently.
+ */
+public class FullResolutionImage implements AutoCloseable {
+    private final Mat mat;
+
+    /**
+     * @param mat decoded image (image data is shared, not copied)
+     */
+    FullResolutionImage(Mat mat) {
+        this.mat = new Mat(mat);
+    }
+
+    public int getHeight() {
+        return mat.rows();
+    }
+
+    public int getWidth() {
+        return mat.cols();
+    }
+
+    /**
+     * @param region image region (x2 and y2 are exclusive, region is clipped by image bounds)
+     * @return NCHW array of region pixels
+     */
+    public INDArray crop(BoundBox region) {
+        int x1 = Math.max(region.x1, 0);
+        int y1 = Math.max(region.y1, 0);
+        int x2 = Math.min(region.x2, getWidth());
+        int y2 = Math.min(region.y2, getHeight());
+        try (Mat regionMat = new Mat(mat, new Rect(x1, y1, x2 - x1, y2 - y1))) {
+            return ImageDecoder.toNCHW(regionMat);
+        }
+    }
+
+    @Override
+    public void close() {
+        mat.close();
+    }
+}
@@ -0,0 +1,267 @@
+package com.github.darrmirr.utils;
+
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.opencv_core.Mat;
+import org.bytedeco.javacpp.opencv_core.Size;
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+import static org.bytedeco.javacpp.opencv_core.CV_8UC1;
+import static org.bytedeco.javacpp.opencv_imgcodecs.*;
+import static org.bytedeco.javacpp.opencv_imgproc.INTER_AREA;
+import static org.bytedeco.javacpp.opencv_imgproc.resize;
+
+/**
+ * Decode image to NCHW array
+ *
+ * Encoded bytes are passed to OpenCV decoder without copy if byte buffer is direct (e.g. memory-mapped file
+ * or HTTP request body, see ByteBufferResource). Heap buffer is copied to native memory once.
+ * Decoded pixels are written to NCHW array that is allocated once : every image row is read from decoded image
+ * by single bulk copy and every channel row is written to array by single bulk copy.
+ *
+ * Image could be downscaled during decode (JPEG DCT scaling by 1/2, 1/4 or 1/8),
+ * so large image never exists at full resolution if only small image is required.
+ * Reduced image is never smaller than requested size.
+ *
+ * notice: OpenCV 3.4 supports DCT scaling for image files only (imread). Image decoded from bytes (imdecode)
+ *         is resized by OpenCV right after decode, so full resolution image does not reach ND4J anyway.
+ *
+ * Large image could be kept at full resolution as 8-bit pixels beside downscaled array
+ * (see DecodedImage.getFullResolution), then image is decoded at full resolution and resized after decode.
+ */
+
+@Component
+public class ImageDecoder {
+    private static final Logger logger = LoggerFactory.getLogger(ImageDecoder.class);
+    private static final int[] REDUCTIONS = { 8, 4, 2 };
+    private boolean downscale;
+
+    @Autowired
+    public ImageDecoder(@Value("${image.decode.downscale:true}") boolean downscale) {
+        this.downscale = downscale;
+    }
+
+    public ImageDecoder() {
+        this(true);
+    }
+
+    /**
+     * Decode image file
+     *
+     * @param imageFile image file path
+     * @param minSize min size of decoded image larger side (image is not downscaled if value is less or equal 0)
+     * @return decoded image
+     * @throws IOException exception while file is read or image cannot be decoded
+     */
+    public DecodedImage decode(Path imageFile, int minSize) throws IOException {
+        return decode(imageFile, minSize, 0);
+    }
+
+    /**
+     * Decode image file and keep large image at full resolution
+     *
+     * @param imageFile image file path
+     * @param minSize min size of decoded image larger side (image is not downscaled if value is less or equal 0)
+     * @param fullResolutionSize min size of larger side of downscaled image that is kept at full resolution too
+     *                           (0 means image is never kept)
+     * @return decoded image
+     * @throws IOException exception while file is read or image cannot be decoded
+     */
+    public DecodedImage decode(Path imageFile, int minSize, int fullResolutionSize) throws IOException {
+        int[] originalSize = null;
+        var reduction = 1;
+        if (downscale && minSize > 0) {
+            try (var imageStream = ImageIO.createImageInputStream(imageFile.toFile())) {
+                originalSize = readSize(imageStream);
+            }
+            reduction = reduction(originalSize, minSize);
+        }
+        var fullResolution = isFullResolution(originalSize, reduction, fullResolutionSize);
+        try (Mat decodedMat = imread(imageFile.toString(), decodeFlags(fullResolution ? 1 : reduction))) {
+            return toDecodedImage(decodedMat, originalSize, reduction, fullResolution);
+        }
+    }
+
+    /**
+     * Decode image bytes
+     *
+     * @param buffer encoded image bytes (from position to limit)
+     * @param minSize min size of decoded image larger side (image is not downscaled if value is less or equal 0)
+     * @return decoded image
+     * @throws IOException exception if image cannot be decoded
+     */
+    public DecodedImage decode(ByteBuffer buffer, int minSize) throws IOException {
+        return decode(buffer, minSize, 0);
+    }
+
+    /**
+     * Decode image bytes and keep large image at full resolution
+     *
+     * @param buffer encoded image bytes (from position to limit)
+     * @param minSize min size of decoded image larger side (image is not downscaled if value is less or equal 0)
+     * @param fullResolutionSize min size of larger side of downscaled image that is kept at full resolution too
+     *                           (0 means image is never kept)
+     * @return decoded image
+     * @throws IOException exception if image cannot be decoded
+     */
+    public DecodedImage decode(ByteBuffer buffer, int minSize, int fullResolutionSize) throws IOException {
+        int[] originalSize = null;
+        var reduction = 1;
+        if (downscale && minSize > 0) {
+            try (var imageStream = ImageIO.createImageInputStream(new ByteBufferInputStream(buffer.duplicate()))) {
+                originalSize = readSize(imageStream);
+            }
+            reduction = reduction(originalSize, minSize);
+        }
+        var fullResolution = isFullResolution(originalSize, reduction, fullResolutionSize);
+        try (BytePointer encoded = new BytePointer(buffer.slice());
+             Mat encodedMat = new Mat(1, buffer.remaining(), CV_8UC1, encoded);
+             Mat decodedMat = imdecode(encodedMat, decodeFlags(fullResolution ? 1 : reduction))) {
+            return toDecodedImage(decodedMat, originalSize, reduction, fullResolution);
+        }
+    }
+
+    // downscaled image is kept at full resolution if it is large enough
+    private boolean isFullResolution(int[] originalSize, int reduction, int fullResolutionSize) {
+        return reduction > 1 && fullResolutionSize > 0 && Math.max(originalSize[0], originalSize[1]) >= fullResolutionSize;
+    }
+
+    private DecodedImage toDecodedImage(Mat decodedMat, int[] originalSize, int reduction, boolean fullResolution) throws IOException {
+        if (decodedMat == null || decodedMat.empty()) {
+            throw new IOException("cannot decode image");
+        }
+        if (reduction > 1) {
+            var reducedWidth = ceilDiv(originalSize[0], reduction);
+            var reducedHeight = ceilDiv(originalSize[1], reduction);
+            if (decodedMat.cols() > reducedWidth || decodedMat.rows() > reducedHeight) {
+                // decoder does not support scaling (e.g. it is not JPEG image) or image is decoded at full resolution,
+                // so image is resized after decode
+                try (Mat reducedMat = new Mat()) {
+                    resize(decodedMat, reducedMat, new Size(reducedWidth, reducedHeight), 0, 0, INTER_AREA);
+                    var decodedImage = toDecodedImage(reducedMat, originalSize, reduction, false);
+                    return fullResolution
+                            ? new DecodedImage(decodedImage.getImage(), reduction, new FullResolutionImage(decodedMat))
+                            : decodedImage;
+                }
+            }
+        }
+        logger.debug("decode image to {}x{} (reduction 1/{})", decodedMat.cols(), decodedMat.rows(), reduction);
+        return new DecodedImage(toNCHW(decodedMat), reduction);
+    }
+
+    // max reduction that keeps image larger side greater or equal to min size
+    private int reduction(int[] originalSize, int minSize) {
+        if (originalSize == null) {
+            return 1;
+        }
+        for (int reduction : REDUCTIONS) {
+            if (Math.max(originalSize[0], originalSize[1]) / reduction >= minSize) {
+                return reduction;
+            }
+        }
+        return 1;
+    }
+
+    // EXIF orientation is ignored in order to keep decoded image size consistent with image header
+    private int decodeFlags(int reduction) {
+        switch (reduction) {
+            case 8: return IMREAD_REDUCED_COLOR_8 | IMREAD_IGNORE_ORIENTATION;
+            case 4: return IMREAD_REDUCED_COLOR_4 | IMREAD_IGNORE_ORIENTATION;
+            case 2: return IMREAD_REDUCED_COLOR_2 | IMREAD_IGNORE_ORIENTATION;
+            default: return IMREAD_COLOR | IMREAD_IGNORE_ORIENTATION;
+        }
+    }
+
+    private int ceilDiv(int value, int divider) {
+        return (value + divider - 1) / divider;
+    }
+
+    // write interleaved BGR pixels to array of shape [1, channels, height, width]
+    static INDArray toNCHW(Mat mat) {
+        int height = mat.rows();
+        int width = mat.cols();
+        int channels = mat.channels();
+        var image = Nd4j.create(new int[] { 1, channels, height, width }, 'c');
+        // row buffers are reused for all rows
+        var pixels = new byte[width * channels];
+        var channelRow = new float[width];
+        var rowPointer = new BytePointer(mat.data());
+        var floatData = image.data().dataType() == DataBuffer.Type.FLOAT ? image.data().asNioFloat() : null;
+        long rowStep = mat.step1() * mat.elemSize1();
+        for (int y = 0; y < height; y++) {
+            rowPointer.position(y * rowStep).get(pixels);
+            for (int c = 0; c < channels; c++) {
+                for (int x = 0; x < width; x++) {
+                    channelRow[x] = pixels[x * channels + c] & 0xff;
+                }
+                int offset = (c * height + y) * width;
+                if (floatData != null) {
+                    floatData.position(offset);
+                    floatData.put(channelRow);
+                } else {
+                    for (int x = 0; x < width; x++) {
+                        image.data().put(offset + x, channelRow[x]);
+                    }
+                }
+            }
+        }
+        return image;
+    }
+
+    // read image width and height from image header only
+    private int[] readSize(ImageInputStream imageStream) {
+        if (imageStream == null) {
+            return null;
+        }
+        var readers = ImageIO.getImageReaders(imageStream);
+        if (!readers.hasNext()) {
+            return null;
+        }
+        var reader = readers.next();
+        try {
+            reader.setInput(imageStream, true, true);
+            return new int[] { reader.getWidth(0), reader.getHeight(0) };
+        } catch (IOException e) {
+            logger.debug("cannot read image size from header", e);
+            return null;
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            length = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, length);
+            return length;
+        }
+    }
+}
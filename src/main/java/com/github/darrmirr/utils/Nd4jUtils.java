@@ -1,7 +1,7 @@
 package com.github.darrmirr.utils;
 
+import org.nd4j.linalg.api.buffer.DataBuffer;
 import org.nd4j.linalg.api.ndarray.INDArray;
-import org.nd4j.linalg.api.shape.Shape;
 import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.linalg.indexing.conditions.Condition;
 import org.slf4j.Logger;
@@ -12,7 +12,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -94,19 +94,31 @@ public class Nd4jUtils {
     public static INDArray findFitIndexes(INDArray array, final Condition condition) {
         assert array.rank() == 2;
 
-        var indexesList = new ArrayList<INDArray>();
-        Shape.iterate(array, coord -> {
-            if (condition.apply(array.getDouble(coord[0]))) {
-                var indexArray = Nd4j
-                        .create(new double[][] { {coord[0][0], coord[0][1] }})
-                        .transposei();
-                indexesList.add(indexArray);
+        var data = contiguous(array).data();
+        var isDouble = data.dataType() == DataBuffer.Type.DOUBLE;
+        var rows = array.rows();
+        var columns = array.columns();
+        var rowIndexes = new float[rows * columns];
+        var columnIndexes = new float[rows * columns];
+        var found = 0;
+        for (int row = 0, i = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++, i++) {
+                // plain ternary would promote float value to double
+                Number value = isDouble ? (Number) data.getDouble(i) : (Number) data.getFloat(i);
+                if (condition.apply(value)) {
+                    rowIndexes[found] = row;
+                    columnIndexes[found] = column;
+                    found++;
+                }
             }
-        });
-        if (indexesList.isEmpty()) {
+        }
+        if (found == 0) {
             return null;
         }
-        var indexesArray = Nd4j.hstack(indexesList);
+        var indexesArray = Nd4j.create(new float[][] {
+                Arrays.copyOf(rowIndexes, found),
+                Arrays.copyOf(columnIndexes, found)
+        });
         return array.rows() == 1 ? indexesArray.getRow(1) : indexesArray;
     }
 
@@ -135,6 +147,16 @@ public class Nd4jUtils {
         return imageMatrix;
     }
 
+    /**
+     * Resize image using nearest neighbor interpolation
+     *
+     * Pixels are copied between data buffers directly in array data type (no conversion to double for float arrays)
+     *
+     * @param img image array of shape [1, 3, h, w]
+     * @param hs required image height
+     * @param ws required image width
+     * @return resized image of shape [1, 3, hs, ws]
+     */
     public static INDArray imresample(INDArray img, int hs, int ws) {
         long[] shape = img.shape();
         long h = shape[2];
@@ -142,17 +164,90 @@ public class Nd4jUtils {
         float dx = (float) w / ws;
         float dy = (float) h / hs;
         INDArray im_data = Nd4j.create(new long[] { 1, 3, hs, ws });
+        var srcData = contiguous(img).data();
+        var dstData = im_data.data();
+        var isDouble = dstData.dataType() == DataBuffer.Type.DOUBLE;
+        var srcColumns = new long[ws];
+        for (int a3 = 0; a3 < ws; a3++) {
+            srcColumns[a3] = (long) Math.floor(a3 * dx);
+        }
+        long dstIdx = 0;
         for (int a1 = 0; a1 < 3; a1++) {
             for (int a2 = 0; a2 < hs; a2++) {
-                for (int a3 = 0; a3 < ws; a3++) {
-                    im_data.putScalar(new long[] { 0, a1, a2, a3 },
-                            img.getDouble(0, a1, (long) Math.floor(a2 * dy), (long) Math.floor(a3 * dx)));
+                long srcRowIdx = (a1 * h + (long) Math.floor(a2 * dy)) * w;
+                for (int a3 = 0; a3 < ws; a3++, dstIdx++) {
+                    if (isDouble) {
+                        dstData.put(dstIdx, srcData.getDouble(srcRowIdx + srcColumns[a3]));
+                    } else {
+                        dstData.put(dstIdx, srcData.getFloat(srcRowIdx + srcColumns[a3]));
+                    }
                 }
             }
         }
         return im_data;
     }
 
+    /**
+     * Resize faces using nearest neighbor interpolation and prewhiten every face by its own mean and std
+     *
+     * Face pixels are gathered once : mean and std are accumulated while resized face is written to batch,
+     * then resized face is normalized in place (std is adjusted to 1 / sqrt(pixels) at least as FaceNet does).
+     *
+     * @param faces face images of shape [1, 3, h, w] (sizes could differ)
+     * @param hs required face height
+     * @param ws required face width
+     * @return batch of prewhitened faces of shape [faces, 3, hs, ws]
+     */
+    public static INDArray resizeAndPrewhiten(List<INDArray> faces, int hs, int ws) {
+        int faceLength = 3 * hs * ws;
+        var batch = new float[faces.size() * faceLength];
+        var srcColumns = new int[ws];
+        for (int face = 0; face < faces.size(); face++) {
+            var img = faces.get(face);
+            int h = (int) img.size(2);
+            int w = (int) img.size(3);
+            var src = contiguous(img).data().asFloat();
+            float dx = (float) w / ws;
+            float dy = (float) h / hs;
+            for (int a3 = 0; a3 < ws; a3++) {
+                srcColumns[a3] = (int) Math.floor(a3 * dx);
+            }
+            int offset = face * faceLength;
+            int dstIdx = offset;
+            double sum = 0;
+            double sumSquares = 0;
+            for (int a1 = 0; a1 < 3; a1++) {
+                for (int a2 = 0; a2 < hs; a2++) {
+                    int srcRowIdx = (a1 * h + (int) Math.floor(a2 * dy)) * w;
+                    for (int a3 = 0; a3 < ws; a3++, dstIdx++) {
+                        float value = src[srcRowIdx + srcColumns[a3]];
+                        batch[dstIdx] = value;
+                        sum += value;
+                        sumSquares += value * value;
+                    }
+                }
+            }
+            double mean = sum / faceLength;
+            // bias corrected std as INDArray.std does
+            double std = Math.sqrt(Math.max(0, (sumSquares - sum * mean) / (faceLength - 1)));
+            float scale = (float) (1 / Math.max(std, 1.0 / Math.sqrt(faceLength)));
+            float shift = (float) mean;
+            for (int i = offset; i < offset + faceLength; i++) {
+                batch[i] = (batch[i] - shift) * scale;
+            }
+        }
+        return Nd4j.create(batch, new int[] { faces.size(), 3, hs, ws }, 'c');
+    }
+
+    // array with c ordering, default strides and zero offset, so array data buffer could be read linearly
+    private static INDArray contiguous(INDArray array) {
+        if (array.ordering() == 'c' && array.offset() == 0 && !array.isView()
+                && Arrays.equals(array.stride(), Nd4j.getStrides(array.shape(), 'c'))) {
+            return array;
+        }
+        return array.dup('c');
+    }
+
     public List<INDArray> crop(List<BoundBox> boxes, INDArray image) {
         if (boxes == null) {
             return Collections.emptyList();
@@ -0,0 +1,59 @@
+package com.github.darrmirr.web;
+
+import com.github.darrmirr.concurrent.BoundedExecutor;
+import com.github.darrmirr.concurrent.VirtualThreads;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Executor configuration for HTTP API
+ *
+ * Face detection and recognition are performed at executor's threads,
+ * so servlet container threads are released as soon as request body is read.
+ * Amount of accepted requests is bounded: request is rejected if limit is reached (backpressure).
+ *
+ * Virtual thread per request is used if it is enabled and JVM supports it (Java 21+).
+ * Image decode and other blocking operations do not hold platform threads in this case,
+ * but neural network inference is still limited by InferenceLimiter.
+ * Amount of in-flight virtual thread requests is bounded separately from platform pool size.
+ * Platform thread pool is used otherwise.
+ */
+
+@Configuration
+public class ApiExecutorConfiguration {
+    private static final Logger logger = LoggerFactory.getLogger(ApiExecutorConfiguration.class);
+    public static final String RECOGNITION_EXECUTOR = "recognitionExecutor";
+
+    @Bean(name = RECOGNITION_EXECUTOR)
+    public TaskExecutor recognitionExecutor(
+            @Value("${api.executor.virtual-threads:true}") boolean virtualThreads,
+            @Value("${api.executor.pool-size:2}") int poolSize,
+            @Value("${api.executor.queue-capacity:16}") int queueCapacity,
+            @Value("${api.executor.max-in-flight:256}") int maxInFlight
+    ) {
+        if (virtualThreads) {
+            var virtualThreadExecutor = VirtualThreads.newVirtualThreadPerTaskExecutor();
+            if (virtualThreadExecutor.isPresent()) {
+                logger.info("recognition executor : virtual thread per request");
+                return new BoundedExecutor(virtualThreadExecutor.get(), maxInFlight);
+            }
+            logger.info("virtual threads are not supported, platform thread pool is used");
+        }
+        var executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("recognition-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        // executor is initialized by Spring (afterPropertiesSet)
+        return executor;
+    }
+}
@@ -0,0 +1,190 @@
+package com.github.darrmirr.web;
+
+import com.github.darrmirr.FaceDetector;
+import com.github.darrmirr.featurebank.FeatureBank;
+import com.github.darrmirr.models.mtcnn.DetectionRequest;
+import com.github.darrmirr.utils.ByteBufferResource;
+import com.github.darrmirr.utils.ImageFace;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.web.bind.annotation.*;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * HTTP API to detect, recognize and enroll faces
+ *
+ * Each endpoint accepts image bytes as request body (it is read to direct byte buffer, so image decoder
+ * gets it without copy), e.g.
+ * curl --data-binary @image.jpg -H "Content-Type: application/octet-stream" localhost:8080/recognize
+ *
+ * Request processing is handed over to recognition executor. Response status 429 (Too Many Requests)
+ * is returned if executor is saturated.
+ */
+
+@RestController
+public class FaceRecognitionController {
+    private static final Logger logger = LoggerFactory.getLogger(FaceRecognitionController.class);
+    private static final String PARTIAL_RESULT_HEADER = "X-Partial-Result";
+    private FaceDetector faceDetector;
+    private FeatureBank featureBank;
+    private TaskExecutor executor;
+
+    @Autowired
+    public FaceRecognitionController(
+            FaceDetector faceDetector,
+            FeatureBank featureBank,
+            @Qualifier(ApiExecutorConfiguration.RECOGNITION_EXECUTOR) TaskExecutor executor
+    ) {
+        this.faceDetector = faceDetector;
+        this.featureBank = featureBank;
+        this.executor = executor;
+    }
+
+    /**
+     * Detect faces on image
+     *
+     * If deadline is set, image pyramid scales of the smallest faces are skipped when time is running out.
+     * Header X-Partial-Result is true in that case.
+     *
+     * @param deadlineMillis time budget of request (counted from request arrival), no deadline if it is absent
+     * @param httpRequest request which body is image bytes
+     * @return bound boxes of detected faces
+     */
+    @PostMapping(path = "/detect", consumes = MediaType.ALL_VALUE)
+    public CompletableFuture<ResponseEntity<List<FaceResponse>>> detect(
+            @RequestParam(name = "deadline-ms", required = false) Long deadlineMillis,
+            HttpServletRequest httpRequest) {
+        var request = deadlineMillis == null
+                ? DetectionRequest.create()
+                : DetectionRequest.create().withTimeout(Duration.ofMillis(deadlineMillis));
+        var image = readBody(httpRequest);
+        return submit(() -> {
+            var result = faceDetector.detect(image, request);
+            var faces = result
+                    .getFaces()
+                    .stream()
+                    .map(imageFace ->
+                            new FaceResponse(imageFace.getBoundBox()))
+                    .collect(toList());
+            return ResponseEntity
+                    .ok()
+                    .header(PARTIAL_RESULT_HEADER, String.valueOf(result.isPartial()))
+                    .body(faces);
+        });
+    }
+
+    /**
+     * Recognize faces on image using feature bank
+     *
+     * @param httpRequest request which body is image bytes
+     * @return bound boxes, labels and distances of detected faces
+     */
+    @PostMapping(path = "/recognize", consumes = MediaType.ALL_VALUE)
+    public CompletableFuture<List<FaceResponse>> recognize(HttpServletRequest httpRequest) {
+        var image = readBody(httpRequest);
+        return submit(() -> {
+            var faceFeatures = faceDetector.getFaceFeatures(image);
+            var imageFaces = faceFeatures.getImageFaces();
+            if (imageFaces.isEmpty()) {
+                return List.<FaceResponse>of();
+            }
+            // all faces of image are searched by single query
+            var searchResult = featureBank.search(faceFeatures.getFeatureVectors(), 1);
+            var responses = new ArrayList<FaceResponse>(imageFaces.size());
+            for (int i = 0; i < imageFaces.size(); i++) {
+                var boundBox = imageFaces.get(i).getBoundBox();
+                responses.add(searchResult
+                        .getMatches(i)
+                        .stream()
+                        .findFirst()
+                        .map(featureMatch ->
+                                new FaceResponse(boundBox, featureMatch))
+                        .orElseGet(() ->
+                                new FaceResponse(boundBox)));
+            }
+            return responses;
+        });
+    }
+
+    /**
+     * Put faces found on image to feature bank
+     *
+     * @param label label (person name) for faces on image
+     * @param httpRequest request which body is image bytes
+     * @return bound boxes of enrolled faces
+     */
+    @PostMapping(path = "/enroll", consumes = MediaType.ALL_VALUE)
+    public CompletableFuture<List<FaceResponse>> enroll(@RequestParam String label, HttpServletRequest httpRequest) {
+        var image = readBody(httpRequest);
+        return submit(() -> {
+            var imageFaces = faceDetector.getFaceFeatures(image).getImageFaces();
+            for (ImageFace imageFace : imageFaces) {
+                featureBank.put(label, imageFace.getFeatureVector());
+            }
+            return imageFaces
+                    .stream()
+                    .map(imageFace ->
+                            new FaceResponse(imageFace.getBoundBox(), label, null, null))
+                    .collect(toList());
+        });
+    }
+
+    @ExceptionHandler(TaskRejectedException.class)
+    public ResponseEntity<Map<String, String>> onRejected(TaskRejectedException e) {
+        logger.warn("request is rejected : {}", e.getMessage());
+        return ResponseEntity
+                .status(HttpStatus.TOO_MANY_REQUESTS)
+                .body(Map.of("error", "too many requests"));
+    }
+
+    @ExceptionHandler(UncheckedIOException.class)
+    public ResponseEntity<Map<String, String>> onImageError(UncheckedIOException e) {
+        logger.warn("error to read image", e);
+        return ResponseEntity
+                .badRequest()
+                .body(Map.of("error", "cannot read image"));
+    }
+
+    private <T> CompletableFuture<T> submit(ImageTask<T> task) {
+        Supplier<T> supplier = () -> {
+            try {
+                return task.call();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+        return CompletableFuture.supplyAsync(supplier, executor);
+    }
+
+    private Resource readBody(HttpServletRequest httpRequest) {
+        try {
+            return ByteBufferResource.read(httpRequest.getInputStream(), httpRequest.getContentLengthLong(), "http request body");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface ImageTask<T> {
+        T call() throws IOException;
+    }
+}
@@ -0,0 +1,31 @@
+package com.github.darrmirr.web;
+
+import com.github.darrmirr.featurebank.FeatureMatch;
+import com.github.darrmirr.utils.BoundBox;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * HTTP API response item that describes single face found on image
+ */
+
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+@Setter
+public class FaceResponse {
+    private BoundBox boundBox;
+    private String label;
+    private Double distance;
+    private Boolean recognized;
+
+    public FaceResponse(BoundBox boundBox) {
+        this.boundBox = boundBox;
+    }
+
+    public FaceResponse(BoundBox boundBox, FeatureMatch featureMatch) {
+        this(boundBox, featureMatch.getLabel(), featureMatch.getDistance(), featureMatch.isRecognized());
+    }
+}
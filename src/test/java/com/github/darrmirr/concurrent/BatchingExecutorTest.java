@@ -0,0 +1,131 @@
+package com.github.darrmirr.concurrent;
+
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.ArrayList;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.fail;
+
+public class BatchingExecutorTest {
+
+    @Test
+    public void outputRowsAreRoutedToRequests() throws Exception {
+        ExecutorService requests = Executors.newFixedThreadPool(8);
+        try (var executor = new BatchingExecutor("test-batching", this::inference, 16, 50)) {
+            var futures = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < 32; i++) {
+                var input = Nd4j.rand(1 + i % 3, 4);
+                futures.add(requests.submit(() -> {
+                    var output = executor.output(input);
+                    return output[0].equalsWithEps(input.mul(2), 1e-6) && output[1].equalsWithEps(input.sum(1), 1e-6);
+                }));
+            }
+            for (Future<Boolean> future : futures) {
+                assertThat(future.get(), is(true));
+            }
+            assertThat(executor.getAverageRequestsPerBatch(), greaterThan(1.0));
+        } finally {
+            requests.shutdown();
+        }
+    }
+
+    @Test
+    public void requestArrivedDuringWaitDoesNotExceedMaxBatchSize() throws Exception {
+        ExecutorService requests = Executors.newFixedThreadPool(2);
+        var batchSizes = new CopyOnWriteArrayList<Long>();
+        try (var executor = new BatchingExecutor("test-batching", input -> {
+            batchSizes.add(input.size(0));
+            return inference(input);
+        }, 4, 1000)) {
+            var first = Nd4j.rand(2, 4);
+            var second = Nd4j.rand(3, 4);
+            var firstOutput = requests.submit(() -> executor.output(first));
+            // batching thread waits for other inputs while the second (oversized) input is submitted
+            Thread.sleep(200);
+            var secondOutput = requests.submit(() -> executor.output(second));
+
+            assertThat(firstOutput.get(10, TimeUnit.SECONDS)[0].equalsWithEps(first.mul(2), 1e-6), is(true));
+            assertThat(secondOutput.get(10, TimeUnit.SECONDS)[0].equalsWithEps(second.mul(2), 1e-6), is(true));
+            assertThat(batchSizes, contains(2L, 3L));
+        } finally {
+            requests.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void inferenceErrorIsThrownToRequest() {
+        try (var executor = new BatchingExecutor("test-batching", input -> {
+            throw new IllegalStateException("inference error");
+        }, 16, 1)) {
+            executor.output(Nd4j.rand(2, 4));
+        }
+    }
+
+    @Test
+    public void batchingThreadSurvivesInferenceError() {
+        var failures = new AtomicInteger();
+        try (var executor = new BatchingExecutor("test-batching", input -> {
+            if (failures.getAndIncrement() == 0) {
+                throw new OutOfMemoryError("inference error");
+            }
+            return inference(input);
+        }, 16, 1)) {
+            try {
+                executor.output(Nd4j.rand(2, 4));
+                fail("inference error is expected");
+            } catch (OutOfMemoryError e) {
+                assertThat(e.getMessage(), is("inference error"));
+            }
+
+            var input = Nd4j.rand(2, 4);
+            assertThat(executor.output(input)[0].equalsWithEps(input.mul(2), 1e-6), is(true));
+        }
+    }
+
+    @Test
+    public void requestsAreFailedWhenExecutorIsClosed() throws Exception {
+        ExecutorService requests = Executors.newFixedThreadPool(8);
+        var started = new CountDownLatch(1);
+        var executor = new BatchingExecutor("test-batching", input -> {
+            started.countDown();
+            return inference(input);
+        }, 1, 0);
+        try {
+            var futures = new ArrayList<Future<INDArray[]>>();
+            for (int i = 0; i < 200; i++) {
+                futures.add(requests.submit(() -> executor.output(Nd4j.rand(1, 4))));
+            }
+            started.await();
+            executor.close();
+            // every request is either executed or failed (none of them waits forever)
+            for (Future<INDArray[]> future : futures) {
+                try {
+                    future.get(10, TimeUnit.SECONDS);
+                } catch (ExecutionException e) {
+                    assertThat(e.getCause(), instanceOf(IllegalStateException.class));
+                }
+            }
+        } finally {
+            requests.shutdown();
+        }
+    }
+
+    private INDArray[] inference(INDArray input) {
+        return new INDArray[] { input.mul(2), input.sum(1) };
+    }
+}
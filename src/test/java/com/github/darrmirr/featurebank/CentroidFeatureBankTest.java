@@ -0,0 +1,75 @@
+package com.github.darrmirr.featurebank;
+
+import com.github.darrmirr.featurebank.verifier.EuclideanFeatureVerifier;
+import org.junit.Test;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.ops.transforms.Transforms;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+
+public class CentroidFeatureBankTest {
+    private static final int FEATURE_LENGTH = 128;
+    private static final int IDENTITIES = 50;
+    private static final int EXEMPLARS = 5;
+    private EuclideanFeatureVerifier verifier = new EuclideanFeatureVerifier();
+
+    @Test
+    public void centroidIsRunningMean() {
+        var featureBank = new CentroidFeatureBank(verifier, 4);
+        var features = Nd4j.randn(EXEMPLARS, FEATURE_LENGTH);
+        for (int i = 0; i < EXEMPLARS; i++) {
+            featureBank.put("label", features.getRow(i));
+        }
+
+        var expectedCentroid = features.mean(0).reshape(1, FEATURE_LENGTH);
+
+        assertThat(Transforms.euclideanDistance(featureBank.getCentroid("label"), expectedCentroid), closeTo(0, 1e-5));
+        assertThat(featureBank.get("label").equals(features.getRow(0)), is(true));
+    }
+
+    @Test
+    public void getReturnsCopies() {
+        var featureBank = new CentroidFeatureBank(verifier, 4);
+        var feature = Nd4j.rand(1, FEATURE_LENGTH);
+        featureBank.put("label", feature);
+
+        featureBank.get("label").assign(0);
+        featureBank.getCentroid("label").assign(0);
+
+        assertThat(featureBank.get("label").equals(feature), is(true));
+        assertThat(featureBank.getCentroid("label").equals(feature), is(true));
+    }
+
+    @Test
+    public void twoStageSearchMatchesExhaustiveSearch() {
+        var featureBank = new CentroidFeatureBank(verifier, 4);
+        var exhaustiveBank = new DataSetFeatureBank(verifier);
+        for (int identity = 0; identity < IDENTITIES; identity++) {
+            var center = Transforms.unitVec(Nd4j.randn(1, FEATURE_LENGTH));
+            for (int i = 0; i < EXEMPLARS; i++) {
+                var feature = Transforms.unitVec(center.add(Nd4j.randn(1, FEATURE_LENGTH).muli(0.03)));
+                featureBank.put("label-" + identity, feature);
+                exhaustiveBank.put("label-" + identity, feature);
+            }
+        }
+        var queries = Nd4j.randn(IDENTITIES, FEATURE_LENGTH).muli(0.03);
+        for (int identity = 0; identity < IDENTITIES; identity++) {
+            queries.getRow(identity).addi(featureBank.getCentroid("label-" + identity));
+        }
+
+        var actual = featureBank.search(queries, 3);
+        var expected = exhaustiveBank.search(queries, 3);
+
+        for (int query = 0; query < queries.rows(); query++) {
+            for (int i = 0; i < 3; i++) {
+                var actualMatch = actual.getMatches(query).get(i);
+                var expectedMatch = expected.getMatches(query).get(i);
+                assertThat(actualMatch.getLabel(), is(expectedMatch.getLabel()));
+                assertThat(actualMatch.getRow(), is(expectedMatch.getRow()));
+                assertThat(actualMatch.getDistance(), closeTo(expectedMatch.getDistance(), 1e-4));
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.github.darrmirr.featurebank;
+
+import com.github.darrmirr.featurebank.verifier.EuclideanFeatureVerifier;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.ops.transforms.Transforms;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+
+public class ConcurrentFeatureBankTest {
+    private static final int FEATURE_LENGTH = 128;
+    private static final int WRITERS = 4;
+    private static final int READERS = 4;
+    private static final int PUTS_PER_WRITER = 250;
+    private ConcurrentFeatureBank featureBank = new ConcurrentFeatureBank(new EuclideanFeatureVerifier());
+
+    @Test
+    public void concurrentPutAndGetSimilar() throws Exception {
+        Map<String, INDArray> enrolled = new ConcurrentHashMap<>();
+        List<String> enrolledLabels = new CopyOnWriteArrayList<>();
+        var writersDone = new AtomicBoolean();
+        var reads = new AtomicInteger();
+        var start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(WRITERS + READERS);
+        try {
+            List<Future<?>> writers = new ArrayList<>();
+            for (int w = 0; w < WRITERS; w++) {
+                int writer = w;
+                writers.add(executor.submit(() -> {
+                    start.await();
+                    // ND4J random generator is per thread with the same default seed
+                    Nd4j.getRandom().setSeed(writer + 1);
+                    for (int i = 0; i < PUTS_PER_WRITER; i++) {
+                        var label = "writer-" + writer + "-" + i;
+                        var feature = Transforms.unitVec(Nd4j.randn(1, FEATURE_LENGTH));
+                        featureBank.put(label, feature);
+                        // feature vector is visible to readers when put returns
+                        enrolled.put(label, feature);
+                        enrolledLabels.add(label);
+                    }
+                    return null;
+                }));
+            }
+            List<Future<?>> readers = new ArrayList<>();
+            for (int r = 0; r < READERS; r++) {
+                readers.add(executor.submit(() -> {
+                    start.await();
+                    int lastSize = 0;
+                    while (!writersDone.get()) {
+                        int size = featureBank.size();
+                        assertThat("snapshot size never decreases", size >= lastSize, is(true));
+                        lastSize = size;
+                        if (enrolledLabels.isEmpty()) {
+                            continue;
+                        }
+                        var label = enrolledLabels.get(ThreadLocalRandom.current().nextInt(enrolledLabels.size()));
+                        var feature = enrolled.get(label);
+                        assertThat(featureBank.getNearest(feature).orElseThrow().getLabel(), is(label));
+                        assertThat(featureBank.getSimilar(feature).equals(feature), is(true));
+                        reads.incrementAndGet();
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> writer : writers) {
+                writer.get(2, TimeUnit.MINUTES);
+            }
+            writersDone.set(true);
+            for (Future<?> reader : readers) {
+                reader.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(featureBank.size(), is(WRITERS * PUTS_PER_WRITER));
+        assertThat(reads.get(), greaterThan(0));
+        for (Map.Entry<String, INDArray> entry : enrolled.entrySet()) {
+            assertThat(featureBank.get(entry.getKey()).equals(entry.getValue()), is(true));
+        }
+    }
+
+    @Test
+    public void getReturnsCopy() {
+        var feature = Nd4j.rand(1, FEATURE_LENGTH);
+        featureBank.put("label", feature);
+
+        featureBank.get("label").assign(0);
+
+        assertThat(featureBank.get("label").equals(feature), is(true));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void putAllChecksAmountOfLabels() {
+        featureBank.putAll(List.of("label"), Nd4j.rand(2, FEATURE_LENGTH));
+    }
+
+    @Test
+    public void rejectedWriteDoesNotLoseConcurrentWrites() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(WRITERS);
+        try {
+            for (int attempt = 0; attempt < 20; attempt++) {
+                var bank = new ConcurrentFeatureBank(new EuclideanFeatureVerifier());
+                var start = new CountDownLatch(1);
+                var results = new ArrayList<Future<Boolean>>();
+                for (int w = 0; w < WRITERS; w++) {
+                    // the first puts to empty bank race with different feature lengths
+                    int length = w % 2 == 0 ? FEATURE_LENGTH : FEATURE_LENGTH / 2;
+                    var label = "writer-" + w;
+                    results.add(executor.submit(() -> {
+                        start.await();
+                        try {
+                            bank.put(label, Nd4j.rand(1, length));
+                            return true;
+                        } catch (IllegalArgumentException e) {
+                            return false;
+                        }
+                    }));
+                }
+                start.countDown();
+                int published = 0;
+                for (int w = 0; w < WRITERS; w++) {
+                    boolean returned = results.get(w).get(1, TimeUnit.MINUTES);
+                    var stored = bank.get("writer-" + w);
+                    // put returns if and only if its feature vector is published
+                    assertThat(returned, is(!stored.isEmpty()));
+                    published += stored.isEmpty() ? 0 : 1;
+                }
+                assertThat(bank.size(), is(published));
+                assertThat(published, greaterThan(0));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
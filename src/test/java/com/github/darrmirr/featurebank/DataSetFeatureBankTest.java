@@ -0,0 +1,99 @@
+package com.github.darrmirr.featurebank;
+
+import com.github.darrmirr.featurebank.verifier.CosineFeatureVerifier;
+import com.github.darrmirr.featurebank.verifier.EuclideanFeatureVerifier;
+import com.github.darrmirr.featurebank.verifier.FeatureVerifier;
+import org.junit.Test;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+import org.nd4j.linalg.ops.transforms.Transforms;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+
+public class DataSetFeatureBankTest {
+    private static final int FEATURE_LENGTH = 128;
+    private DataSetFeatureBank featureBank = new DataSetFeatureBank(new EuclideanFeatureVerifier());
+
+    @Test
+    public void labelCorrespondsToRow() {
+        var featureB = Transforms.unitVec(Nd4j.randn(1, FEATURE_LENGTH));
+        var featureA = Transforms.unitVec(Nd4j.randn(1, FEATURE_LENGTH));
+        var featureB2 = Transforms.unitVec(Nd4j.randn(1, FEATURE_LENGTH));
+
+        featureBank.put("b", featureB);
+        featureBank.put("a", featureA);
+        featureBank.put("b", featureB2);
+
+        assertThat(featureBank.get("a").equals(featureA), is(true));
+        assertThat(featureBank.get("b").equals(featureB), is(true));
+        assertThat(featureBank.getNearest(featureA).orElseThrow().getLabel(), is("a"));
+        assertThat(featureBank.getNearest(featureB2).orElseThrow().getLabel(), is("b"));
+        assertThat(featureBank.get("c").isEmpty(), is(true));
+    }
+
+    @Test
+    public void getReturnsCopy() {
+        var feature = Nd4j.rand(1, FEATURE_LENGTH);
+        featureBank.put("a", feature);
+
+        featureBank.get("a").assign(0);
+
+        assertThat(featureBank.get("a").equals(feature), is(true));
+    }
+
+    @Test
+    public void searchMatchesVerifier() {
+        for (FeatureVerifier verifier : List.of(new EuclideanFeatureVerifier(), new CosineFeatureVerifier())) {
+            var bank = new DataSetFeatureBank(verifier);
+            var features = Nd4j.randn(50, FEATURE_LENGTH);
+            for (int i = 0; i < features.rows(); i++) {
+                bank.put("label-" + i, features.getRow(i));
+            }
+            var queries = Nd4j.randn(7, FEATURE_LENGTH);
+
+            var searchResult = bank.search(queries, 3);
+
+            assertThat(searchResult.size(), is(queries.rows()));
+            for (int q = 0; q < queries.rows(); q++) {
+                var matches = searchResult.getMatches(q);
+                assertThat(matches.size(), is(3));
+                for (FeatureMatch match : matches) {
+                    var expectedDistance = verifier.verify(features.getRow((int) match.getRow()), queries.getRow(q));
+                    assertThat(match.getLabel(), is("label-" + match.getRow()));
+                    assertThat(match.getDistance(), closeTo(expectedDistance, 1e-3));
+                }
+                // the nearest one is equal to exhaustive search by verifier
+                int nearest = 0;
+                for (int i = 1; i < features.rows(); i++) {
+                    if (verifier.verify(features.getRow(i), queries.getRow(q)) < verifier.verify(features.getRow(nearest), queries.getRow(q))) {
+                        nearest = i;
+                    }
+                }
+                assertThat(matches.get(0).getRow(), is((long) nearest));
+            }
+        }
+    }
+
+    @Test
+    public void putAll() {
+        int count = 200_000;
+        var features = Nd4j.rand(count, FEATURE_LENGTH);
+        var labels = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            labels.add("label-" + i);
+        }
+        featureBank.put("first", Nd4j.rand(1, FEATURE_LENGTH));
+
+        featureBank.putAll(labels.subList(0, count / 2), features.get(NDArrayIndex.interval(0, count / 2)));
+        featureBank.putAll(labels.subList(count / 2, count), features.get(NDArrayIndex.interval(count / 2, count)));
+
+        assertThat(featureBank.size(), is(count + 1));
+        assertThat(featureBank.get("label-0").equals(features.getRow(0)), is(true));
+        assertThat(featureBank.get("label-" + (count - 1)).equals(features.getRow(count - 1)), is(true));
+    }
+}
@@ -0,0 +1,85 @@
+package com.github.darrmirr.featurebank;
+
+import com.github.darrmirr.featurebank.verifier.EuclideanFeatureVerifier;
+import org.junit.Test;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.ops.transforms.Transforms;
+
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+public class HalfPrecisionFeatureBankTest {
+    private static final int FEATURE_LENGTH = 512;
+
+    @Test
+    public void halfFloatRoundTrip() {
+        for (float value : new float[]{ 0f, -0f, 1f, -2f, 0.5f, 65504f, 6.1035156e-5f, 5.9604645e-8f }) {
+            assertThat(HalfFloat.toFloat(HalfFloat.fromFloat(value)), is(value));
+        }
+        assertThat(HalfFloat.toFloat(HalfFloat.fromFloat(1e6f)), is(Float.POSITIVE_INFINITY));
+        assertThat(Float.isNaN(HalfFloat.toFloat(HalfFloat.fromFloat(Float.NaN))), is(true));
+
+        var random = new Random(42);
+        for (int i = 0; i < 10_000; i++) {
+            var value = (float) random.nextGaussian();
+            var halfValue = HalfFloat.toFloat(HalfFloat.fromFloat(value));
+            // binary16 has 11 bits of precision
+            assertThat((double) Math.abs(halfValue - value), lessThanOrEqualTo(Math.abs(value) / 2048.0 + 1e-7));
+        }
+    }
+
+    @Test
+    public void nearestMatchesFloatBank() {
+        var verifier = new EuclideanFeatureVerifier();
+        var halfBank = new HalfPrecisionFeatureBank(verifier);
+        var floatBank = new DataSetFeatureBank(verifier);
+        for (int i = 0; i < 20; i++) {
+            var feature = Transforms.unitVec(Nd4j.randn(1, FEATURE_LENGTH));
+            halfBank.put("label-" + i, feature);
+            floatBank.put("label-" + i, feature);
+        }
+
+        for (int i = 0; i < 20; i++) {
+            var featureTest = Transforms.unitVec(Nd4j.randn(1, FEATURE_LENGTH));
+            var halfMatch = halfBank.getNearest(featureTest).orElseThrow();
+            var floatMatch = floatBank.getNearest(featureTest).orElseThrow();
+
+            assertThat(halfMatch.getLabel(), is(floatMatch.getLabel()));
+            assertThat(halfMatch.getDistance(), closeTo(floatMatch.getDistance(), 1e-3));
+        }
+        var stored = halfBank.get("label-3");
+        assertThat(Transforms.euclideanDistance(stored, floatBank.get("label-3")), closeTo(0, 1e-3));
+    }
+
+    @Test
+    public void topKMatchesFloatBank() {
+        var verifier = new EuclideanFeatureVerifier();
+        var halfBank = new HalfPrecisionFeatureBank(verifier);
+        var floatBank = new DataSetFeatureBank(verifier);
+        // more feature vectors than single decoded block
+        var features = Nd4j.randn(300, FEATURE_LENGTH);
+        for (int i = 0; i < features.rows(); i++) {
+            halfBank.put("label-" + i, features.getRow(i));
+            floatBank.put("label-" + i, features.getRow(i));
+        }
+        var queries = features.getRows(7, 150, 299).add(Nd4j.randn(3, FEATURE_LENGTH).muli(0.1));
+
+        var halfResult = halfBank.search(queries, 5);
+        var floatResult = floatBank.search(queries, 5);
+
+        for (int q = 0; q < queries.rows(); q++) {
+            var halfMatches = halfResult.getMatches(q);
+            var floatMatches = floatResult.getMatches(q);
+            assertThat(halfMatches.size(), is(5));
+            assertThat(halfMatches.get(0).getRow(), is(floatMatches.get(0).getRow()));
+            for (int i = 0; i < halfMatches.size(); i++) {
+                assertThat(halfMatches.get(i).getLabel(), is("label-" + halfMatches.get(i).getRow()));
+                assertThat(halfMatches.get(i).getDistance(), closeTo(floatMatches.get(i).getDistance(), 1e-1));
+            }
+        }
+    }
+}
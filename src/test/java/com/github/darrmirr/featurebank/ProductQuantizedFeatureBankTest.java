@@ -0,0 +1,97 @@
+package com.github.darrmirr.featurebank;
+
+import com.github.darrmirr.featurebank.verifier.EuclideanFeatureVerifier;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.ops.transforms.Transforms;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+
+public class ProductQuantizedFeatureBankTest {
+    private static final int FEATURE_LENGTH = 128;
+    private static final int TRAINING_SIZE = 512;
+    private ProductQuantizedFeatureBank featureBank;
+
+    @Before
+    public void setUp() {
+        Nd4j.getRandom().setSeed(7);
+        featureBank = new ProductQuantizedFeatureBank(new EuclideanFeatureVerifier(), 16, TRAINING_SIZE, 64, "");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        featureBank.destroy();
+    }
+
+    @Test
+    public void exactSearchBeforeTraining() {
+        var features = fill(100);
+
+        for (int i = 0; i < features.size(); i += 10) {
+            var featureMatch = featureBank.getNearest(features.get(i)).orElseThrow();
+
+            assertThat(featureMatch.getLabel(), is("label-" + i));
+            assertThat(featureMatch.getDistance(), closeTo(0, 1e-5));
+        }
+    }
+
+    @Test
+    public void topKAfterTraining() {
+        var features = fill(1_000);
+        var queries = Nd4j.vstack(features.get(10), features.get(500), features.get(990));
+
+        var searchResult = featureBank.search(queries, 3);
+
+        for (int q = 0; q < queries.rows(); q++) {
+            var matches = searchResult.getMatches(q);
+            assertThat(matches.size(), is(3));
+            assertThat(matches.get(0).getRow(), is(q == 0 ? 10L : q == 1 ? 500L : 990L));
+            for (int i = 1; i < matches.size(); i++) {
+                assertThat(matches.get(i).getDistance(), greaterThanOrEqualTo(matches.get(i - 1).getDistance()));
+                assertThat(matches.get(i).getLabel(), is("label-" + matches.get(i).getRow()));
+            }
+        }
+    }
+
+    @Test
+    public void compressedSearchAfterTraining() {
+        var features = fill(2_000);
+        int found = 0;
+        int queries = 200;
+
+        for (int i = 0; i < queries; i++) {
+            int row = i * 10;
+            var noise = Nd4j.randn(1, FEATURE_LENGTH).muli(0.01);
+            var featureTest = Transforms.unitVec(features.get(row).add(noise));
+            var featureMatch = featureBank.getNearest(featureTest).orElseThrow();
+            if (featureMatch.getLabel().equals("label-" + row)) {
+                found++;
+            }
+        }
+
+        assertThat(featureBank.getBytesPerFace(), is(16));
+        assertThat(found, greaterThanOrEqualTo(queries * 95 / 100));
+        // exact feature vector is read from disk
+        assertThat(Transforms.euclideanDistance(featureBank.get("label-1500"), features.get(1500)), closeTo(0, 1e-6));
+    }
+
+    private List<INDArray> fill(int count) {
+        var features = new ArrayList<INDArray>(count);
+        for (int i = 0; i < count; i++) {
+            var feature = Transforms.unitVec(Nd4j.randn(1, FEATURE_LENGTH));
+            featureBank.put("label-" + i, feature);
+            features.add(feature);
+        }
+        return features;
+    }
+}
@@ -0,0 +1,117 @@
+package com.github.darrmirr.featurebank;
+
+import com.github.darrmirr.featurebank.shard.LocalShard;
+import com.github.darrmirr.featurebank.shard.RemoteShard;
+import com.github.darrmirr.featurebank.shard.Shard;
+import com.github.darrmirr.featurebank.shard.ShardServer;
+import com.github.darrmirr.featurebank.verifier.EuclideanFeatureVerifier;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.ops.transforms.Transforms;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.fail;
+
+public class ShardedFeatureBankTest {
+    private static final int FEATURE_LENGTH = 128;
+    private static final int K = 5;
+    private EuclideanFeatureVerifier verifier = new EuclideanFeatureVerifier();
+
+    @Test
+    public void localShards() {
+        var shardedBank = new ShardedFeatureBank(verifier, new String[]{ "local", "local", "local" });
+        try {
+            assertSameAsSingleBank(shardedBank);
+        } finally {
+            shardedBank.destroy();
+        }
+    }
+
+    @Test
+    public void remoteShards() throws IOException {
+        try (var server1 = new ShardServer(new LocalShard(verifier), 0);
+             var server2 = new ShardServer(new LocalShard(verifier), 0)) {
+            server1.start();
+            server2.start();
+            var shardedBank = new ShardedFeatureBank(List.of(
+                    new LocalShard(verifier),
+                    new RemoteShard("localhost", server1.getPort()),
+                    new RemoteShard("localhost", server2.getPort())));
+            try {
+                assertSameAsSingleBank(shardedBank);
+                assertThat(shardedBank.get("absent").isEmpty(), is(true));
+            } finally {
+                shardedBank.destroy();
+            }
+        }
+    }
+
+    @Test
+    public void failedRemoteCommandDoesNotBreakShard() throws IOException {
+        var localShard = new LocalShard(verifier);
+        // shard that returns search result which fails to be written to connection (label is null)
+        var failingShard = new Shard() {
+            public void put(String label, INDArray featureVector) {
+                localShard.put(label, featureVector);
+            }
+
+            public INDArray get(String label) {
+                return localShard.get(label);
+            }
+
+            public SearchResult search(INDArray queries, int k) {
+                return new SearchResult(List.of(List.of(new FeatureMatch(null, 0, false, 0))));
+            }
+
+            public void close() {
+                localShard.close();
+            }
+        };
+        try (var server = new ShardServer(failingShard, 0)) {
+            server.start();
+            try (var shard = new RemoteShard("localhost", server.getPort())) {
+                var feature = Transforms.unitVec(Nd4j.randn(1, FEATURE_LENGTH));
+                shard.put("label", feature);
+                try {
+                    shard.search(feature, K);
+                    fail("search should fail");
+                } catch (UncheckedIOException e) {
+                    assertThat(e.getCause().getMessage(), containsString("shard server error"));
+                }
+                // the next request gets its own response
+                assertThat(Transforms.euclideanDistance(shard.get("label"), feature), closeTo(0, 1e-6));
+            }
+        }
+    }
+
+    private void assertSameAsSingleBank(ShardedFeatureBank shardedBank) {
+        var singleBank = new DataSetFeatureBank(verifier);
+        for (int i = 0; i < 300; i++) {
+            // two feature vectors per label
+            var feature = Transforms.unitVec(Nd4j.randn(1, FEATURE_LENGTH));
+            shardedBank.put("label-" + i / 2, feature);
+            singleBank.put("label-" + i / 2, feature);
+        }
+
+        for (int i = 0; i < 20; i++) {
+            var featureTest = Transforms.unitVec(Nd4j.randn(1, FEATURE_LENGTH));
+            var expected = singleBank.search(featureTest, K).getMatches(0);
+            var actual = shardedBank.search(featureTest, K).getMatches(0);
+
+            assertThat(actual.size(), is(K));
+            for (int j = 0; j < K; j++) {
+                assertThat(actual.get(j).getLabel(), is(expected.get(j).getLabel()));
+                assertThat(actual.get(j).getDistance(), closeTo(expected.get(j).getDistance(), 1e-5));
+            }
+        }
+        assertThat(Transforms.euclideanDistance(shardedBank.get("label-7"), singleBank.get("label-7")), closeTo(0, 1e-6));
+    }
+}
@@ -0,0 +1,69 @@
+package com.github.darrmirr.featurebank.verifier;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.function.DoubleSupplier;
+
+/**
+ * Micro benchmark of feature bank scan : one query versus many feature vectors
+ *
+ * It is not a unit test. Run main method with arguments : [amount of stored vectors] [feature length]
+ * Every variant is warmed up before measurement, result is printed as nanoseconds per vector pair.
+ */
+public class DistanceKernelsBenchmark {
+    private static final int WARMUP_ITERATIONS = 20;
+    private static final int ITERATIONS = 50;
+
+    public static void main(String[] args) {
+        var rows = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        var length = args.length > 1 ? Integer.parseInt(args[1]) : 128;
+        var sources = Nd4j.randn(rows, length);
+        var test = Nd4j.randn(1, length);
+        var sourceValues = sources.dup('c').data().asFloat();
+        var testValues = test.data().asFloat();
+        var distances = new float[rows];
+        var sourceRows = new INDArray[rows];
+        var sourceArrays = new float[rows][];
+        for (int row = 0; row < rows; row++) {
+            sourceRows[row] = sources.getRow(row);
+            sourceArrays[row] = sources.getRow(row).dup().data().asFloat();
+        }
+
+        for (FeatureVerifier verifier : new FeatureVerifier[]{ new EuclideanFeatureVerifier(), new CosineFeatureVerifier() }) {
+            var name = verifier.getClass().getSimpleName();
+            measure(name + " Transforms (INDArray pair)", rows, () -> {
+                double sum = 0;
+                for (int row = 0; row < rows; row++) {
+                    sum += verifier.verify(sourceRows[row], test);
+                }
+                return sum;
+            });
+            measure(name + " matrix (INDArray verifyAll)", rows, () -> verifier.verifyAll(sources, test).sumNumber().doubleValue());
+            measure(name + " kernel (float[] pair)", rows, () -> {
+                double sum = 0;
+                for (int row = 0; row < rows; row++) {
+                    sum += verifier.verify(sourceArrays[row], testValues);
+                }
+                return sum;
+            });
+            measure(name + " kernel (float[] batched)", rows, () -> {
+                verifier.verifyAll(sourceValues, rows, testValues, distances);
+                return distances[rows - 1];
+            });
+        }
+    }
+
+    private static void measure(String name, int rows, DoubleSupplier scan) {
+        double blackhole = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            blackhole += scan.getAsDouble();
+        }
+        var start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            blackhole += scan.getAsDouble();
+        }
+        var nanosPerPair = (double) (System.nanoTime() - start) / ITERATIONS / rows;
+        System.out.printf("%-60s %10.1f ns/pair (%s)%n", name, nanosPerPair, blackhole > 0 ? "+" : "-");
+    }
+}
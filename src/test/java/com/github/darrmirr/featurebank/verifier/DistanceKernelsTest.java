@@ -0,0 +1,46 @@
+package com.github.darrmirr.featurebank.verifier;
+
+import org.junit.Test;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.ops.transforms.Transforms;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+
+public class DistanceKernelsTest {
+    // 131 is not divisible by unroll factor, so tail loop is checked as well
+    private static final int[] LENGTHS = { 128, 131 };
+
+    @Test
+    public void pairDistancesMatchTransforms() {
+        for (int length : LENGTHS) {
+            var a = Nd4j.randn(1, length);
+            var b = Nd4j.randn(1, length);
+            var aValues = a.data().asFloat();
+            var bValues = b.data().asFloat();
+
+            assertThat((double) DistanceKernels.euclidean(aValues, bValues), closeTo(Transforms.euclideanDistance(a, b), 1e-4));
+            assertThat((double) DistanceKernels.cosine(aValues, bValues), closeTo(Transforms.cosineDistance(a, b), 1e-5));
+        }
+    }
+
+    @Test
+    public void batchedDistancesMatchVerifiers() {
+        int rows = 33;
+        for (int length : LENGTHS) {
+            var sources = Nd4j.randn(rows, length);
+            var test = Nd4j.randn(1, length);
+            var sourceValues = sources.dup('c').data().asFloat();
+            var testValues = test.data().asFloat();
+            for (FeatureVerifier verifier : new FeatureVerifier[]{ new EuclideanFeatureVerifier(), new CosineFeatureVerifier() }) {
+                var distances = new float[rows];
+
+                verifier.verifyAll(sourceValues, rows, testValues, distances);
+
+                for (int row = 0; row < rows; row++) {
+                    assertThat((double) distances[row], closeTo(verifier.verify(sources.getRow(row), test), 1e-4));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.github.darrmirr.models;
+
+import com.github.darrmirr.models.custom.ActivationLinear;
+import org.deeplearning4j.nn.conf.layers.ActivationLayer;
+import org.deeplearning4j.nn.conf.layers.BatchNormalization;
+import org.deeplearning4j.nn.conf.layers.DropoutLayer;
+import org.deeplearning4j.nn.conf.layers.Layer;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.params.BatchNormalizationParamInitializer;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.ops.transforms.Transforms;
+import org.springframework.core.io.Resource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+public class InceptionResNetV1Test {
+    // random model weights in format of weights files (little endian floats layer by layer)
+    private static byte[] weights;
+
+    @BeforeClass
+    public static void setUp() {
+        var graph = new ComputationGraph(new InceptionResNetV1(new Resource[0], false).getConfiguration());
+        graph.init();
+        Nd4j.getRandom().setSeed(7);
+        for (org.deeplearning4j.nn.api.Layer layer : graph.getLayers()) {
+            if (layer.conf().getLayer() instanceof BatchNormalization) {
+                // non trivial batch normalization statistics
+                var channels = (int) layer.getParam(BatchNormalizationParamInitializer.GAMMA).length();
+                layer.setParam(BatchNormalizationParamInitializer.GAMMA, Nd4j.rand(1, channels).addi(0.5));
+                layer.setParam(BatchNormalizationParamInitializer.BETA, Nd4j.randn(1, channels).muli(0.1));
+                layer.setParam(BatchNormalizationParamInitializer.GLOBAL_MEAN, Nd4j.randn(1, channels).muli(0.1));
+                layer.setParam(BatchNormalizationParamInitializer.GLOBAL_VAR, Nd4j.rand(1, channels).addi(0.5));
+            }
+        }
+        var buffer = ByteBuffer.allocate((int) graph.numParams() * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (org.deeplearning4j.nn.api.Layer layer : graph.getLayers()) {
+            if (layer.numParams() > 0) {
+                buffer.asFloatBuffer().put(layer.params().dup().data().asFloat());
+                buffer.position(buffer.position() + (int) layer.numParams() * Float.BYTES);
+            }
+        }
+        weights = buffer.array();
+    }
+
+    @Test
+    public void foldedGraphIsEquivalent() throws IOException {
+        var graph = model(false).getGraph();
+        var foldedGraph = model(true).getGraph();
+        var face = Nd4j.rand(new int[] { 1, 3, 160, 160 }).muli(255);
+
+        var embeddings = graph.output(face)[1];
+        var foldedEmbeddings = foldedGraph.output(face)[1];
+
+        assertThat(foldedGraph.getNumLayers(), lessThan(graph.getNumLayers()));
+        assertThat(Transforms.cosineSim(embeddings, foldedEmbeddings), greaterThan(0.9999));
+        assertThat(foldedEmbeddings.sub(embeddings).amaxNumber().doubleValue(), lessThan(1e-3));
+        assertThat(hasLayer(foldedGraph, layer -> layer instanceof BatchNormalization), is(false));
+        assertThat(hasLayer(foldedGraph, layer -> layer instanceof DropoutLayer), is(false));
+        assertThat(hasLayer(foldedGraph, layer -> layer instanceof ActivationLayer
+                && ((ActivationLayer) layer).getActivationFn() instanceof ActivationLinear), is(false));
+    }
+
+    private static InceptionResNetV1 model(boolean foldBatchNorm) {
+        return new InceptionResNetV1(new Resource[0], foldBatchNorm) {
+            @Override
+            public Supplier<InputStream> modelWeights() {
+                return () -> new ByteArrayInputStream(weights);
+            }
+        };
+    }
+
+    private static boolean hasLayer(ComputationGraph graph, Predicate<Layer> condition) {
+        for (org.deeplearning4j.nn.api.Layer layer : graph.getLayers()) {
+            if (condition.test(layer.conf().getLayer())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,82 @@
+package com.github.darrmirr.models;
+
+import com.github.darrmirr.concurrent.InferenceLimiter;
+import com.github.darrmirr.models.mtcnn.Mtcnn;
+import com.github.darrmirr.models.mtcnn.MtcnnUtils;
+import com.github.darrmirr.models.mtcnn.networks.OutputNet;
+import com.github.darrmirr.models.mtcnn.networks.ProposeNet;
+import com.github.darrmirr.models.mtcnn.networks.RefineNet;
+import com.github.darrmirr.models.mtcnn.networks.dl4j.OutputNetModel;
+import com.github.darrmirr.models.mtcnn.networks.dl4j.ProposeNetModel;
+import com.github.darrmirr.models.mtcnn.networks.dl4j.RefineNetModel;
+import com.github.darrmirr.utils.ImageDecoder;
+import com.github.darrmirr.utils.Nd4jUtils;
+import org.bytedeco.javacpp.Pointer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.springframework.core.io.ClassPathResource;
+
+import java.util.List;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Steady state RSS harness of inference workspace
+ *
+ * Run face detection requests inside inference workspace and print growth of physical memory (RSS) after warm up.
+ * It is not a unit test, because RSS is process wide and depends on environment. Run main method with arguments:
+ *
+ * [requests amount] [max RSS growth in MB]
+ *
+ * e.g. 10000 64 (process exits with status 1 if RSS grows more than max growth)
+ */
+public class InferenceWorkspaceRssHarness {
+
+    public static void main(String[] args) throws Exception {
+        var requestsAmount = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        var maxRssGrowth = (args.length > 1 ? Long.parseLong(args[1]) : 64) * 1024 * 1024;
+        var warmUpRequests = Math.max(requestsAmount / 10, 30);
+
+        var mtcnnUtils = new MtcnnUtils();
+        var inferenceLimiter = new InferenceLimiter();
+        var proposeNet = new ProposeNet(new ProposeNetModel(), mtcnnUtils, inferenceLimiter);
+        var refineNet = new RefineNet(new RefineNetModel(), mtcnnUtils, inferenceLimiter);
+        var outputNet = new OutputNet(new OutputNetModel(), mtcnnUtils, inferenceLimiter);
+        proposeNet.init();
+        refineNet.init();
+        outputNet.init();
+        var mtcnn = new Mtcnn(proposeNet, refineNet, outputNet, mtcnnUtils);
+        var imageFile = new ClassPathResource("images/dataset/test/Adele/01.jpg").getFile().toPath();
+        var image = new ImageDecoder().decode(imageFile, 0).getImage();
+        var inferenceWorkspace = new InferenceWorkspace(true, 2);
+
+        for (int i = 0; i < warmUpRequests; i++) {
+            inferenceWorkspace.execute(() -> request(mtcnn, image));
+        }
+        System.gc();
+        var rssAfterWarmUp = Pointer.physicalBytes();
+
+        for (int i = 0; i < requestsAmount; i++) {
+            inferenceWorkspace.execute(() -> request(mtcnn, image));
+        }
+        System.gc();
+        var rssGrowth = Pointer.physicalBytes() - rssAfterWarmUp;
+        inferenceWorkspace.destroy();
+
+        System.out.printf("RSS after warm up : %d MB, growth after %d requests : %d KB%n",
+                rssAfterWarmUp / 1024 / 1024, requestsAmount, rssGrowth / 1024);
+        if (rssGrowth > maxRssGrowth) {
+            System.out.printf("RSS growth exceeds %d MB%n", maxRssGrowth / 1024 / 1024);
+            System.exit(1);
+        }
+    }
+
+    // face detection request with detached results (FaceNet weights are not bundled with sources)
+    private static List<INDArray> request(Mtcnn mtcnn, INDArray image) {
+        var nd4jUtils = new Nd4jUtils();
+        return mtcnn
+                .detectFaces(image)
+                .stream()
+                .map(boundBox -> InferenceWorkspace.detach(nd4jUtils.crop(boundBox, image)))
+                .collect(toList());
+    }
+}
@@ -0,0 +1,98 @@
+package com.github.darrmirr.models;
+
+import com.github.darrmirr.concurrent.InferenceLimiter;
+import com.github.darrmirr.models.mtcnn.Mtcnn;
+import com.github.darrmirr.models.mtcnn.MtcnnUtils;
+import com.github.darrmirr.models.mtcnn.networks.OutputNet;
+import com.github.darrmirr.models.mtcnn.networks.ProposeNet;
+import com.github.darrmirr.models.mtcnn.networks.RefineNet;
+import com.github.darrmirr.models.mtcnn.networks.dl4j.OutputNetModel;
+import com.github.darrmirr.models.mtcnn.networks.dl4j.ProposeNetModel;
+import com.github.darrmirr.models.mtcnn.networks.dl4j.RefineNetModel;
+import com.github.darrmirr.utils.BoundBox;
+import com.github.darrmirr.utils.ImageDecoder;
+import com.github.darrmirr.utils.Nd4jUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class InferenceWorkspaceTest {
+    private static final int INFERENCE_THREADS = 2;
+    private InferenceWorkspace inferenceWorkspace = new InferenceWorkspace(true, INFERENCE_THREADS);
+    private Nd4jUtils nd4jUtils = new Nd4jUtils();
+    private Mtcnn mtcnn;
+    private INDArray image;
+
+    @Before
+    public void setUp() throws IOException {
+        var mtcnnUtils = new MtcnnUtils();
+        var inferenceLimiter = new InferenceLimiter();
+        var proposeNet = new ProposeNet(new ProposeNetModel(), mtcnnUtils, inferenceLimiter);
+        var refineNet = new RefineNet(new RefineNetModel(), mtcnnUtils, inferenceLimiter);
+        var outputNet = new OutputNet(new OutputNetModel(), mtcnnUtils, inferenceLimiter);
+        proposeNet.init();
+        refineNet.init();
+        outputNet.init();
+        mtcnn = new Mtcnn(proposeNet, refineNet, outputNet, mtcnnUtils);
+        var imageFile = new ClassPathResource("images/dataset/test/Adele/01.jpg").getFile().toPath();
+        image = new ImageDecoder().decode(imageFile, 0).getImage();
+    }
+
+    @Test
+    public void detachedResultsAreValid() {
+        var expectedFaces = request();
+
+        var actualFaces = inferenceWorkspace.execute(() -> detach(request()));
+        // next request reuses workspace memory
+        inferenceWorkspace.execute(this::request);
+
+        assertThat(actualFaces, hasSize(expectedFaces.size()));
+        for (int i = 0; i < expectedFaces.size(); i++) {
+            assertThat(actualFaces.get(i).isAttached(), is(false));
+            assertThat(actualFaces.get(i).equals(expectedFaces.get(i)), is(true));
+        }
+    }
+
+    @Test
+    public void requestsOfShortLivedThreadsReuseInferenceThreads() throws InterruptedException {
+        var threadNames = new ConcurrentSkipListSet<String>();
+        for (int i = 0; i < 8; i++) {
+            // new request thread per request (as virtual thread per request)
+            var requestThread = new Thread(() -> inferenceWorkspace.execute(() -> {
+                threadNames.add(Thread.currentThread().getName());
+                return detach(request());
+            }));
+            requestThread.start();
+            requestThread.join();
+        }
+        inferenceWorkspace.destroy();
+
+        assertThat(threadNames.size(), lessThanOrEqualTo(INFERENCE_THREADS));
+        assertThat(threadNames.first(), startsWith("inference-workspace-"));
+    }
+
+    // face detection request without face feature extraction (FaceNet weights are not bundled with sources)
+    private List<INDArray> request() {
+        return mtcnn
+                .detectFaces(image)
+                .stream()
+                .map(boundBox -> nd4jUtils.crop(boundBox, image))
+                .collect(toList());
+    }
+
+    private List<INDArray> detach(List<INDArray> faces) {
+        return faces
+                .stream()
+                .map(InferenceWorkspace::detach)
+                .collect(toList());
+    }
+}
@@ -0,0 +1,150 @@
+package com.github.darrmirr.models.mtcnn;
+
+import org.junit.Test;
+import org.nd4j.linalg.factory.Nd4j;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.IOException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class BoxSetTest {
+
+    @Test
+    public void generate() throws IOException {
+        var regArray = Nd4j.readBinary(new ClassPathResource("generateBox/01-reg_threshold_0_6_scale_0_6.ind").getFile());
+        var scoreArray = Nd4j.readBinary(new ClassPathResource("generateBox/01-score.ind").getFile());
+        var outputArray = Nd4j.readBinary(new ClassPathResource("generateBox/01-output.ind").getFile());
+
+        var boxes = BoxSet.generate(scoreArray, regArray, 0.6, 0.6);
+
+        assertThat(boxes.toArray().eq(outputArray).minNumber(), is(1.0));
+    }
+
+    @Test
+    public void nms_MethodMinFalse() throws IOException {
+        var inputArray = Nd4j.readBinary(new ClassPathResource("nms/01_input_nms_boxes_0.5_false.ind").getFile());
+        var outputArray = Nd4j.readBinary(new ClassPathResource("nms/01_output_nms_boxes_0.5_false.ind").getFile());
+
+        var boxes = BoxSet.of(inputArray);
+        boxes.nms(0.5, false);
+
+        assertThat(boxes.toArray().eq(outputArray).minNumber(), is(1.0));
+    }
+
+    @Test
+    public void nms_MethodMinTrue() throws IOException {
+        var inputArray = Nd4j.readBinary(new ClassPathResource("nms/04_input_nms_boxes_0.7_true.ind").getFile());
+        var outputArray = Nd4j.readBinary(new ClassPathResource("nms/04_output_nms_boxes_0.7_true.ind").getFile());
+
+        var boxes = BoxSet.of(inputArray);
+        boxes.nms(0.7, true);
+
+        assertThat(boxes.toArray().eq(outputArray).minNumber(), is(1.0));
+    }
+
+    @Test
+    public void square_01() throws IOException {
+        var inputArray = Nd4j.readBinary(new ClassPathResource("rerec/01-input-160-160.ind").getFile());
+        var outputArray = Nd4j.readBinary(new ClassPathResource("rerec/01-output.ind").getFile());
+
+        var boxes = BoxSet.of(inputArray);
+        boxes.square(160, 160);
+
+        assertThat(boxes.toArray().eq(outputArray).minNumber(), is(1.0));
+    }
+
+    @Test
+    public void square_03() throws IOException {
+        var inputArray = Nd4j.readBinary(new ClassPathResource("rerec/03-input-160-160.ind").getFile());
+        var outputArray = Nd4j.readBinary(new ClassPathResource("rerec/03-output.ind").getFile());
+
+        var boxes = BoxSet.of(inputArray);
+        boxes.square(160, 160);
+
+        assertThat(boxes.toArray().eq(outputArray).minNumber(), is(1.0));
+    }
+
+    @Test
+    public void topOrdersByScore() throws IOException {
+        var inputArray = Nd4j.readBinary(new ClassPathResource("scoresorted/01_boxes_sort_input.ind").getFile());
+        // indexes of boxes in order of ascending score
+        var order = Nd4j.readBinary(new ClassPathResource("scoresorted/01_boxes_sort_output.ind").getFile()).data().asInt();
+        var expectedBoxes = BoxSet.of(inputArray);
+        var descendingOrder = new int[order.length - 1];
+        for (int i = 0; i < descendingOrder.length; i++) {
+            descendingOrder[i] = order[order.length - 1 - i];
+        }
+        expectedBoxes.select(descendingOrder);
+
+        var boxes = BoxSet.of(inputArray);
+        boxes.top(descendingOrder.length);
+
+        assertThat(boxes.toArray().eq(expectedBoxes.toArray()).minNumber(), is(1.0));
+    }
+
+    @Test
+    public void regressAsArray() {
+        var array = Nd4j.create(new float[][] {
+                { 10, 20, 30, 60, 0.9f, 0.1f, -0.1f, 0.2f, 0.05f },
+                { 0, 0, 12, 12, 0.8f, 0, 0, -0.5f, 0.5f } });
+
+        var boxes = BoxSet.of(array);
+        boxes.regress();
+
+        var expected = Nd4j.create(new float[][] {
+                { 12, 16, 34, 62, 0.9f, 0.1f, -0.1f, 0.2f, 0.05f },
+                { 0, 0, 6, 18, 0.8f, 0, 0, -0.5f, 0.5f } });
+        assertThat(boxes.toArray().equalsWithEps(expected, 1e-5), is(true));
+    }
+
+    @Test
+    public void filterKeepsSingleBox() {
+        var boxes = BoxSet.of(Nd4j.create(new float[][] {
+                { 10, 20, 30, 60, 0, 0, 0, 0, 0 },
+                { 0, 0, 12, 12, 0, 0, 0, 0, 0 } }));
+
+        boxes.update(0, Nd4j.create(new float[] { 0.5f, 0.9f }), Nd4j.create(new float[][] { { 0, 0, 0, 0 }, { 0.1f, 0.2f, 0.3f, 0.4f } }));
+        boxes.filter(0.7);
+
+        assertThat(boxes.size(), is(1));
+        assertThat(boxes.x2(0), is(12));
+        assertThat(boxes.score(0), is(0.9f));
+        assertThat(boxes.toArray().getFloat(0, 8), is(0.4f));
+    }
+
+    @Test
+    public void topKeepsHighestScores() {
+        var boxes = BoxSet.of(Nd4j.create(new float[][] {
+                { 0, 0, 10, 10, 0.7f, 0, 0, 0, 0 },
+                { 0, 0, 20, 20, 0.9f, 0, 0, 0, 0 },
+                { 0, 0, 30, 30, 0.6f, 0, 0, 0, 0 },
+                { 0, 0, 40, 40, 0.8f, 0, 0, 0, 0 } }));
+
+        boxes.top(2);
+
+        assertThat(boxes.size(), is(2));
+        assertThat(boxes.x2(0), is(20));
+        assertThat(boxes.x2(1), is(40));
+    }
+
+    @Test
+    public void dominantKeepsLargestConfidentBox() {
+        var boxes = BoxSet.of(Nd4j.create(new float[][] {
+                { 0, 0, 10, 10, 0.99f, 0, 0, 0, 0 },
+                { 0, 0, 50, 50, 0.80f, 0, 0, 0, 0 },
+                { 0, 0, 30, 30, 0.96f, 0, 0, 0, 0 } }));
+
+        assertThat(boxes.dominant(0.95), is(true));
+        assertThat(boxes.size(), is(1));
+        assertThat(boxes.x2(0), is(30));
+
+        var unconfidentBoxes = BoxSet.of(Nd4j.create(new float[][] {
+                { 0, 0, 50, 50, 0.80f, 0, 0, 0, 0 },
+                { 0, 0, 10, 10, 0.90f, 0, 0, 0, 0 } }));
+
+        assertThat(unconfidentBoxes.dominant(0.95), is(false));
+        assertThat(unconfidentBoxes.x2(0), is(10));
+    }
+}
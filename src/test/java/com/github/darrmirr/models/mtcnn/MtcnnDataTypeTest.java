@@ -0,0 +1,102 @@
+package com.github.darrmirr.models.mtcnn;
+
+import com.github.darrmirr.utils.DataTypeInitializer;
+import com.github.darrmirr.utils.Nd4jUtils;
+import org.junit.After;
+import org.junit.Test;
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.conditions.Conditions;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.nd4j.linalg.indexing.NDArrayIndex.all;
+import static org.nd4j.linalg.indexing.NDArrayIndex.interval;
+
+/**
+ * Check that MTCNN helpers read and write data buffers in array data type
+ *
+ * Values of DOUBLE arrays are not representable in float,
+ * so these tests fail if helper converts values through float (or any other data type).
+ * FLOAT arrays are read from views, so helper has to take array strides and offset into account.
+ */
+public class MtcnnDataTypeTest {
+
+    @After
+    public void restoreDataType() {
+        DataTypeInitializer.apply(DataBuffer.Type.FLOAT);
+    }
+
+    @Test
+    public void imresampleKeepsDoubleValues() {
+        DataTypeInitializer.apply(DataBuffer.Type.DOUBLE);
+        var img = image(1e-9);
+
+        var resampled = Nd4jUtils.imresample(img, 7, 5);
+
+        assertThat(resampled.data().dataType(), is(DataBuffer.Type.DOUBLE));
+        // INDArray.equals compares with epsilon, so compare values exactly
+        assertThat(resampled.data().asDouble(), is(expectedResample(img, 7, 5).data().asDouble()));
+    }
+
+    @Test
+    public void imresampleReadsFloatView() {
+        var img = image(0.25).get(all(), all(), interval(2, 11), interval(1, 8));
+
+        var resampled = Nd4jUtils.imresample(img, 4, 6);
+
+        assertThat(resampled.data().dataType(), is(DataBuffer.Type.FLOAT));
+        assertThat(resampled.data().asFloat(), is(expectedResample(img, 4, 6).data().asFloat()));
+    }
+
+    @Test
+    public void findFitIndexesComparesDoubleValues() {
+        DataTypeInitializer.apply(DataBuffer.Type.DOUBLE);
+        // both values are 0.6f in float
+        var score = Nd4j.create(new double[][] { { 0.6, 0.6000000001 } });
+
+        var fitIndexes = Nd4jUtils.findFitIndexes(score, Conditions.greaterThan(0.60000000005));
+
+        assertThat(fitIndexes.length(), is(1L));
+        assertThat(fitIndexes.getInt(0), is(1));
+    }
+
+    @Test
+    public void findFitIndexesReadsFloatView() {
+        var score = Nd4j.create(new float[][] {
+                { 0.1f, 0.9f, 0.2f },
+                { 0.8f, 0.3f, 0.7f } }).get(all(), interval(1, 3));
+
+        var fitIndexes = Nd4jUtils.findFitIndexes(score, Conditions.greaterThanOrEqual(0.7));
+
+        assertThat(fitIndexes.data().asFloat(), is(new float[] { 0, 1, 0, 1 }));
+    }
+
+    // image of shape [1, 3, 12, 10] which values differ by step
+    private static INDArray image(double step) {
+        var img = Nd4j.create(new long[] { 1, 3, 12, 10 });
+        for (int i = 0; i < img.length(); i++) {
+            img.putScalar(i, 100 + i * step);
+        }
+        return img;
+    }
+
+    // nearest neighbor interpolation by element getters
+    private static INDArray expectedResample(INDArray img, int hs, int ws) {
+        long h = img.size(2);
+        long w = img.size(3);
+        float dx = (float) w / ws;
+        float dy = (float) h / hs;
+        var expected = Nd4j.create(new long[] { 1, 3, hs, ws });
+        for (int c = 0; c < 3; c++) {
+            for (int y = 0; y < hs; y++) {
+                for (int x = 0; x < ws; x++) {
+                    expected.putScalar(new long[] { 0, c, y, x },
+                            img.getDouble(0, c, (long) Math.floor(y * dy), (long) Math.floor(x * dx)));
+                }
+            }
+        }
+        return expected;
+    }
+}
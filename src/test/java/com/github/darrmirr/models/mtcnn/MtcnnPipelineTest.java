@@ -0,0 +1,85 @@
+package com.github.darrmirr.models.mtcnn;
+
+import com.github.darrmirr.concurrent.InferenceLimiter;
+import com.github.darrmirr.models.mtcnn.networks.OutputNet;
+import com.github.darrmirr.models.mtcnn.networks.ProposeNet;
+import com.github.darrmirr.models.mtcnn.networks.RefineNet;
+import com.github.darrmirr.models.mtcnn.networks.dl4j.OutputNetModel;
+import com.github.darrmirr.models.mtcnn.networks.dl4j.ProposeNetModel;
+import com.github.darrmirr.models.mtcnn.networks.dl4j.RefineNetModel;
+import com.github.darrmirr.utils.BoundBox;
+import com.github.darrmirr.utils.ImageDecoder;
+import org.junit.Before;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+
+public class MtcnnPipelineTest {
+    private static final String[] IMAGES = {
+            "images/dataset/test/Adele/01.jpg",
+            "images/dataset/test/Katy_Perry/02-Katy-Perry.jpg",
+            "images/dataset/test/Arnold_Schwarzenegger/04.jpg",
+            "images/dataset/train/Adele/01.jpg"
+    };
+    private Mtcnn mtcnn;
+    private List<INDArray> images;
+
+    @Before
+    public void setUp() throws IOException {
+        var mtcnnUtils = new MtcnnUtils();
+        var inferenceLimiter = new InferenceLimiter();
+        var proposeNet = new ProposeNet(new ProposeNetModel(), mtcnnUtils, inferenceLimiter);
+        var refineNet = new RefineNet(new RefineNetModel(), mtcnnUtils, inferenceLimiter);
+        var outputNet = new OutputNet(new OutputNetModel(), mtcnnUtils, inferenceLimiter);
+        proposeNet.init();
+        refineNet.init();
+        outputNet.init();
+        mtcnn = new Mtcnn(proposeNet, refineNet, outputNet, mtcnnUtils);
+        images = new ArrayList<>();
+        for (String image : IMAGES) {
+            images.add(new ImageDecoder().decode(new ClassPathResource(image).getFile().toPath(), 0).getImage());
+        }
+    }
+
+    @Test
+    public void resultsAreInInputOrder() {
+        var pipeline = new MtcnnPipeline(mtcnn, 1, 2, 1, 2);
+
+        var results = new ArrayList<List<BoundBox>>();
+        var statistics = pipeline.detectFaces(images.stream(), results::add);
+
+        assertThat(results, hasSize(images.size()));
+        for (int i = 0; i < images.size(); i++) {
+            assertThat(toString(results.get(i)), is(toString(mtcnn.detectFaces(images.get(i)))));
+        }
+        assertThat(statistics, hasSize(3));
+        for (MtcnnPipeline.StageStatistics stage : statistics) {
+            assertThat(stage.getImages(), is((long) images.size()));
+            assertThat(stage.getUtilization(), greaterThan(0.0));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void consumerErrorIsThrown() {
+        var pipeline = new MtcnnPipeline(mtcnn, 1, 1, 1, 1);
+
+        pipeline.detectFaces(images.stream(), boxes -> {
+            throw new IllegalStateException("consumer error");
+        });
+    }
+
+    private static String toString(List<BoundBox> boxes) {
+        var builder = new StringBuilder();
+        boxes.forEach(box -> builder.append(box.x1).append(',').append(box.y1).append(',').append(box.x2).append(',').append(box.y2).append(' '));
+        return builder.toString();
+    }
+}
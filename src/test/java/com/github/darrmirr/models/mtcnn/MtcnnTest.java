@@ -0,0 +1,240 @@
+package com.github.darrmirr.models.mtcnn;
+
+import com.github.darrmirr.concurrent.InferenceLimiter;
+import com.github.darrmirr.models.mtcnn.networks.OutputNet;
+import com.github.darrmirr.models.mtcnn.networks.ProposeNet;
+import com.github.darrmirr.models.mtcnn.networks.RefineNet;
+import com.github.darrmirr.models.mtcnn.networks.dl4j.OutputNetModel;
+import com.github.darrmirr.models.mtcnn.networks.dl4j.ProposeNetModel;
+import com.github.darrmirr.models.mtcnn.networks.dl4j.RefineNetModel;
+import com.github.darrmirr.utils.BoundBox;
+import com.github.darrmirr.utils.ImageDecoder;
+import com.github.darrmirr.utils.Nd4jUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.INDArrayIndex;
+import org.springframework.core.io.ClassPathResource;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.nd4j.linalg.indexing.NDArrayIndex.all;
+import static org.nd4j.linalg.indexing.NDArrayIndex.interval;
+
+public class MtcnnTest {
+    private static final int FACE_IMAGE_SIZE = 45;
+    private ProposeNet proposeNet;
+    private RefineNet refineNet;
+    private OutputNet outputNet;
+    private MtcnnUtils mtcnnUtils = new MtcnnUtils();
+
+    @Before
+    public void setUp() throws IOException {
+        var inferenceLimiter = new InferenceLimiter();
+        proposeNet = new ProposeNet(new ProposeNetModel(), mtcnnUtils, inferenceLimiter);
+        refineNet = new RefineNet(new RefineNetModel(), mtcnnUtils, inferenceLimiter);
+        outputNet = new OutputNet(new OutputNetModel(), mtcnnUtils, inferenceLimiter);
+        proposeNet.init();
+        refineNet.init();
+        outputNet.init();
+    }
+
+    @Test
+    public void tiledDetectionFindsFacesOnce() throws IOException {
+        var imageFile = new ClassPathResource("images/dataset/test/Adele/01.jpg").getFile().toPath();
+        var face = Nd4jUtils.imresample(new ImageDecoder().decode(imageFile, 0).getImage(), FACE_IMAGE_SIZE, FACE_IMAGE_SIZE);
+        // small faces at large gray image : the first one is at overlap of adjacent tiles
+        var image = Nd4j.zeros(1, 3, 900, 1200).addi(128);
+        put(image, face, 560, 300);
+        put(image, face, 1000, 700);
+        var mtcnn = new Mtcnn(proposeNet, refineNet, outputNet, mtcnnUtils, true, 600, 100, 1200, 2, 0.95, 20);
+
+        List<BoundBox> boxes = mtcnn.detectFaces(image);
+        mtcnn.destroy();
+
+        assertThat(boxes, hasSize(2));
+        assertThat(contains(boxes, 560, 300), is(true));
+        assertThat(contains(boxes, 1000, 700), is(true));
+        assertThat(boxes.get(0).sourceWidth, is(1200));
+        assertThat(mtcnn.getDecodeSize(), is(600));
+        assertThat(mtcnn.getFullResolutionSize(), is(1200));
+    }
+
+    @Test
+    public void tiledDetectionReadsTilesOfFullResolutionImage() throws IOException {
+        var imageFile = new ClassPathResource("images/dataset/test/Adele/01.jpg").getFile().toPath();
+        var face = Nd4jUtils.imresample(new ImageDecoder().decode(imageFile, 0).getImage(), FACE_IMAGE_SIZE, FACE_IMAGE_SIZE);
+        var image = Nd4j.zeros(1, 3, 900, 1200).addi(128);
+        put(image, face, 560, 300);
+        put(image, face, 1000, 700);
+        var mtcnn = new Mtcnn(proposeNet, refineNet, outputNet, mtcnnUtils, true, 600, 100, 1200, 2, 0.95, 20);
+
+        List<BoundBox> boxes;
+        try (var decodedImage = new ImageDecoder().decode(toPng(image), mtcnn.getDecodeSize(), mtcnn.getFullResolutionSize())) {
+            assertThat(decodedImage.getImage().shape(), is(new long[] { 1, 3, 450, 600 }));
+            boxes = mtcnn.detectFacesTiled(decodedImage.getImage(), decodedImage.getFullResolution());
+        }
+        mtcnn.destroy();
+
+        // bound boxes are in coordinates of image at full resolution
+        assertThat(boxes, hasSize(2));
+        assertThat(contains(boxes, 560, 300), is(true));
+        assertThat(contains(boxes, 1000, 700), is(true));
+        assertThat(boxes.get(0).sourceWidth, is(1200));
+    }
+
+    @Test
+    public void requestDetectsFacesInsideRegionsOnly() throws IOException {
+        var imageFile = new ClassPathResource("images/dataset/test/Adele/01.jpg").getFile().toPath();
+        var face = Nd4jUtils.imresample(new ImageDecoder().decode(imageFile, 0).getImage(), FACE_IMAGE_SIZE, FACE_IMAGE_SIZE);
+        var image = Nd4j.zeros(1, 3, 500, 500).addi(128);
+        put(image, face, 60, 80);
+        put(image, face, 350, 300);
+        var mtcnn = new Mtcnn(proposeNet, refineNet, outputNet, mtcnnUtils);
+        var request = DetectionRequest.create()
+                .withFaceSize(30, 80)
+                .withRegions(List.of(new BoundBox(300, 250, 450, 400)));
+
+        assertThat(mtcnn.detectFaces(image), hasSize(2));
+        List<BoundBox> boxes = mtcnn.detectFaces(image, request);
+
+        assertThat(boxes, hasSize(1));
+        assertThat(contains(boxes, 350, 300), is(true));
+    }
+
+    @Test
+    public void singleFaceRequestDetectsDominantFace() throws IOException {
+        var imageFile = new ClassPathResource("images/dataset/test/Adele/01.jpg").getFile().toPath();
+        var face = Nd4jUtils.imresample(new ImageDecoder().decode(imageFile, 0).getImage(), FACE_IMAGE_SIZE, FACE_IMAGE_SIZE);
+        var largeFace = Nd4jUtils.imresample(new ImageDecoder().decode(imageFile, 0).getImage(), 3 * FACE_IMAGE_SIZE, 3 * FACE_IMAGE_SIZE);
+        var image = Nd4j.zeros(1, 3, 500, 500).addi(128);
+        put(image, face, 60, 80);
+        image.put(new INDArrayIndex[] { all(), all(), interval(250, 250 + 3 * FACE_IMAGE_SIZE), interval(250, 250 + 3 * FACE_IMAGE_SIZE) }, largeFace);
+        var mtcnn = new Mtcnn(proposeNet, refineNet, outputNet, mtcnnUtils);
+
+        List<BoundBox> boxes = mtcnn.detectFaces(image, DetectionRequest.create().withSingleFace());
+
+        assertThat(boxes, hasSize(1));
+        int centerX = (boxes.get(0).x1 + boxes.get(0).x2) / 2;
+        int centerY = (boxes.get(0).y1 + boxes.get(0).y2) / 2;
+        assertThat(centerX > 250 && centerX < 250 + 3 * FACE_IMAGE_SIZE && centerY > 250 && centerY < 250 + 3 * FACE_IMAGE_SIZE, is(true));
+    }
+
+    @Test
+    public void singleFaceRequestKeepsPyramidOfLargeImage() throws IOException {
+        var image = largeImage();
+        var mtcnn = new Mtcnn(proposeNet, refineNet, outputNet, mtcnnUtils);
+        var scaledImage = mtcnn.scale(image);
+        var request = DetectionRequest.create().withSingleFace();
+
+        // default min face size is not converted to coordinates of scaled image (no extra scale of the smallest faces)
+        assertThat(Arrays.toString(proposeNet.getScales(scaledImage, mtcnn.scale(image, scaledImage, request))),
+                is(Arrays.toString(proposeNet.getScales(scaledImage, DetectionRequest.create()))));
+        List<BoundBox> boxes = mtcnn.detectFaces(image, request);
+
+        assertThat(boxes, hasSize(1));
+        assertThat(contains(mtcnn.detectFaces(image), boxes.get(0)), is(true));
+    }
+
+    @Test
+    public void faceSizeRangeIsScaled() throws IOException {
+        var image = largeImage();
+        var mtcnn = new Mtcnn(proposeNet, refineNet, outputNet, mtcnnUtils);
+        var scaledImage = mtcnn.scale(image);
+
+        var scaledRequest = mtcnn.scale(image, scaledImage, DetectionRequest.create().withFaceSize(100, 400));
+
+        assertThat(scaledRequest.getMinFaceSize(), is(50));
+        assertThat(scaledRequest.getMaxFaceSize(), is(204));
+    }
+
+    @Test
+    public void deadlineSkipsScalesOfSmallFaces() throws IOException {
+        var imageFile = new ClassPathResource("images/dataset/train/Adele/Adele.jpg").getFile().toPath();
+        var image = new ImageDecoder().decode(imageFile, 0).getImage();
+        var mtcnn = new Mtcnn(proposeNet, refineNet, outputNet, mtcnnUtils);
+
+        var result = mtcnn.detect(image, DetectionRequest.create().withTimeout(Duration.ofMinutes(1)));
+        var expiredResult = mtcnn.detect(image, DetectionRequest.create().withTimeout(Duration.ZERO));
+
+        assertThat(result.isPartial(), is(false));
+        assertThat(toString(result.getFaces()), is(toString(mtcnn.detectFaces(image))));
+        assertThat(expiredResult.isPartial(), is(true));
+        assertThat(expiredResult.getSkippedScales() > 0, is(true));
+        assertThat(mtcnn.getSkippedScales(), is((long) expiredResult.getSkippedScales()));
+    }
+
+    @Test
+    public void generousDeadlineEqualsNoDeadlineAtLargeImage() throws IOException {
+        var image = largeImage();
+        var mtcnn = new Mtcnn(proposeNet, refineNet, outputNet, mtcnnUtils);
+        var scaledImage = mtcnn.scale(image);
+        var request = DetectionRequest.create().withTimeout(Duration.ofMinutes(1));
+
+        // default min face size is not converted to coordinates of scaled image (no extra scale of the smallest faces)
+        assertThat(Arrays.toString(proposeNet.getScales(scaledImage, mtcnn.scale(image, scaledImage, request))),
+                is(Arrays.toString(proposeNet.getScales(scaledImage, DetectionRequest.create()))));
+        var result = mtcnn.detect(image, request);
+
+        assertThat(result.isPartial(), is(false));
+        assertThat(toString(result.getFaces()), is(toString(mtcnn.detectFaces(image))));
+        assertThat(mtcnn.getPartialDetections(), is(0L));
+    }
+
+    private static String toString(List<BoundBox> boxes) {
+        var builder = new StringBuilder();
+        boxes.forEach(box -> builder.append(box.x1).append(',').append(box.y1).append(',').append(box.x2).append(',').append(box.y2).append(' '));
+        return builder.toString();
+    }
+
+    // image larger than optimized scale size (it is downscaled for detection)
+    private static INDArray largeImage() throws IOException {
+        var imageFile = new ClassPathResource("images/dataset/test/Katy_Perry/02-Katy-Perry.jpg").getFile().toPath();
+        return Nd4jUtils.imresample(new ImageDecoder().decode(imageFile, 0).getImage(), 876, 1180);
+    }
+
+    private static boolean contains(List<BoundBox> boxes, BoundBox face) {
+        int centerX = (face.x1 + face.x2) / 2;
+        int centerY = (face.y1 + face.y2) / 2;
+        return boxes.stream().anyMatch(box -> centerX > box.x1 && centerX < box.x2 && centerY > box.y1 && centerY < box.y2);
+    }
+
+    // encode BGR image to PNG (lossless)
+    private static ByteBuffer toPng(INDArray image) throws IOException {
+        int height = (int) image.shape()[2];
+        int width = (int) image.shape()[3];
+        var bufferedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                bufferedImage.setRGB(x, y, image.getInt(0, 2, y, x) << 16 | image.getInt(0, 1, y, x) << 8 | image.getInt(0, 0, y, x));
+            }
+        }
+        var png = new ByteArrayOutputStream();
+        ImageIO.write(bufferedImage, "png", png);
+        return ByteBuffer.wrap(png.toByteArray());
+    }
+
+    private static void put(INDArray image, INDArray face, int x, int y) {
+        image.put(new INDArrayIndex[] { all(), all(), interval(y, y + FACE_IMAGE_SIZE), interval(x, x + FACE_IMAGE_SIZE) }, face);
+    }
+
+    // box center is inside face image
+    private static boolean contains(List<BoundBox> boxes, int x, int y) {
+        return boxes.stream().anyMatch(box -> {
+            int centerX = (box.x1 + box.x2) / 2;
+            int centerY = (box.y1 + box.y2) / 2;
+            return centerX > x && centerX < x + FACE_IMAGE_SIZE && centerY > y && centerY < y + FACE_IMAGE_SIZE;
+        });
+    }
+}
@@ -0,0 +1,54 @@
+package com.github.darrmirr.models.mtcnn.networks;
+
+import com.github.darrmirr.concurrent.InferenceLimiter;
+import com.github.darrmirr.models.mtcnn.MtcnnUtils;
+import com.github.darrmirr.models.mtcnn.networks.dl4j.ProposeNetModel;
+import com.github.darrmirr.utils.ImageDecoder;
+import com.github.darrmirr.utils.Nd4jUtils;
+import org.junit.Test;
+import org.nd4j.linalg.factory.Nd4j;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.IOException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+public class ProposeNetTest {
+
+    @Test
+    public void parallelScalesAreEquivalent() throws IOException {
+        var imageFile = new ClassPathResource("images/dataset/train/Adele/Adele.jpg").getFile().toPath();
+        var image = Nd4jUtils.scale(new ImageDecoder().decode(imageFile, 0).getImage(), 600);
+        var mtcnnUtils = new MtcnnUtils();
+        var inferenceLimiter = new InferenceLimiter();
+        var proposeNet = new ProposeNet(new ProposeNetModel(), mtcnnUtils, inferenceLimiter);
+        var parallelProposeNet = new ProposeNet(new ProposeNetModel(), mtcnnUtils, inferenceLimiter, true, 4, 0);
+        proposeNet.init();
+        parallelProposeNet.init();
+
+        var boxes = proposeNet.execute(image, 0.6);
+        var parallelBoxes = parallelProposeNet.execute(image, 0.6);
+        parallelProposeNet.destroy();
+
+        assertThat(boxes.size(), greaterThan(0));
+        assertThat(parallelBoxes.toArray().equals(boxes.toArray()), is(true));
+    }
+
+    @Test
+    public void scalesCoverRequestedFaceSizes() {
+        var proposeNet = new ProposeNet(new ProposeNetModel(), new MtcnnUtils(), new InferenceLimiter());
+        var image = Nd4j.zeros(1, 3, 600, 600);
+
+        double[] allScales = proposeNet.getScales(image, 20, 0, 0.709);
+        double[] scales = proposeNet.getScales(image, 40, 100, 0.709);
+
+        assertThat(scales.length, lessThan(allScales.length));
+        // the first scale detects faces of min size, the last but one scale detects faces smaller than max size
+        assertThat(12 / scales[0], is(40.0));
+        assertThat(12 / scales[scales.length - 2], lessThan(100.0));
+        assertThat(12 / scales[scales.length - 1], greaterThan(100.0));
+    }
+}
@@ -0,0 +1,54 @@
+package com.github.darrmirr.models.mtcnn.networks;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class ScaleParallelismTunerTest {
+    private static final double[] SCALES = { 0.6, 0.4254, 0.3016, 0.2138, 0.1516, 0.1075, 0.0762 };
+
+    @Test
+    public void largeImageIsSplitByScales() {
+        var plan = new ScaleParallelismTuner(8, 50_000).plan(450, 600, SCALES);
+
+        assertThat(plan.getTasks(), is(2));
+        assertThat(plan.getIntraOpThreads(), is(4));
+        // the largest scale is evaluated alone, the rest of pyramid by the other task
+        assertThat(Arrays.toString(plan.getTaskScales().get(0)), is("[0]"));
+        assertThat(Arrays.toString(plan.getTaskScales().get(1)), is("[1, 2, 3, 4, 5, 6]"));
+    }
+
+    @Test
+    public void smallImageIsEvaluatedSequentially() {
+        var plan = new ScaleParallelismTuner(8, 50_000).plan(160, 160, SCALES);
+
+        assertThat(plan.getTasks(), is(1));
+        assertThat(plan.getIntraOpThreads(), is(8));
+        assertThat(plan.getTaskScales().get(0).length, is(SCALES.length));
+    }
+
+    @Test
+    public void singleCoreIsNotSplit() {
+        var plan = new ScaleParallelismTuner(1, 0).plan(450, 600, SCALES);
+
+        assertThat(plan.getTasks(), is(1));
+        assertThat(plan.getIntraOpThreads(), is(1));
+    }
+
+    @Test
+    public void planDoesNotExceedMaxTasks() {
+        var tuner = new ScaleParallelismTuner(8, 0);
+        // pyramid of 4000 x 3000 image, faces from 12 pixels
+        var scales = new double[17];
+        for (int i = 0; i < scales.length; i++) {
+            scales[i] = Math.pow(0.709, i);
+        }
+
+        assertThat(tuner.getMaxTasks(0.709), is(3));
+        assertThat(tuner.plan(3000, 4000, scales).getTasks() <= tuner.getMaxTasks(0.709), is(true));
+        assertThat(new ScaleParallelismTuner(1, 0).getMaxTasks(0.709), is(1));
+    }
+}
@@ -0,0 +1,122 @@
+package com.github.darrmirr.models.quantization;
+
+import com.github.darrmirr.models.custom.ActivationFakeQuant;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.inputs.InputType;
+import org.deeplearning4j.nn.conf.layers.ActivationLayer;
+import org.deeplearning4j.nn.conf.layers.ConvolutionLayer;
+import org.deeplearning4j.nn.conf.layers.DenseLayer;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.junit.Before;
+import org.junit.Test;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+import org.nd4j.linalg.ops.transforms.Transforms;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.not;
+
+public class Int8QuantizerTest {
+    private ComputationGraph graph;
+    private List<INDArray> inputs;
+
+    @Before
+    public void setUp() {
+        var configuration = new NeuralNetConfiguration.Builder()
+                .seed(1)
+                .graphBuilder()
+                .addInputs("input")
+                .setInputTypes(InputType.convolutional(16, 16, 3))
+                .addLayer("conv", new ConvolutionLayer.Builder(3, 3).nOut(8).activation(Activation.IDENTITY).build(), "input")
+                .addLayer("conv/act", new ActivationLayer.Builder().activation(Activation.RELU).build(), "conv")
+                .addLayer("dense", new DenseLayer.Builder().nOut(16).activation(Activation.IDENTITY).build(), "conv/act")
+                .addLayer("dense/act", new ActivationLayer.Builder().activation(Activation.IDENTITY).build(), "dense")
+                .setOutputs("dense/act")
+                .build();
+        graph = new ComputationGraph(configuration);
+        graph.init();
+        Nd4j.getRandom().setSeed(1);
+        inputs = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            inputs.add(Nd4j.rand(new int[] { 1, 3, 16, 16 }));
+        }
+    }
+
+    @Test
+    public void weightsArePerChannelInt8() {
+        var quantizer = new Int8Quantizer();
+        quantizer.calibrate(graph, inputs);
+        quantizer.quantize(graph);
+
+        var weights = graph.getLayer("conv").getParam("W");
+        for (int channel = 0; channel < weights.size(0); channel++) {
+            var values = weights.get(NDArrayIndex.point(channel), NDArrayIndex.all(), NDArrayIndex.all(), NDArrayIndex.all())
+                    .dup().data().asFloat();
+            var scale = Transforms.abs(Nd4j.create(values), true).maxNumber().doubleValue() / 127;
+            var levels = new HashSet<Long>();
+            for (float value : values) {
+                var level = value / scale;
+                assertThat(Math.abs(level - Math.round(level)), lessThanOrEqualTo(1e-3));
+                levels.add(Math.round(level));
+            }
+            assertThat(levels.size(), lessThanOrEqualTo(255));
+        }
+    }
+
+    @Test
+    public void activationsAreCalibrated() {
+        var quantizer = new Int8Quantizer();
+        quantizer.calibrate(graph, inputs);
+
+        assertThat(quantizer.getActivationRanges().keySet(), is(new HashSet<>(List.of("conv/act", "dense/act"))));
+        assertThat(quantizer.getActivationRanges().get("conv/act"), greaterThan(0.0));
+
+        quantizer.quantize(graph);
+        var activation = ((ActivationLayer) graph.getLayer("conv/act").conf().getLayer()).getActivationFn();
+        assertThat(activation, instanceOf(ActivationFakeQuant.class));
+    }
+
+    @Test
+    public void outputDriftIsSmall() {
+        var batch = Nd4j.concat(0, inputs.toArray(new INDArray[0]));
+        var reference = graph.outputSingle(batch).dup();
+
+        var quantizer = new Int8Quantizer();
+        quantizer.calibrate(graph, inputs);
+        quantizer.quantize(graph);
+        var quantized = graph.outputSingle(batch);
+
+        var report = QuantizationReport.of(reference, quantized, reference, quantized, List.of(
+                "a", "b", "c", "d", "e", "f", "g", "h", "i", "j"));
+        assertThat(report.getMeanDrift(), greaterThan(0.0));
+        assertThat(report.getMaxDrift(), lessThanOrEqualTo(1e-3));
+        assertThat(report.getAgreement(), is(1.0));
+    }
+
+    @Test
+    public void restoreReturnsFloatGraph() {
+        var batch = Nd4j.concat(0, inputs.toArray(new INDArray[0]));
+        var reference = graph.outputSingle(batch).dup();
+        var referenceParams = graph.params().dup();
+
+        var quantizer = new Int8Quantizer();
+        quantizer.calibrate(graph, inputs);
+        quantizer.quantize(graph);
+        quantizer.restore(graph);
+
+        var activation = ((ActivationLayer) graph.getLayer("conv/act").conf().getLayer()).getActivationFn();
+        assertThat(activation, not(instanceOf(ActivationFakeQuant.class)));
+        assertThat(graph.params().equals(referenceParams), is(true));
+        assertThat(graph.outputSingle(batch).equals(reference), is(true));
+    }
+}
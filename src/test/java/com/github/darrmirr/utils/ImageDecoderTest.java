@@ -0,0 +1,87 @@
+package com.github.darrmirr.utils;
+
+import org.datavec.image.loader.NativeImageLoader;
+import org.junit.Test;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.nd4j.linalg.indexing.NDArrayIndex.all;
+import static org.nd4j.linalg.indexing.NDArrayIndex.interval;
+
+public class ImageDecoderTest {
+    private static final String IMAGE = "images/dataset/test/Katy_Perry/02-Katy-Perry.jpg";
+    private ImageDecoder imageDecoder = new ImageDecoder();
+
+    @Test
+    public void decodeEqualsNativeImageLoader() throws IOException {
+        var resource = new ClassPathResource(IMAGE);
+        try (InputStream is = resource.getInputStream()) {
+            var expectedArray = new NativeImageLoader().asMatrix(is);
+
+            var decodedImage = imageDecoder.decode(resource.getFile().toPath(), 0);
+
+            assertThat(decodedImage.isDownscaled(), is(false));
+            assertThat(decodedImage.getImage().shape(), is(expectedArray.shape()));
+            assertThat(decodedImage.getImage().eq(expectedArray).minNumber(), is(1.0));
+        }
+    }
+
+    @Test
+    public void decodeDirectBufferEqualsFile() throws IOException {
+        var resource = new ClassPathResource(IMAGE);
+        var bytes = resource.getInputStream().readAllBytes();
+        var buffer = ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+
+        var decodedImage = imageDecoder.decode(buffer, 0);
+
+        assertThat(decodedImage.getImage().equals(imageDecoder.decode(resource.getFile().toPath(), 0).getImage()), is(true));
+    }
+
+    @Test
+    public void decodeDownscaled() throws IOException {
+        var resource = new ClassPathResource(IMAGE);
+        var buffer = ByteBuffer.wrap(resource.getInputStream().readAllBytes());
+
+        var decodedImage = imageDecoder.decode(buffer, 200);
+
+        // 590 x 438 image is reduced by 2 (reduction by 4 makes larger side less than 200)
+        assertThat(decodedImage.getScale(), is(2.0));
+        assertThat(decodedImage.getImage().shape(), is(new long[] { 1, 3, 219, 295 }));
+    }
+
+    @Test
+    public void decodeFileDownscaled() throws IOException {
+        var resource = new ClassPathResource(IMAGE);
+
+        var decodedImage = imageDecoder.decode(resource.getFile().toPath(), 100);
+
+        assertThat(decodedImage.getScale(), is(4.0));
+        assertThat(decodedImage.getImage().shape(), is(new long[] { 1, 3, 110, 148 }));
+    }
+
+    @Test
+    public void decodeKeepsFullResolution() throws IOException {
+        var resource = new ClassPathResource(IMAGE);
+        var fullImage = imageDecoder.decode(resource.getFile().toPath(), 0).getImage();
+
+        try (var decodedImage = imageDecoder.decode(resource.getFile().toPath(), 200, 500);
+             var smallImage = imageDecoder.decode(resource.getFile().toPath(), 200, 600)) {
+            var fullResolution = decodedImage.getFullResolution();
+
+            assertThat(decodedImage.getScale(), is(2.0));
+            assertThat(decodedImage.getImage().shape(), is(new long[] { 1, 3, 219, 295 }));
+            assertThat(fullResolution.getWidth(), is(590));
+            assertThat(fullResolution.getHeight(), is(438));
+            assertThat(fullResolution.crop(new BoundBox(100, 50, 300, 250))
+                    .equals(fullImage.get(all(), all(), interval(50, 250), interval(100, 300))), is(true));
+            // image smaller than full resolution size is not kept
+            assertThat(smallImage.getFullResolution(), is(nullValue()));
+        }
+    }
+}
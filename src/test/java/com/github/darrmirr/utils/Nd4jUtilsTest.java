@@ -1,16 +1,20 @@
 package com.github.darrmirr.utils;
 
+import com.github.darrmirr.models.InceptionResNetV1;
 import org.junit.Test;
 import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
 import org.nd4j.linalg.indexing.conditions.Conditions;
 import org.springframework.core.io.ClassPathResource;
 
 import java.io.IOException;
+import java.util.List;
 
 import static org.hamcrest.Matchers.is;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
 
 public class Nd4jUtilsTest {
 
@@ -99,4 +103,21 @@ public class Nd4jUtilsTest {
 
         assertThat(actualArray.eq(outputArray).minNumber(), is(1.0));
     }
+
+    @Test
+    public void resizeAndPrewhitenPerFace() {
+        Nd4j.getRandom().setSeed(3);
+        var face1 = Nd4j.rand(new int[] { 1, 3, 200, 180 }).muli(255);
+        var face2 = Nd4j.rand(new int[] { 1, 3, 90, 120 }).muli(100).addi(50);
+
+        var batch = Nd4jUtils.resizeAndPrewhiten(List.of(face1, face2), 160, 160);
+
+        assertThat(batch.shape(), is(new long[] { 2, 3, 160, 160 }));
+        for (int i = 0; i < 2; i++) {
+            var face = i == 0 ? face1 : face2;
+            var expected = InceptionResNetV1.prewhiten(Nd4jUtils.imresample(face, 160, 160));
+            var actual = batch.get(NDArrayIndex.point(i), NDArrayIndex.all(), NDArrayIndex.all(), NDArrayIndex.all());
+            assertThat(actual.reshape(expected.shape()).sub(expected).amaxNumber().doubleValue(), lessThan(1e-4));
+        }
+    }
 }
@@ -0,0 +1,74 @@
+package com.github.darrmirr.web;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load test harness for HTTP API
+ *
+ * Send requests to running application with fixed concurrency and print latency percentiles.
+ * It is not a unit test. Start application with --console.enabled=false and run main method with arguments:
+ *
+ * [url] [image path] [concurrency] [requests amount]
+ *
+ * e.g. http://localhost:8080/recognize src/main/resources/images/dataset/test/Adele/01.jpg 64 1000
+ */
+public class LoadTestHarness {
+
+    public static void main(String[] args) throws Exception {
+        var url = URI.create(args.length > 0 ? args[0] : "http://localhost:8080/recognize");
+        var image = Files.readAllBytes(Path.of(args.length > 1 ? args[1] : "src/main/resources/images/dataset/test/Adele/01.jpg"));
+        var concurrency = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        var requestsAmount = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+
+        var client = HttpClient.newHttpClient();
+        var permits = new Semaphore(concurrency);
+        var latencies = new long[requestsAmount];
+        var completed = new AtomicInteger();
+        Map<Integer, AtomicInteger> statuses = new ConcurrentHashMap<>();
+        var futures = new CompletableFuture<?>[requestsAmount];
+
+        var testStart = System.nanoTime();
+        for (int i = 0; i < requestsAmount; i++) {
+            permits.acquire();
+            var request = HttpRequest
+                    .newBuilder(url)
+                    .header("Content-Type", "application/octet-stream")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(image))
+                    .build();
+            var requestIdx = i;
+            var requestStart = System.nanoTime();
+            futures[i] = client
+                    .sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, e) -> {
+                        latencies[requestIdx] = System.nanoTime() - requestStart;
+                        var status = e == null ? response.statusCode() : -1;
+                        statuses.computeIfAbsent(status, key -> new AtomicInteger()).incrementAndGet();
+                        completed.incrementAndGet();
+                        permits.release();
+                    });
+        }
+        CompletableFuture.allOf(futures).exceptionally(e -> null).join();
+        var testDuration = System.nanoTime() - testStart;
+
+        Arrays.sort(latencies);
+        System.out.printf("requests : %d, concurrency : %d, duration : %.1f s, throughput : %.1f req/s%n",
+                completed.get(), concurrency, testDuration / 1e9, completed.get() / (testDuration / 1e9));
+        System.out.println("statuses : " + new TreeMap<>(statuses));
+        for (double percentile : new double[] { 50, 90, 95, 99, 99.9, 100 }) {
+            var idx = (int) Math.min(latencies.length - 1, Math.ceil(percentile / 100 * latencies.length) - 1);
+            System.out.printf("p%-5s : %8.1f ms%n", percentile, latencies[Math.max(idx, 0)] / 1e6);
+        }
+    }
+}